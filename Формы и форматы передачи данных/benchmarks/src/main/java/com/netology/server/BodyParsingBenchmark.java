@@ -0,0 +1,90 @@
+package com.netology.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+// Разбор тела POST в форматах x-www-form-urlencoded и multipart/form-data.
+// Части multipart больше порога (64 КБ) уходят в файлы спула, так что 1 МБ измеряет и запись на диск
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BodyParsingBenchmark {
+    private static final String BOUNDARY = "----benchmark7MA4YWxkTrZu0gW";
+
+    @Param({"64", "4096", "65536", "1048576"})
+    public int bodySize;
+
+    private byte[] urlEncoded;
+    private byte[] multipart;
+
+    @Setup
+    public void setup() throws IOException {
+        // Текст с пробелами и кириллицей, чтобы декодировался не только ASCII
+        StringBuilder text = new StringBuilder();
+        while (text.length() < bodySize) {
+            text.append("%D0%9F%D1%80%D0%B8%D0%B2%D0%B5%D1%82+world+");
+        }
+        String form = "author=John&message=" + text.substring(0, bodySize);
+        urlEncoded = request("application/x-www-form-urlencoded", form.getBytes(StandardCharsets.US_ASCII));
+
+        byte[] file = new byte[bodySize];
+        Arrays.fill(file, (byte) 'x');
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"message\"\r\n\r\n"
+                + "Hello World\r\n"
+                + "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"data.bin\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        body.write(file);
+        body.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        multipart = request("multipart/form-data; boundary=" + BOUNDARY, body.toByteArray());
+    }
+
+    private static byte[] request(String contentType, byte[] body) throws IOException {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        request.write(("POST /messages HTTP/1.1\r\n"
+                + "Host: localhost:9999\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + "Content-Length: " + body.length + "\r\n"
+                + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        request.write(body);
+        return request.toByteArray();
+    }
+
+    @Benchmark
+    public String urlEncoded() throws IOException {
+        Request request = Request.fromInputStream(new ByteArrayInputStream(urlEncoded));
+        String message = request.getPostParamsView().get("message");
+        request.cleanup();
+        return message;
+    }
+
+    @Benchmark
+    public long multipart() throws IOException {
+        Request request = Request.fromInputStream(new ByteArrayInputStream(multipart));
+        long size = request.getPartsView().get("file").getSize();
+        // Удаляет файлы спула
+        request.cleanup();
+        return size;
+    }
+}
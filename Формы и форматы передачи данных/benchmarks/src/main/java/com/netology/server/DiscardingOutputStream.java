@@ -0,0 +1,22 @@
+package com.netology.server;
+
+import java.io.OutputStream;
+
+// Поток-приёмник для бенчмарков: байты не сохраняются, только считаются
+final class DiscardingOutputStream extends OutputStream {
+    private long count;
+
+    @Override
+    public void write(int b) {
+        count++;
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) {
+        count += length;
+    }
+
+    long count() {
+        return count;
+    }
+}
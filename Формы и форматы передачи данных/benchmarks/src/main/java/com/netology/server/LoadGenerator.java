@@ -0,0 +1,462 @@
+package com.netology.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Нагрузочный генератор для запущенного сервера: смесь GET /messages, POST x-www-form-urlencoded и multipart.
+// Каждый поток держит одно постоянное соединение (keep-alive) и переоткрывает его, если сервер закрыл своё.
+//
+// Режим open (по умолчанию) - запросы идут с фиксированной частотой --rate независимо от ответов сервера,
+// как от множества независимых клиентов. Задержка считается от запланированного момента отправки, а не от
+// фактического: если сервер затормозил и запросы ушли позже, ожидание входит в задержку. Без этого
+// генератор сам подстраивается под медленный сервер и прячет его паузы (coordinated omission).
+// Время обслуживания (от фактической отправки) выводится отдельно для сравнения.
+// Режим closed - каждое соединение отправляет следующий запрос сразу после ответа; так измеряется предельная
+// пропускная способность, но задержки в этом режиме занижены и хвост по ним оценивать нельзя.
+//
+// java -cp target/benchmarks.jar com.netology.server.LoadGenerator --rate 2000 --connections 32 --duration 30
+public class LoadGenerator {
+    private static final double[] PERCENTILES = {0.5, 0.75, 0.9, 0.99, 0.999, 0.9999};
+    // Запрос, ушедший позже плана больше чем на это время, считается опоздавшим: генератору не хватает соединений
+    private static final long LATE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Settings settings;
+    private final byte[][] postBodies;
+    private final byte[] multipartBody;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram serviceTime = new LatencyHistogram();
+    private final LongAccumulator maxLatency = new LongAccumulator(Long::max, 0);
+    private final LongAccumulator maxServiceTime = new LongAccumulator(Long::max, 0);
+    private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder late = new LongAdder();
+    private final LongAdder connects = new LongAdder();
+    private final AtomicLong sequence = new AtomicLong();
+
+    LoadGenerator(Settings settings) {
+        this.settings = settings;
+        this.postBodies = new byte[64][];
+        for (int i = 0; i < postBodies.length; i++) {
+            postBodies[i] = ("author=loadgen&message=load+test+message+" + i).getBytes(StandardCharsets.US_ASCII);
+        }
+        this.multipartBody = multipart(settings.fileSize);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Settings settings;
+        try {
+            settings = Settings.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(Settings.USAGE);
+            System.exit(2);
+            return;
+        }
+        LoadGenerator generator = new LoadGenerator(settings);
+        generator.run();
+        generator.report(System.out);
+    }
+
+    void run() throws InterruptedException {
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(settings.warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(settings.durationSeconds);
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < settings.connections; i++) {
+            Thread worker = new Thread(() -> work(start, measureFrom, end), "load-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    private void work(long start, long measureFrom, long end) {
+        double interval = settings.open ? 1e9 / settings.rate : 0;
+        try (Client client = new Client()) {
+            while (true) {
+                long intended;
+                if (settings.open) {
+                    // Общее расписание на все соединения: запрос n должен уйти в start + n * interval
+                    intended = start + (long) (sequence.getAndIncrement() * interval);
+                    if (intended >= end) {
+                        return;
+                    }
+                    long wait = intended - System.nanoTime();
+                    while (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                        wait = intended - System.nanoTime();
+                    }
+                } else {
+                    intended = System.nanoTime();
+                    if (intended >= end) {
+                        return;
+                    }
+                }
+
+                long sent = System.nanoTime();
+                int status;
+                try {
+                    status = client.exchange(nextRequest());
+                } catch (IOException e) {
+                    status = -1;
+                }
+                long done = System.nanoTime();
+                if (intended >= measureFrom) {
+                    record(intended, sent, done, status);
+                }
+            }
+        }
+    }
+
+    private void record(long intended, long sent, long done, int status) {
+        if (status < 0) {
+            errors.increment();
+        } else {
+            statuses.computeIfAbsent(status, code -> new LongAdder()).increment();
+        }
+        long micros = (done - intended) / 1000;
+        long serviceMicros = (done - sent) / 1000;
+        latency.record(micros);
+        serviceTime.record(serviceMicros);
+        maxLatency.accumulate(micros);
+        maxServiceTime.accumulate(serviceMicros);
+        if (sent - intended > LATE_NANOS) {
+            late.increment();
+        }
+    }
+
+    private byte[] nextRequest() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int choice = random.nextInt(settings.getWeight + settings.postWeight + settings.multipartWeight);
+        if (choice < settings.getWeight) {
+            return request("GET", "/messages?last=" + random.nextInt(1000) + "&limit=20", null, null);
+        }
+        if (choice < settings.getWeight + settings.postWeight) {
+            return request("POST", "/messages", "application/x-www-form-urlencoded",
+                    postBodies[random.nextInt(postBodies.length)]);
+        }
+        return request("POST", "/messages", "multipart/form-data; boundary=" + Settings.BOUNDARY, multipartBody);
+    }
+
+    private byte[] request(String method, String target, String contentType, byte[] body) {
+        StringBuilder head = new StringBuilder(128)
+            .append(method).append(' ').append(target).append(" HTTP/1.1\r\n")
+            .append("Host: ").append(settings.host).append(':').append(settings.port).append("\r\n");
+        if (body != null) {
+            head.append("Content-Type: ").append(contentType).append("\r\n")
+                .append("Content-Length: ").append(body.length).append("\r\n");
+        }
+        byte[] headBytes = head.append("\r\n").toString().getBytes(StandardCharsets.US_ASCII);
+        if (body == null) {
+            return headBytes;
+        }
+        byte[] request = Arrays.copyOf(headBytes, headBytes.length + body.length);
+        System.arraycopy(body, 0, request, headBytes.length, body.length);
+        return request;
+    }
+
+    private static byte[] multipart(int fileSize) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] file = new byte[fileSize];
+        Arrays.fill(file, (byte) 'x');
+        String boundary = "--" + Settings.BOUNDARY;
+        body.writeBytes((boundary + "\r\nContent-Disposition: form-data; name=\"message\"\r\n\r\nload test upload\r\n"
+                + boundary + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"load.bin\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        body.writeBytes(file);
+        body.writeBytes(("\r\n" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        return body.toByteArray();
+    }
+
+    void report(PrintStream out) {
+        long completed = latency.getCount();
+        out.println(settings.open
+                ? String.format("Open loop: %d req/s target, %d connections, %d s (+%d s warmup)",
+                        settings.rate, settings.connections, settings.durationSeconds, settings.warmupSeconds)
+                : String.format("Closed loop: %d connections, %d s (+%d s warmup)",
+                        settings.connections, settings.durationSeconds, settings.warmupSeconds));
+        out.println(String.format("Mix: GET %d, POST urlencoded %d, POST multipart %d (file %d B)",
+                settings.getWeight, settings.postWeight, settings.multipartWeight, settings.fileSize));
+        StringBuilder codes = new StringBuilder();
+        new TreeMap<>(statuses).forEach((code, count) -> codes.append(' ').append(code).append('=').append(count.sum()));
+        out.println("Requests: " + completed + ", status" + codes + ", I/O errors " + errors.sum()
+                + ", connections opened " + connects.sum());
+        out.println(String.format("Throughput: %.1f req/s", completed / (double) settings.durationSeconds));
+        if (settings.open && late.sum() > 0) {
+            out.println(String.format("Started late (>1 ms behind schedule): %d (%.2f%%) - add --connections if this is large",
+                    late.sum(), 100.0 * late.sum() / Math.max(1, completed)));
+        }
+        out.println();
+        if (settings.open) {
+            table(out, "Latency, ms (from scheduled start, corrected for coordinated omission)", latency, maxLatency.get());
+            out.println();
+            table(out, "Service time, ms (from actual send)", serviceTime, maxServiceTime.get());
+        } else {
+            table(out, "Latency, ms (closed loop: not corrected for coordinated omission)", serviceTime, maxServiceTime.get());
+        }
+    }
+
+    private static void table(PrintStream out, String title, LatencyHistogram histogram, long max) {
+        out.println(title);
+        long[] snapshot = histogram.snapshot();
+        StringBuilder header = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+        for (double percentile : PERCENTILES) {
+            header.append(String.format("%10s", "p" + trim(percentile * 100)));
+            // Квантиль - верхняя граница корзины, она может оказаться больше точного максимума
+            long value = Math.min(LatencyHistogram.percentile(snapshot, percentile), max);
+            values.append(String.format("%10.3f", value / 1000.0));
+        }
+        header.append(String.format("%10s", "max"));
+        values.append(String.format("%10.3f", max / 1000.0));
+        out.println(header);
+        out.println(values);
+    }
+
+    private static String trim(double value) {
+        String text = String.valueOf(value);
+        return text.endsWith(".0") ? text.substring(0, text.length() - 2) : text;
+    }
+
+    // Одно постоянное соединение; ответ читается целиком и отбрасывается
+    private final class Client implements AutoCloseable {
+        private Socket socket;
+        private InputStream input;
+        private OutputStream output;
+        private int served;
+        private final StringBuilder line = new StringBuilder(128);
+        private final byte[] skip = new byte[16 * 1024];
+
+        int exchange(byte[] request) throws IOException {
+            boolean reused = socket != null && served > 0;
+            try {
+                return send(request);
+            } catch (IOException e) {
+                close();
+                if (!reused) {
+                    throw e;
+                }
+                // Сервер мог закрыть простаивающее соединение до того, как получил запрос: повторяем на новом
+                return send(request);
+            }
+        }
+
+        private int send(byte[] request) throws IOException {
+            if (socket == null) {
+                connect();
+            }
+            output.write(request);
+            output.flush();
+            int status = readResponse();
+            served++;
+            return status;
+        }
+
+        private void connect() throws IOException {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(settings.host, settings.port), 5000);
+            socket.setSoTimeout(settings.timeoutMillis);
+            input = new BufferedInputStream(socket.getInputStream(), 16 * 1024);
+            output = new BufferedOutputStream(socket.getOutputStream(), 16 * 1024);
+            served = 0;
+            connects.increment();
+        }
+
+        private int readResponse() throws IOException {
+            String statusLine = readLine();
+            if (statusLine.length() < 12 || !statusLine.startsWith("HTTP/1.")) {
+                throw new IOException("Bad status line: " + statusLine);
+            }
+            int status = Integer.parseInt(statusLine.substring(9, 12));
+            long contentLength = -1;
+            boolean chunked = false;
+            boolean close = statusLine.startsWith("HTTP/1.0");
+            String header;
+            while (!(header = readLine()).isEmpty()) {
+                int colon = header.indexOf(':');
+                if (colon < 0) {
+                    continue;
+                }
+                String name = header.substring(0, colon).trim();
+                String value = header.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("Content-Length")) {
+                    contentLength = Long.parseLong(value);
+                } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                    chunked = value.equalsIgnoreCase("chunked");
+                } else if (name.equalsIgnoreCase("Connection")) {
+                    close = value.equalsIgnoreCase("close");
+                }
+            }
+            boolean bodyless = status < 200 || status == 204 || status == 304;
+            if (!bodyless) {
+                if (chunked) {
+                    long size;
+                    while ((size = Long.parseLong(readLine().split(";", 2)[0].trim(), 16)) > 0) {
+                        skipBody(size);
+                        readLine();
+                    }
+                    // Трейлеры до пустой строки
+                    while (!readLine().isEmpty()) {
+                        // пропускаем
+                    }
+                } else if (contentLength >= 0) {
+                    skipBody(contentLength);
+                } else {
+                    // Тело до закрытия соединения
+                    while (input.read(skip) >= 0) {
+                        // пропускаем
+                    }
+                    close = true;
+                }
+            }
+            if (close) {
+                close();
+            }
+            return status;
+        }
+
+        private void skipBody(long length) throws IOException {
+            while (length > 0) {
+                int read = input.read(skip, 0, (int) Math.min(skip.length, length));
+                if (read < 0) {
+                    throw new EOFException("Connection closed in response body");
+                }
+                length -= read;
+            }
+        }
+
+        private String readLine() throws IOException {
+            line.setLength(0);
+            int c;
+            while ((c = input.read()) != '\n') {
+                if (c < 0) {
+                    throw new EOFException("Connection closed");
+                }
+                if (c != '\r') {
+                    line.append((char) c);
+                }
+            }
+            return line.toString();
+        }
+
+        @Override
+        public void close() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Соединение уже закрыто
+                }
+                socket = null;
+            }
+        }
+    }
+
+    static final class Settings {
+        static final String BOUNDARY = "----loadgen7MA4YWxkTrZu0gW";
+        static final String USAGE = "Options: --host localhost --port 9999 --mode open|closed --rate 1000 --connections 16"
+                + " --duration 30 --warmup 5 --mix get=80,post=15,multipart=5 --file-size 1024 --timeout 10000";
+
+        String host = "localhost";
+        int port = 9999;
+        boolean open = true;
+        int rate = 1000;
+        int connections = 16;
+        int durationSeconds = 30;
+        int warmupSeconds = 5;
+        int getWeight = 80;
+        int postWeight = 15;
+        int multipartWeight = 5;
+        int fileSize = 1024;
+        int timeoutMillis = 10_000;
+
+        static Settings parse(String[] args) {
+            Map<String, String> options = new LinkedHashMap<>();
+            for (int i = 0; i < args.length; i++) {
+                if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Expected --name value, got: " + args[i]);
+                }
+                options.put(args[i].substring(2), args[++i]);
+            }
+            Settings settings = new Settings();
+            for (Map.Entry<String, String> option : options.entrySet()) {
+                String value = option.getValue();
+                switch (option.getKey()) {
+                    case "host": settings.host = value; break;
+                    case "port": settings.port = positive(option); break;
+                    case "mode":
+                        if (!value.equals("open") && !value.equals("closed")) {
+                            throw new IllegalArgumentException("--mode must be open or closed");
+                        }
+                        settings.open = value.equals("open");
+                        break;
+                    case "rate": settings.rate = positive(option); break;
+                    case "connections": settings.connections = positive(option); break;
+                    case "duration": settings.durationSeconds = positive(option); break;
+                    case "warmup": settings.warmupSeconds = Integer.parseInt(value); break;
+                    case "file-size": settings.fileSize = Integer.parseInt(value); break;
+                    case "timeout": settings.timeoutMillis = positive(option); break;
+                    case "mix": settings.parseMix(value); break;
+                    default: throw new IllegalArgumentException("Unknown option --" + option.getKey());
+                }
+            }
+            return settings;
+        }
+
+        private void parseMix(String mix) {
+            getWeight = 0;
+            postWeight = 0;
+            multipartWeight = 0;
+            for (String part : mix.split(",")) {
+                String[] pair = part.split("=", 2);
+                int weight = pair.length == 2 ? Integer.parseInt(pair[1].trim()) : -1;
+                if (weight < 0) {
+                    throw new IllegalArgumentException("--mix expects name=weight pairs: " + mix);
+                }
+                switch (pair[0].trim()) {
+                    case "get": getWeight = weight; break;
+                    case "post": postWeight = weight; break;
+                    case "multipart": multipartWeight = weight; break;
+                    default: throw new IllegalArgumentException("Unknown request type in --mix: " + pair[0]);
+                }
+            }
+            if (getWeight + postWeight + multipartWeight == 0) {
+                throw new IllegalArgumentException("--mix needs at least one non-zero weight");
+            }
+        }
+
+        private static int positive(Map.Entry<String, String> option) {
+            int value = Integer.parseInt(option.getValue());
+            if (value <= 0) {
+                throw new IllegalArgumentException("--" + option.getKey() + " must be positive");
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.netology.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+// GET /messages: чтение страницы из ленты в памяти и построение JSON-ответа
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessagesBenchmark {
+    @Param({"1", "20", "100"})
+    public int limit;
+
+    private final DiscardingOutputStream sink = new DiscardingOutputStream();
+    private MessagesHandler handler;
+    private Request request;
+
+    @Setup
+    public void setup() throws IOException {
+        MessageLog log = new MessageLog();
+        for (int i = 0; i < 1000; i++) {
+            log.append("author" + (i % 10), "Сообщение номер " + i + " с \"кавычками\" и переводом\nстроки");
+        }
+        handler = new MessagesHandler(log);
+        request = new Request("GET", "/messages?last=500&limit=" + limit, Collections.emptyMap(), null);
+    }
+
+    @Benchmark
+    public long get() throws IOException {
+        Response response = new Response(sink);
+        handler.handle(request, response);
+        response.finish();
+        return sink.count();
+    }
+}
@@ -0,0 +1,57 @@
+package com.netology.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// Разбор заголовка запроса браузерного вида и его query string
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RequestBenchmark {
+    private byte[] get;
+
+    @Setup
+    public void setup() {
+        get = ("GET /messages?last=120&limit=20&author=John%20Smith&tag=news&tag=java HTTP/1.1\r\n"
+                + "Host: localhost:9999\r\n"
+                + "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:128.0) Gecko/20100101 Firefox/128.0\r\n"
+                + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n"
+                + "Accept-Language: ru-RU,ru;q=0.8,en-US;q=0.5,en;q=0.3\r\n"
+                + "Accept-Encoding: gzip, deflate, br\r\n"
+                + "Connection: keep-alive\r\n"
+                + "Cookie: session=8f14e45fceea167a5a36dedd4bea2543; theme=dark\r\n"
+                + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Benchmark
+    public String parseHead() throws IOException {
+        Request request = Request.fromInputStream(new ByteArrayInputStream(get));
+        String host = request.getHeader("Host");
+        request.cleanup();
+        return host;
+    }
+
+    @Benchmark
+    public int parseQuery() throws IOException {
+        Request request = Request.fromInputStream(new ByteArrayInputStream(get));
+        int size = request.getQueryParamsView().size();
+        request.cleanup();
+        return size;
+    }
+}
@@ -0,0 +1,76 @@
+package com.netology.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Response.send: заголовок и тело в поток и в слот ResponseSequencer (как при обработке соединения),
+// без сжатия и с gzip
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResponseBenchmark {
+    @Param({"128", "4096", "65536"})
+    public int bodySize;
+
+    @Param({"identity", "gzip"})
+    public String encoding;
+
+    private final DiscardingOutputStream sink = new DiscardingOutputStream();
+    private final List<Object> segments = new ArrayList<>();
+    private byte[] body;
+
+    @Setup
+    public void setup() {
+        // JSON-подобный текст: сжимается так же, как реальные ответы
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < bodySize; i++) {
+            text.append("{\"id\":").append(i).append(",\"author\":\"user").append(i % 7)
+                .append("\",\"message\":\"Hello ").append(i * 31 % 1000).append("\"},");
+        }
+        body = text.substring(0, bodySize).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private Response prepare(Response response) {
+        response.setCompression(encoding, 1024);
+        return response.addHeader("Content-Type", "application/json; charset=utf-8")
+                       .addHeader("Connection", "keep-alive")
+                       .setBody(body);
+    }
+
+    @Benchmark
+    public long sendToStream() throws IOException {
+        prepare(new Response(sink)).send();
+        return sink.count();
+    }
+
+    @Benchmark
+    public int sendToSlot() throws IOException {
+        ResponseSequencer.Slot slot = new ResponseSequencer.Slot();
+        prepare(new Response(slot)).send();
+        int length = (int) slot.length();
+        slot.drainTo(segments);
+        for (Object segment : segments) {
+            ResponseSequencer.Slot.release(segment);
+        }
+        segments.clear();
+        return length;
+    }
+}
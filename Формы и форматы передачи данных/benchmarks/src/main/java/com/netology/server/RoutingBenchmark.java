@@ -0,0 +1,83 @@
+package com.netology.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+// Поиск маршрута в таблице из нескольких десятков путей и полный dispatch с пустым обработчиком
+// (сжатие, поиск, метрики, отправка короткого ответа)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RoutingBenchmark {
+    private static final String[] RESOURCES = {"messages", "users", "files", "orders", "products", "comments"};
+    private static final byte[] OK = {'o', 'k'};
+
+    private final Router router = new Router();
+    private final RequestHandler handler = new RequestHandler(new ServerConfig());
+    private final DiscardingOutputStream sink = new DiscardingOutputStream();
+    private Request staticRequest;
+    private Request paramRequest;
+
+    @Setup
+    public void setup() {
+        Handler ok = (request, response) -> response.setBody(OK).send();
+        for (String resource : RESOURCES) {
+            add("GET", "/" + resource, ok);
+            add("POST", "/" + resource, ok);
+            add("GET", "/" + resource + "/{id}", ok);
+            add("DELETE", "/" + resource + "/{id}", ok);
+            add("GET", "/" + resource + "/{id}/history", ok);
+        }
+        add("GET", "/users/{user}/messages/{id}", ok);
+        add("GET", "/static/*", ok);
+        staticRequest = new Request("GET", "/products", Collections.emptyMap(), null);
+        paramRequest = new Request("GET", "/users/42/messages/7", Collections.emptyMap(), null);
+    }
+
+    private void add(String method, String path, Handler handler) {
+        router.add(method, path, handler);
+        this.handler.addHandler(method, path, handler);
+    }
+
+    @Benchmark
+    public Router.Route findStatic() {
+        return router.find("/products");
+    }
+
+    @Benchmark
+    public Router.Route findWithParams() {
+        return router.find("/users/42/messages/7");
+    }
+
+    @Benchmark
+    public Router.Route findMissing() {
+        return router.find("/products/42/reviews");
+    }
+
+    @Benchmark
+    public long dispatchStatic() throws IOException {
+        handler.dispatch(staticRequest, new Response(sink));
+        return sink.count();
+    }
+
+    @Benchmark
+    public long dispatchWithParams() throws IOException {
+        handler.dispatch(paramRequest, new Response(sink));
+        return sink.count();
+    }
+}
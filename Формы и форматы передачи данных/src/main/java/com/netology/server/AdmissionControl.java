@@ -0,0 +1,153 @@
+package com.netology.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Допуск соединений к пулу потоков (режим THREAD_POOL).
+// Очередь ожидающих соединений ограничена: при переполнении соединение сразу получает 503 с Retry-After.
+// Время ожидания в очереди контролируется по схеме CoDel: если очередь не опустошалась дольше interval,
+// сервер считается перегруженным и соединения, прождавшие больше target, отклоняются тем же 503;
+// без перегрузки допустимое ожидание - interval. Так принятые запросы не ждут секундами, а лишние отсекаются дёшево
+final class AdmissionControl {
+    private final ThreadPoolExecutor executor;
+    private final RequestHandler handler;
+    private final long targetNanos;
+    private final long intervalNanos;
+    // Готовый ответ 503: отказ не тратит время на формирование ответа
+    private final byte[] rejection;
+    // Момент, когда очередь последний раз была пуста
+    private volatile long lastEmpty = System.nanoTime();
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    AdmissionControl(ServerConfig config, RequestHandler handler) {
+        this(config, handler, config.getWorkerThreads(), config.getMaxQueuedConnections());
+    }
+
+    // Пул одного из нескольких потоков приёма: workerThreads и maxQueuedConnections - его доля общих
+    AdmissionControl(ServerConfig config, RequestHandler handler, int workerThreads, int maxQueuedConnections) {
+        this.handler = handler;
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(config.getQueueDelayTargetMillis());
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(config.getQueueDelayIntervalMillis());
+        this.rejection = rejection(config.getRetryAfterSeconds());
+        this.executor = new ThreadPoolExecutor(workerThreads, workerThreads,
+                0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(maxQueuedConnections));
+    }
+
+    private static byte[] rejection(int retryAfterSeconds) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            new Response(output)
+                .setStatus(503, "Service Unavailable")
+                .addHeader("Retry-After", String.valueOf(retryAfterSeconds))
+                .addHeader("Connection", "close")
+                .setBody("Service Unavailable")
+                .send();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return output.toByteArray();
+    }
+
+    // Вызывается потоком accept; не блокируется
+    void submit(Socket socket) {
+        long now = System.nanoTime();
+        if (executor.getQueue().isEmpty()) {
+            lastEmpty = now;
+        }
+        try {
+            executor.execute(new Admission(socket, now));
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            reject(socket);
+        }
+    }
+
+    // Решение о соединении, которое поток пула только что взял из очереди
+    boolean admit(long enqueued, long now, boolean queueEmpty) {
+        if (queueEmpty) {
+            lastEmpty = now;
+        }
+        boolean overloaded = now - lastEmpty > intervalNanos;
+        return now - enqueued <= (overloaded ? targetNanos : intervalNanos);
+    }
+
+    private void reject(Socket socket) {
+        try (Socket connection = socket) {
+            connection.getOutputStream().write(rejection);
+            connection.shutdownOutput();
+            // Непрочитанный запрос при close() превращается в RST, и клиент может потерять ответ;
+            // ждать запрос не будем, вычитываем только то, что уже пришло
+            InputStream input = connection.getInputStream();
+            int available;
+            while ((available = input.available()) > 0) {
+                input.skip(available);
+            }
+        } catch (IOException e) {
+            // Клиент уже отключился
+        }
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    int getQueued() {
+        return executor.getQueue().size();
+    }
+
+    long getAdmitted() {
+        return admitted.sum();
+    }
+
+    // Отказы из-за переполненной очереди
+    long getRejected() {
+        return rejected.sum();
+    }
+
+    // Отказы из-за долгого ожидания в очереди
+    long getDropped() {
+        return dropped.sum();
+    }
+
+    private final class Admission implements Runnable {
+        private final Socket socket;
+        private final long enqueued;
+
+        private Admission(Socket socket, long enqueued) {
+            this.socket = socket;
+            this.enqueued = enqueued;
+        }
+
+        @Override
+        public void run() {
+            if (!admit(enqueued, System.nanoTime(), executor.getQueue().isEmpty())) {
+                dropped.increment();
+                reject(socket);
+                return;
+            }
+            admitted.increment();
+            try {
+                // Простаивающее keep-alive соединение уступает поток, как только в очереди кто-то появился
+                handler.handle(socket, () -> !executor.getQueue().isEmpty());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AdmissionControl{queued=" + getQueued() + ", admitted=" + getAdmitted()
+                + ", rejected=" + getRejected() + ", dropped=" + getDropped() + "}";
+    }
+}
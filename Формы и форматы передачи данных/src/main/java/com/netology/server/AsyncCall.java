@@ -0,0 +1,188 @@
+package com.netology.server;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Один вызов асинхронного обработчика. Запрос завершает первое из трёх событий: стадия обработчика
+// завершилась, истёк срок ответа или транспорт закрыл соединение (отменил done). Завершение отправляет
+// ответ (свой, 500 или 503), записывает метрики и завершает done, по которому транспорт отправляет ответ клиенту
+final class AsyncCall {
+    // Статус для метрик, когда клиент ушёл, не дождавшись ответа (как 499 в nginx)
+    static final int CLIENT_CLOSED = 499;
+
+    private final RequestHandler owner;
+    private final Router.Route route;
+    private final Request request;
+    private final Response response;
+    private final long start;
+    private final AtomicBoolean finished = new AtomicBoolean();
+    // Завершается, когда ответ записан в слот; исключение - ответ оборван и соединение нужно закрыть
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+    private volatile CompletionStage<?> stage;
+    private volatile ScheduledFuture<?> timeout;
+
+    AsyncCall(RequestHandler owner, Router.Route route, Request request, Response response, long start) {
+        this.owner = owner;
+        this.route = route;
+        this.request = request;
+        this.response = response;
+        this.start = start;
+    }
+
+    CompletableFuture<Void> start(Target target) {
+        done.whenComplete((result, error) -> {
+            if (done.isCancelled()) {
+                cancelled();
+            }
+        });
+        if (target.timeoutMillis > 0) {
+            timeout = Timer.INSTANCE.schedule(this::expired, target.timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        CompletionStage<?> result;
+        try {
+            result = target.handler.handle(request, response);
+        } catch (RuntimeException e) {
+            handlerDone(e);
+            return done;
+        }
+        if (result == null) {
+            // Обработчик ответил сразу
+            handlerDone(null);
+            return done;
+        }
+        stage = result;
+        result.whenComplete((value, error) -> handlerDone(error));
+        if (finished.get()) {
+            // Срок истёк раньше, чем обработчик вернул стадию
+            cancelStage();
+        }
+        return done;
+    }
+
+    private void handlerDone(Throwable error) {
+        if (!finished.compareAndSet(false, true)) {
+            // Ответ уже заменён 503 или клиент ушёл; обработчик больше не держит запрос
+            request.discard();
+            return;
+        }
+        cancelTimeout();
+        Throwable failure = null;
+        try {
+            if (error != null) {
+                owner.failed(response, unwrap(error));
+            } else {
+                owner.completed(route, request, response);
+            }
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+        }
+        owner.finished(route, request, response.getStatusCode(), start);
+        complete(failure);
+    }
+
+    private void expired() {
+        if (!finished.compareAndSet(false, true)) {
+            return;
+        }
+        cancelStage();
+        Throwable failure = null;
+        int status = 503;
+        try {
+            if (!response.expire(503, "Service Unavailable", "Request timed out")) {
+                status = response.getStatusCode();
+                if (response.isCommitted()) {
+                    // Часть потокового ответа уже ушла, дописать его некому
+                    failure = new IOException("Async handler timed out after response was committed");
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+        }
+        owner.getMetrics().requestFinished(route.pattern(), request.getMethod(), status, System.nanoTime() - start);
+        complete(failure);
+    }
+
+    // Вызывается в потоке транспорта до того, как буфер слота вернётся в пул
+    private void cancelled() {
+        if (!finished.compareAndSet(false, true)) {
+            return;
+        }
+        cancelTimeout();
+        cancelStage();
+        response.abandon();
+        owner.getMetrics().requestFinished(route.pattern(), request.getMethod(), CLIENT_CLOSED, System.nanoTime() - start);
+    }
+
+    private void complete(Throwable failure) {
+        if (failure == null) {
+            done.complete(null);
+        } else {
+            done.completeExceptionally(failure);
+        }
+    }
+
+    private void cancelTimeout() {
+        ScheduledFuture<?> current = timeout;
+        if (current != null) {
+            current.cancel(false);
+        }
+    }
+
+    // Стадии без Future (не CompletableFuture) отменить нельзя: обработчик узнает об отмене,
+    // только когда его send() бросит IOException
+    private void cancelStage() {
+        CompletionStage<?> current = stage;
+        if (current instanceof Future) {
+            ((Future<?>) current).cancel(true);
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    // Асинхронный обработчик в таблице маршрутов и срок его ответа
+    static final class Target implements Handler {
+        private final AsyncHandler handler;
+        private final long timeoutMillis;
+
+        Target(AsyncHandler handler, long timeoutMillis) {
+            this.handler = handler;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        // RequestHandler вызывает асинхронные маршруты через AsyncCall; этот путь нужен только тому,
+        // кто возьмёт обработчик из таблицы напрямую
+        @Override
+        public void handle(Request request, Response response) throws IOException {
+            CompletionStage<?> result = handler.handle(request, response);
+            if (result != null) {
+                RequestHandler.await(result.toCompletableFuture());
+            }
+        }
+    }
+
+    // Общий на все серверы поток таймаутов; создаётся при первом асинхронном запросе
+    private static final class Timer {
+        private static final ScheduledExecutorService INSTANCE = create();
+
+        private static ScheduledExecutorService create() {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "async-timeout");
+                thread.setDaemon(true);
+                return thread;
+            });
+            // Ответы почти всегда приходят раньше срока: отменённые таймеры не должны копиться в очереди
+            executor.setRemoveOnCancelPolicy(true);
+            return executor;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.netology.server;
+
+import java.util.concurrent.CompletionStage;
+
+// Асинхронный обработчик: не держит поток транспорта, пока ждёт хранилище или другой сервис.
+// Ответ можно отправить из любого потока до завершения возвращённой стадии; если стадия завершилась
+// с ошибкой до отправки, клиент получит 500. Не уложившийся в таймаут запрос получает 503,
+// а стадия отменяется - так же, как при отключении клиента
+@FunctionalInterface
+public interface AsyncHandler {
+    CompletionStage<?> handle(Request request, Response response);
+}
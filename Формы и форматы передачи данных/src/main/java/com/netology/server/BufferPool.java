@@ -0,0 +1,212 @@
+package com.netology.server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+// Пул буферов, общий для разбора запросов, multipart и записи ответов.
+// Размеры округляются вверх до класса (степени двойки от 4 КБ до 256 КБ); буферы больше 256 КБ не переиспользуются.
+// Пул разбит на полосы (stripes) по потокам: потоки обычно попадают в разные полосы и не конкурируют за блокировку.
+// В отличие от ThreadLocal, это работает и для виртуальных потоков, которые живут один запрос
+public final class BufferPool {
+    private static final int MIN_SHIFT = 12;
+    private static final int MAX_SHIFT = 18;
+    private static final int CLASSES = MAX_SHIFT - MIN_SHIFT + 1;
+    // Сколько байт каждого класса держит одна полоса
+    private static final int BYTES_PER_CLASS = 256 * 1024;
+    private static final int MAX_BUFFERS_PER_CLASS = 32;
+
+    private static final BufferPool SHARED = new BufferPool(Runtime.getRuntime().availableProcessors());
+
+    private final Stripe[] stripes;
+    private final int mask;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder directHits = new LongAdder();
+    private final LongAdder directMisses = new LongAdder();
+    private final LongAdder recycled = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    BufferPool(int concurrency) {
+        int count = Integer.highestOneBit(Math.max(1, concurrency - 1)) << 1;
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.mask = count - 1;
+    }
+
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    // Массив длиной не меньше minSize; после использования его нужно вернуть через release
+    public byte[] acquire(int minSize) {
+        int sizeClass = sizeClass(minSize);
+        if (sizeClass < 0) {
+            misses.increment();
+            return new byte[minSize];
+        }
+        byte[] buffer = stripe().pollHeap(sizeClass);
+        if (buffer != null) {
+            hits.increment();
+            return buffer;
+        }
+        misses.increment();
+        return new byte[classSize(sizeClass)];
+    }
+
+    // Массив не должен использоваться после возврата; чужие массивы (не из пула по размеру) просто отбрасываются
+    public void release(byte[] buffer) {
+        int sizeClass = exactClass(buffer.length);
+        if (sizeClass < 0) {
+            return;
+        }
+        if (stripe().offerHeap(sizeClass, buffer)) {
+            recycled.increment();
+        } else {
+            dropped.increment();
+        }
+    }
+
+    // Direct-буфер ёмкостью не меньше minSize, position = 0, limit = capacity
+    public ByteBuffer acquireDirect(int minSize) {
+        int sizeClass = sizeClass(minSize);
+        if (sizeClass < 0) {
+            directMisses.increment();
+            return ByteBuffer.allocateDirect(minSize);
+        }
+        ByteBuffer buffer = stripe().pollDirect(sizeClass);
+        if (buffer != null) {
+            directHits.increment();
+            buffer.clear();
+            return buffer;
+        }
+        directMisses.increment();
+        return ByteBuffer.allocateDirect(classSize(sizeClass));
+    }
+
+    public void releaseDirect(ByteBuffer buffer) {
+        int sizeClass = exactClass(buffer.capacity());
+        if (!buffer.isDirect() || sizeClass < 0) {
+            return;
+        }
+        if (stripe().offerDirect(sizeClass, buffer)) {
+            recycled.increment();
+        } else {
+            dropped.increment();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getDirectHits() {
+        return directHits.sum();
+    }
+
+    public long getDirectMisses() {
+        return directMisses.sum();
+    }
+
+    // Буферы, возвращённые в пул
+    public long getRecycled() {
+        return recycled.sum();
+    }
+
+    // Буферы, не поместившиеся в пул при возврате
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool{heap hits=" + getHits() + ", misses=" + getMisses()
+                + ", direct hits=" + getDirectHits() + ", misses=" + getDirectMisses()
+                + ", recycled=" + getRecycled() + ", dropped=" + getDropped() + "}";
+    }
+
+    static int sizeClass(int size) {
+        if (size <= 1 << MIN_SHIFT) {
+            return 0;
+        }
+        int sizeClass = 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+        return sizeClass < CLASSES ? sizeClass : -1;
+    }
+
+    private static int exactClass(int size) {
+        int sizeClass = sizeClass(size);
+        return sizeClass >= 0 && classSize(sizeClass) == size ? sizeClass : -1;
+    }
+
+    private static int classSize(int sizeClass) {
+        return 1 << (sizeClass + MIN_SHIFT);
+    }
+
+    private Stripe stripe() {
+        int hash = System.identityHashCode(Thread.currentThread());
+        return stripes[(hash ^ (hash >>> 16)) & mask];
+    }
+
+    private static final class Stripe {
+        private final byte[][][] heap = new byte[CLASSES][][];
+        private final int[] heapCount = new int[CLASSES];
+        private final ByteBuffer[][] direct = new ByteBuffer[CLASSES][];
+        private final int[] directCount = new int[CLASSES];
+
+        Stripe() {
+            for (int i = 0; i < CLASSES; i++) {
+                int capacity = Math.max(1, Math.min(MAX_BUFFERS_PER_CLASS, BYTES_PER_CLASS / classSize(i)));
+                heap[i] = new byte[capacity][];
+                direct[i] = new ByteBuffer[capacity];
+            }
+        }
+
+        synchronized byte[] pollHeap(int sizeClass) {
+            int count = heapCount[sizeClass];
+            if (count == 0) {
+                return null;
+            }
+            heapCount[sizeClass] = --count;
+            byte[] buffer = heap[sizeClass][count];
+            heap[sizeClass][count] = null;
+            return buffer;
+        }
+
+        synchronized boolean offerHeap(int sizeClass, byte[] buffer) {
+            int count = heapCount[sizeClass];
+            if (count == heap[sizeClass].length) {
+                return false;
+            }
+            heap[sizeClass][count] = buffer;
+            heapCount[sizeClass] = count + 1;
+            return true;
+        }
+
+        synchronized ByteBuffer pollDirect(int sizeClass) {
+            int count = directCount[sizeClass];
+            if (count == 0) {
+                return null;
+            }
+            directCount[sizeClass] = --count;
+            ByteBuffer buffer = direct[sizeClass][count];
+            direct[sizeClass][count] = null;
+            return buffer;
+        }
+
+        synchronized boolean offerDirect(int sizeClass, ByteBuffer buffer) {
+            int count = directCount[sizeClass];
+            if (count == direct[sizeClass].length) {
+                return false;
+            }
+            direct[sizeClass][count] = buffer;
+            directCount[sizeClass] = count + 1;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.netology.server;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+// Тело ответа в кодировке Transfer-Encoding: chunked (или как есть, без разбиения на чанки, для HTTP/1.0).
+// Данные копятся в буфере фиксированного размера и уходят чанками; flush() отправляет накопленное клиенту сразу,
+// а без явного flush() записанное передаётся на отправку, как только наберётся PUSH_THRESHOLD байт
+class ChunkedOutputStream extends OutputStream {
+    static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+    private static final int PUSH_THRESHOLD = 64 * 1024;
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final OutputStream out;
+    private final Flushable push;
+    private final byte[] buffer;
+    private final int capacity;
+    private final boolean chunked;
+    // Размер чанка в hex и CRLF после него
+    private final byte[] chunkHeader = new byte[10];
+    private int count;
+    private int unpushed;
+    private boolean closed;
+
+    ChunkedOutputStream(OutputStream out, int bufferSize, Flushable push) {
+        this(out, bufferSize, push, true);
+    }
+
+    ChunkedOutputStream(OutputStream out, int bufferSize, Flushable push, boolean chunked) {
+        this.out = out;
+        this.push = push;
+        this.chunked = chunked;
+        // Массив из пула может оказаться больше запрошенного, размер чанка задаёт capacity
+        this.buffer = BufferPool.shared().acquire(bufferSize);
+        this.capacity = bufferSize;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (count == capacity) {
+            writeBuffered();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        ensureOpen();
+        if (length >= capacity) {
+            // Большой блок уходит отдельным чанком, минуя буфер
+            writeBuffered();
+            writeChunk(data, offset, length);
+            return;
+        }
+        if (length > capacity - count) {
+            writeBuffered();
+        }
+        System.arraycopy(data, offset, buffer, count, length);
+        count += length;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        writeBuffered();
+        pushOut();
+    }
+
+    // Завершает тело последним пустым чанком; сам ответ уходит вместе с остальными ответами соединения
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            writeBuffered();
+            if (chunked) {
+                out.write(LAST_CHUNK);
+            }
+        } finally {
+            closed = true;
+            BufferPool.shared().release(buffer);
+        }
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    private void writeBuffered() throws IOException {
+        if (count > 0) {
+            writeChunk(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    private void writeChunk(byte[] data, int offset, int length) throws IOException {
+        if (!chunked) {
+            out.write(data, offset, length);
+            unpushed += length;
+            if (unpushed >= PUSH_THRESHOLD) {
+                pushOut();
+            }
+            return;
+        }
+        int digits = (35 - Integer.numberOfLeadingZeros(length | 1)) / 4;
+        for (int i = digits - 1, value = length; i >= 0; i--, value >>>= 4) {
+            chunkHeader[i] = HEX[value & 0xf];
+        }
+        chunkHeader[digits] = '\r';
+        chunkHeader[digits + 1] = '\n';
+        out.write(chunkHeader, 0, digits + 2);
+        out.write(data, offset, length);
+        out.write(CRLF);
+        unpushed += length;
+        if (unpushed >= PUSH_THRESHOLD) {
+            pushOut();
+        }
+    }
+
+    private void pushOut() throws IOException {
+        unpushed = 0;
+        push.flush();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+    }
+}
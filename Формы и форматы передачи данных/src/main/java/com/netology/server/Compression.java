@@ -0,0 +1,262 @@
+package com.netology.server;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// Сжатие тела ответа gzip/deflate.
+// Deflater держит нативную память, и создавать его на каждый ответ дорого, поэтому экземпляры берутся из пула
+final class Compression {
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+
+    private static final int MAX_POOLED_DEFLATERS = 32;
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    // gzip использует "сырой" deflate с собственным заголовком, deflate в HTTP - формат zlib
+    private static final DeflaterPool RAW = new DeflaterPool(true);
+    private static final DeflaterPool ZLIB = new DeflaterPool(false);
+    private static final BufferPool BUFFERS = BufferPool.shared();
+
+    private Compression() {
+    }
+
+    // Выбирает кодировку по Accept-Encoding: побеждает больший q, при равенстве gzip; q=0 запрещает кодировку.
+    // "*" задаёт q только для кодировок, не перечисленных явно: "gzip;q=0, *" не разрешает gzip
+    static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        double gzip = -1;
+        double deflate = -1;
+        double any = -1;
+        for (String token : acceptEncoding.split(",")) {
+            int semicolon = token.indexOf(';');
+            String coding = (semicolon < 0 ? token : token.substring(0, semicolon)).trim();
+            double quality = semicolon < 0 ? 1 : quality(token.substring(semicolon + 1));
+            if (coding.equalsIgnoreCase(GZIP)) {
+                gzip = quality;
+            } else if (coding.equalsIgnoreCase(DEFLATE)) {
+                deflate = quality;
+            } else if (coding.equals("*")) {
+                any = quality;
+            }
+        }
+        if (gzip < 0) {
+            gzip = Math.max(any, 0);
+        }
+        if (deflate < 0) {
+            deflate = Math.max(any, 0);
+        }
+        if (gzip <= 0 && deflate <= 0) {
+            return null;
+        }
+        return gzip >= deflate ? GZIP : DEFLATE;
+    }
+
+    // Значение q из параметров кодировки; без q или с неразборчивым q - 1
+    private static double quality(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            String value = parameter.trim();
+            if (!value.regionMatches(true, 0, "q=", 0, 2)) {
+                continue;
+            }
+            try {
+                return Double.parseDouble(value.substring(2).trim());
+            } catch (NumberFormatException e) {
+                return 1;
+            }
+        }
+        return 1;
+    }
+
+    // Уже сжатые форматы повторно не сжимаем: выигрыша нет, а процессор тратится
+    static boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase();
+        if (type.startsWith("text/") || type.startsWith("application/json") || type.startsWith("application/javascript")
+                || type.startsWith("application/xml") || type.startsWith("application/x-www-form-urlencoded")
+                || type.startsWith("image/svg+xml")) {
+            return true;
+        }
+        return type.contains("+json") || type.contains("+xml");
+    }
+
+    // Сжимает data[offset, offset + length); результат - начало возвращённого массива длиной compressedLength[0].
+    // Массив взят из BufferPool, и вернуть его туда должен вызывающий
+    static byte[] compress(String encoding, byte[] data, int offset, int length, int[] compressedLength) {
+        boolean gzip = GZIP.equals(encoding);
+        DeflaterPool pool = gzip ? RAW : ZLIB;
+        Deflater deflater = pool.acquire();
+        byte[] out = BUFFERS.acquire(Math.max(64, length / 2));
+        try {
+            // Для сжимаемых данных результат почти всегда меньше исходных, так что перевыделение - редкость
+            int size = 0;
+            if (gzip) {
+                System.arraycopy(GZIP_HEADER, 0, out, 0, GZIP_HEADER.length);
+                size = GZIP_HEADER.length;
+            }
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (size == out.length) {
+                    out = grow(out, out.length * 2);
+                }
+                size += deflater.deflate(out, size, out.length - size);
+            }
+            if (gzip) {
+                CRC32 crc = new CRC32();
+                crc.update(data, offset, length);
+                if (size + 8 > out.length) {
+                    out = grow(out, size + 8);
+                }
+                writeIntLE(out, size, (int) crc.getValue());
+                writeIntLE(out, size + 4, length);
+                size += 8;
+            }
+            compressedLength[0] = size;
+            return out;
+        } catch (RuntimeException e) {
+            BUFFERS.release(out);
+            throw e;
+        } finally {
+            pool.release(deflater);
+        }
+    }
+
+    private static byte[] grow(byte[] buffer, int size) {
+        byte[] larger = BUFFERS.acquire(size);
+        System.arraycopy(buffer, 0, larger, 0, buffer.length);
+        BUFFERS.release(buffer);
+        return larger;
+    }
+
+    // Потоковое сжатие: flush() выполняет SYNC_FLUSH, чтобы клиент мог распаковать уже отправленное
+    static OutputStream compressingStream(String encoding, OutputStream out) throws IOException {
+        return new CompressingOutputStream(GZIP.equals(encoding), out);
+    }
+
+    private static void writeIntLE(byte[] out, int at, int value) {
+        out[at] = (byte) value;
+        out[at + 1] = (byte) (value >>> 8);
+        out[at + 2] = (byte) (value >>> 16);
+        out[at + 3] = (byte) (value >>> 24);
+    }
+
+    private static final class DeflaterPool {
+        private final boolean nowrap;
+        private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+
+        DeflaterPool(boolean nowrap) {
+            this.nowrap = nowrap;
+        }
+
+        Deflater acquire() {
+            Deflater deflater = deflaters.poll();
+            if (deflater == null) {
+                return new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap);
+            }
+            size.decrementAndGet();
+            return deflater;
+        }
+
+        void release(Deflater deflater) {
+            deflater.reset();
+            if (size.incrementAndGet() <= MAX_POOLED_DEFLATERS) {
+                deflaters.offer(deflater);
+            } else {
+                size.decrementAndGet();
+                deflater.end();
+            }
+        }
+    }
+
+    private static final class CompressingOutputStream extends FilterOutputStream {
+        private final boolean gzip;
+        private final DeflaterPool pool;
+        private final CRC32 crc = new CRC32();
+        private final byte[] buffer = BUFFERS.acquire(8 * 1024);
+        private Deflater deflater;
+        private int total;
+
+        CompressingOutputStream(boolean gzip, OutputStream out) throws IOException {
+            super(out);
+            this.gzip = gzip;
+            this.pool = gzip ? RAW : ZLIB;
+            this.deflater = pool.acquire();
+            if (gzip) {
+                out.write(GZIP_HEADER);
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            if (deflater == null) {
+                throw new IOException("Stream is closed");
+            }
+            if (gzip) {
+                crc.update(data, offset, length);
+            }
+            total += length;
+            deflater.setInput(data, offset, length);
+            while (!deflater.needsInput()) {
+                drain(Deflater.NO_FLUSH);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (deflater != null) {
+                drain(Deflater.SYNC_FLUSH);
+            }
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (deflater == null) {
+                return;
+            }
+            try {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    drain(Deflater.NO_FLUSH);
+                }
+                if (gzip) {
+                    byte[] trailer = new byte[8];
+                    writeIntLE(trailer, 0, (int) crc.getValue());
+                    writeIntLE(trailer, 4, total);
+                    out.write(trailer);
+                }
+            } finally {
+                pool.release(deflater);
+                deflater = null;
+                BUFFERS.release(buffer);
+            }
+            out.close();
+        }
+
+        private void drain(int flush) throws IOException {
+            int length;
+            do {
+                length = deflater.deflate(buffer, 0, buffer.length, flush);
+                if (length > 0) {
+                    out.write(buffer, 0, length);
+                }
+            } while (length == buffer.length);
+        }
+    }
+}
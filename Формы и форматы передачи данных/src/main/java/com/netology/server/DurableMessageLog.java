@@ -0,0 +1,694 @@
+package com.netology.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+// Лента сообщений на диске: журнал только на добавление, разбитый на сегменты.
+// Сегмент - файл <номер первого сообщения>.log с записями подряд и разреженный индекс <номер>.index:
+// пара (номер сообщения, смещение) примерно на каждые INDEX_INTERVAL байт журнала, так что GET ?last=N
+// находит сегмент и место в нём двоичным поиском и читает с диска только нужную страницу.
+// Запись: [длина][CRC32][номер][время][длина автора][автор UTF-8][текст UTF-8].
+// Пишет один поток за раз (сообщения идут в файл строго по номерам), читатели блокировок не берут:
+// они видят только записи до опубликованного размера сегмента.
+// При открытии последний сегмент проверяется по CRC и обрезается по последней целой записи - так
+// лечится запись, оборванная падением процесса или ОС
+public final class DurableMessageLog implements MessageStore, Closeable {
+    private static final String LOG_SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".index";
+    private static final int INDEX_INTERVAL = 4096;
+    private static final int INDEX_ENTRY_SIZE = 8;
+    // Длина и CRC перед телом записи
+    private static final int HEADER_SIZE = 8;
+    // Номер, время и длина автора в начале тела записи
+    private static final int FIXED_PAYLOAD_SIZE = 20;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final BufferPool POOL = BufferPool.shared();
+
+    private final Path directory;
+    private final MessageStoreConfig config;
+    private final Object writeLock = new Object();
+    private final Object syncLock = new Object();
+    // По возрастанию номера первого сообщения; заменяется целиком (copy-on-write)
+    private volatile Segment[] segments;
+    private volatile long lastId;
+    // Байты, записанные и синхронизированные с диском с момента открытия (для группового fsync)
+    private volatile long written;
+    private volatile long synced;
+    private final ScheduledExecutorService flusher;
+    private volatile boolean closed;
+    // Первый сбой fsync. После него неизвестно, какие записанные страницы дошли до диска (повторный fsync
+    // может "успешно" вернуться, потеряв их), поэтому журнал больше не принимает записи до переоткрытия
+    private volatile IOException syncFailure;
+    // Сколько байт оборванных записей отрезано при открытии
+    private long truncatedBytes;
+    // Сегменты, удалённые по сроку хранения только из памяти: их файлы удалятся при следующем открытии
+    private final LongAdder deleteFailures = new LongAdder();
+
+    private DurableMessageLog(Path directory, MessageStoreConfig config) {
+        this.directory = directory;
+        this.config = config;
+        this.flusher = config.getFsyncPolicy() == FsyncPolicy.GROUP_COMMIT
+                ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "message-log-flusher");
+                    thread.setDaemon(true);
+                    return thread;
+                })
+                : null;
+    }
+
+    public static DurableMessageLog open(Path directory) throws IOException {
+        return open(directory, new MessageStoreConfig());
+    }
+
+    public static DurableMessageLog open(Path directory, MessageStoreConfig config) throws IOException {
+        Files.createDirectories(directory);
+        DurableMessageLog log = new DurableMessageLog(directory, config);
+        log.recover();
+        if (log.flusher != null) {
+            long interval = config.getGroupCommitIntervalMillis();
+            log.flusher.scheduleWithFixedDelay(log::flushQuietly, interval, interval, TimeUnit.MILLISECONDS);
+        }
+        return log;
+    }
+
+    @Override
+    public Message append(String author, String text) throws IOException {
+        Message message;
+        long target;
+        synchronized (writeLock) {
+            if (closed) {
+                throw new IOException("Message log is closed");
+            }
+            checkSyncFailure();
+            message = new Message(lastId + 1, author, text, System.currentTimeMillis());
+            byte[] authorBytes = author != null ? author.getBytes(StandardCharsets.UTF_8) : null;
+            byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+            int length = HEADER_SIZE + FIXED_PAYLOAD_SIZE + (authorBytes != null ? authorBytes.length : 0) + textBytes.length;
+            if (length > config.getSegmentSize()) {
+                throw new IOException("Message is too large: " + length + " bytes");
+            }
+
+            byte[] record = POOL.acquire(length);
+            try {
+                encode(record, message, authorBytes, textBytes, length);
+                Segment segment = active();
+                if (segment.size > 0 && segment.size + length > config.getSegmentSize()) {
+                    segment = roll(message.getId());
+                }
+                segment.write(record, length, message.getId());
+            } finally {
+                POOL.release(record);
+            }
+            lastId = message.getId();
+            written += length;
+            target = written;
+        }
+
+        if (config.getFsyncPolicy() == FsyncPolicy.EVERY_WRITE
+                || (config.getFsyncPolicy() == FsyncPolicy.GROUP_COMMIT && target - synced >= config.getGroupCommitBytes())) {
+            syncTo(target);
+        }
+        return message;
+    }
+
+    @Override
+    public List<Message> read(long after, int limit) throws IOException {
+        try {
+            return readFrom(Math.max(after, 0) + 1, limit);
+        } catch (ClosedChannelException e) {
+            // Сегмент удалили по сроку хранения прямо во время чтения - повторяем с самого старого сообщения
+            if (closed) {
+                throw e;
+            }
+            return readFrom(Math.max(Math.max(after, 0) + 1, firstId()), limit);
+        }
+    }
+
+    @Override
+    public long lastId() {
+        return lastId;
+    }
+
+    @Override
+    public long firstId() {
+        return Math.min(segments[0].baseId, lastId + 1);
+    }
+
+    // Синхронизирует с диском всё записанное к этому моменту
+    public void flush() throws IOException {
+        checkSyncFailure();
+        syncTo(written);
+    }
+
+    // Байты оборванных записей, отрезанные при открытии журнала
+    public long getTruncatedBytes() {
+        return truncatedBytes;
+    }
+
+    public boolean isSyncFailed() {
+        return syncFailure != null;
+    }
+
+    public long getDeleteFailures() {
+        return deleteFailures.sum();
+    }
+
+    private void checkSyncFailure() throws IOException {
+        IOException failure = syncFailure;
+        if (failure != null) {
+            throw new IOException("Message log fsync failed earlier, written messages may be lost", failure);
+        }
+    }
+
+    // fsync с запоминанием сбоя: фоновый сбой в GROUP_COMMIT иначе никто бы не увидел
+    private void force(Segment segment) throws IOException {
+        try {
+            segment.force();
+        } catch (IOException e) {
+            if (syncFailure == null) {
+                syncFailure = e;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            if (closed) {
+                return;
+            }
+            if (flusher != null) {
+                flusher.shutdown();
+            }
+            try {
+                if (config.getFsyncPolicy() != FsyncPolicy.OS) {
+                    flush();
+                }
+            } finally {
+                // Под syncLock, чтобы фоновый fsync не попал на закрытый файл
+                synchronized (syncLock) {
+                    closed = true;
+                    IOException failure = null;
+                    for (Segment segment : segments) {
+                        try {
+                            segment.close();
+                        } catch (IOException e) {
+                            if (failure == null) {
+                                failure = e;
+                            } else {
+                                failure.addSuppressed(e);
+                            }
+                        }
+                    }
+                    if (failure != null) {
+                        throw failure;
+                    }
+                }
+            }
+        }
+    }
+
+    int segmentCount() {
+        return segments.length;
+    }
+
+    private List<Message> readFrom(long next, int limit) throws IOException {
+        List<Message> result = new ArrayList<>(Math.max(0, Math.min(limit, 1024)));
+        Segment[] current = segments;
+        byte[] buffer = POOL.acquire(READ_BUFFER_SIZE);
+        try {
+            for (int i = segmentFor(current, next); i < current.length && result.size() < limit; i++) {
+                buffer = current[i].read(next, limit, result, buffer);
+                if (!result.isEmpty()) {
+                    next = result.get(result.size() - 1).getId() + 1;
+                }
+            }
+        } finally {
+            POOL.release(buffer);
+        }
+        return result;
+    }
+
+    // Последний сегмент, первый номер которого не больше id
+    private static int segmentFor(Segment[] segments, long id) {
+        int low = 0;
+        int high = segments.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (segments[middle].baseId <= id) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private Segment active() {
+        Segment[] current = segments;
+        return current[current.length - 1];
+    }
+
+    // Закрывает текущий сегмент и начинает новый с сообщения nextId; вызывается под writeLock
+    private Segment roll(long nextId) throws IOException {
+        Segment previous = active();
+        if (config.getFsyncPolicy() != FsyncPolicy.OS) {
+            // Всё до начала нового сегмента должно оказаться на диске раньше, чем групповой fsync переключится на него
+            force(previous);
+        }
+        Segment next = Segment.create(directory, nextId);
+        Segment[] current = segments;
+        Segment[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = next;
+        segments = updated;
+        applyRetention();
+        return next;
+    }
+
+    // Удаляет самые старые закрытые сегменты сверх retentionBytes и старше retentionMillis
+    private void applyRetention() {
+        long limitBytes = config.getRetentionBytes();
+        long limitMillis = config.getRetentionMillis();
+        Segment[] current = segments;
+        long total = 0;
+        for (Segment segment : current) {
+            total += segment.size;
+        }
+        int removed = 0;
+        long now = System.currentTimeMillis();
+        while (removed < current.length - 1) {
+            Segment oldest = current[removed];
+            boolean tooLarge = limitBytes > 0 && total > limitBytes;
+            boolean tooOld = limitMillis > 0 && oldest.lastModified() < now - limitMillis;
+            if (!tooLarge && !tooOld) {
+                break;
+            }
+            total -= oldest.size;
+            removed++;
+        }
+        if (removed == 0) {
+            return;
+        }
+        segments = Arrays.copyOfRange(current, removed, current.length);
+        for (int i = 0; i < removed; i++) {
+            try {
+                current[i].delete();
+            } catch (IOException e) {
+                // Читатели сегмент уже не видят, а оставшиеся файлы снова попадут под срок хранения при открытии
+                deleteFailures.increment();
+            }
+        }
+    }
+
+    private void syncTo(long target) throws IOException {
+        synchronized (syncLock) {
+            // Пока мы ждали, чужой fsync мог уже покрыть наши байты
+            if (synced >= target || closed) {
+                return;
+            }
+            long upTo = written;
+            force(active());
+            synced = upTo;
+        }
+    }
+
+    // Сбой запоминается в force(): его получит следующий append() или flush()
+    private void flushQuietly() {
+        try {
+            if (synced < written && syncFailure == null) {
+                syncTo(written);
+            }
+        } catch (IOException e) {
+            // Уже записан в syncFailure
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Long> bases = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + LOG_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    bases.add(Long.parseLong(name.substring(0, name.length() - LOG_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Чужой файл в каталоге журнала
+                }
+            }
+        }
+        bases.sort(null);
+
+        List<Segment> opened = new ArrayList<>();
+        for (int i = 0; i < bases.size(); i++) {
+            boolean last = i == bases.size() - 1;
+            opened.add(Segment.open(directory, bases.get(i), last || config.getFsyncPolicy() == FsyncPolicy.OS));
+        }
+        if (opened.isEmpty()) {
+            opened.add(Segment.create(directory, 1));
+        }
+        segments = opened.toArray(new Segment[0]);
+        for (Segment segment : segments) {
+            truncatedBytes += segment.truncated;
+        }
+        lastId = active().lastId;
+        applyRetention();
+    }
+
+    private static void encode(byte[] record, Message message, byte[] author, byte[] text, int length) {
+        ByteBuffer buffer = ByteBuffer.wrap(record, 0, length);
+        buffer.putInt(length - HEADER_SIZE);
+        buffer.putInt(0);
+        buffer.putLong(message.getId());
+        buffer.putLong(message.getTimestamp());
+        buffer.putInt(author != null ? author.length : -1);
+        if (author != null) {
+            buffer.put(author);
+        }
+        buffer.put(text);
+        CRC32 crc = new CRC32();
+        crc.update(record, HEADER_SIZE, length - HEADER_SIZE);
+        ByteBuffer.wrap(record, 4, 4).putInt((int) crc.getValue());
+    }
+
+    private static final class Segment {
+        private final long baseId;
+        private final Path logFile;
+        private final Path indexFile;
+        private final FileChannel log;
+        private final FileChannel index;
+        // Размер целых записей: читатели не заходят дальше
+        private volatile int size;
+        private volatile long lastId;
+        // Разреженный индекс в памяти: номер относительно baseId и смещение записи.
+        // Массивы публикуются раньше счётчика, поэтому читатель, прочитавший счётчик, видит записи до него
+        private volatile int[] indexIds = new int[16];
+        private volatile int[] indexPositions = new int[16];
+        private volatile int indexCount;
+        private int lastIndexedPosition;
+        // Сколько байт оборванных записей отрезано при восстановлении
+        private long truncated;
+
+        private Segment(long baseId, Path logFile, Path indexFile, FileChannel log, FileChannel index) {
+            this.baseId = baseId;
+            this.logFile = logFile;
+            this.indexFile = indexFile;
+            this.log = log;
+            this.index = index;
+            this.lastId = baseId - 1;
+        }
+
+        static Segment create(Path directory, long baseId) throws IOException {
+            Path logFile = directory.resolve(fileName(baseId, LOG_SUFFIX));
+            Path indexFile = directory.resolve(fileName(baseId, INDEX_SUFFIX));
+            FileChannel log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            FileChannel index = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            return new Segment(baseId, logFile, indexFile, log, index);
+        }
+
+        // Закрытые сегменты берут индекс из файла и проверяют по CRC только хвост после последней записи индекса.
+        // Последний сегмент (и любой сегмент при fsync на усмотрение ОС, когда на диск могли не попасть
+        // страницы из середины файла) проверяется целиком, и индекс строится заново
+        static Segment open(Path directory, long baseId, boolean full) throws IOException {
+            Path logFile = directory.resolve(fileName(baseId, LOG_SUFFIX));
+            Path indexFile = directory.resolve(fileName(baseId, INDEX_SUFFIX));
+            FileChannel log = FileChannel.open(logFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            FileChannel index = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            Segment segment = new Segment(baseId, logFile, indexFile, log, index);
+            try {
+                if (full || !segment.loadIndex()) {
+                    segment.scan(0);
+                } else {
+                    segment.scan(segment.lastIndexedPosition);
+                }
+            } catch (IOException e) {
+                try {
+                    segment.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                throw e;
+            }
+            return segment;
+        }
+
+        private static String fileName(long baseId, String suffix) {
+            return String.format("%020d%s", baseId, suffix);
+        }
+
+        void write(byte[] record, int length, long id) throws IOException {
+            int position = size;
+            if (position - lastIndexedPosition >= INDEX_INTERVAL) {
+                addIndex(id, position, true);
+            }
+            writeFully(log, ByteBuffer.wrap(record, 0, length), position);
+            lastId = id;
+            size = position + length;
+        }
+
+        // Дочитывает в result сообщения с номерами от next; возвращает буфер (он мог вырасти под большую запись)
+        byte[] read(long next, int limit, List<Message> result, byte[] buffer) throws IOException {
+            int end = size;
+            long position = next > baseId ? positionOf(next) : 0;
+            while (position < end && result.size() < limit) {
+                int length = (int) Math.min(buffer.length, end - position);
+                readFully(log, ByteBuffer.wrap(buffer, 0, length), position);
+                int offset = 0;
+                while (offset + HEADER_SIZE <= length && result.size() < limit) {
+                    int payload = readInt(buffer, offset);
+                    if (offset + HEADER_SIZE + payload > length) {
+                        break;
+                    }
+                    int start = offset + HEADER_SIZE;
+                    long id = readLong(buffer, start);
+                    if (id >= next) {
+                        result.add(decode(buffer, start, payload));
+                    }
+                    offset = start + payload;
+                }
+                if (offset == 0) {
+                    // Запись не помещается в буфер целиком: меняем его на больший из пула, прежний возвращаем.
+                    // Вызывающий вернёт в пул тот буфер, который получит в ответ
+                    byte[] larger = POOL.acquire(HEADER_SIZE + readInt(buffer, 0));
+                    POOL.release(buffer);
+                    buffer = larger;
+                    continue;
+                }
+                position += offset;
+            }
+            return buffer;
+        }
+
+        // Смещение записи, с которой стоит начинать поиск сообщения id
+        private long positionOf(long id) {
+            int count = indexCount;
+            int[] ids = indexIds;
+            int[] positions = indexPositions;
+            long relative = id - baseId;
+            int low = 0;
+            int high = count - 1;
+            int found = -1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (ids[middle] <= relative) {
+                    found = middle;
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return found >= 0 ? positions[found] : 0;
+        }
+
+        private void addIndex(long id, int position, boolean persist) throws IOException {
+            int count = indexCount;
+            int[] ids = indexIds;
+            int[] positions = indexPositions;
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+                positions = Arrays.copyOf(positions, count * 2);
+            }
+            ids[count] = (int) (id - baseId);
+            positions[count] = position;
+            indexIds = ids;
+            indexPositions = positions;
+            indexCount = count + 1;
+            lastIndexedPosition = position;
+            if (persist) {
+                ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+                entry.putInt(ids[count]).putInt(position).flip();
+                writeFully(index, entry, (long) count * INDEX_ENTRY_SIZE);
+            }
+        }
+
+        // Индекс из файла годится, если записи возрастают и не выходят за журнал
+        private boolean loadIndex() throws IOException {
+            long fileSize = log.size();
+            long indexSize = index.size();
+            if (fileSize > Integer.MAX_VALUE || indexSize % INDEX_ENTRY_SIZE != 0) {
+                return false;
+            }
+            ByteBuffer entries = ByteBuffer.allocate((int) indexSize);
+            readFully(index, entries, 0);
+            entries.flip();
+            int previousId = -1;
+            int previousPosition = -1;
+            while (entries.hasRemaining()) {
+                int id = entries.getInt();
+                int position = entries.getInt();
+                if (id <= previousId || position <= previousPosition || position >= fileSize) {
+                    indexCount = 0;
+                    return false;
+                }
+                addIndex(baseId + id, position, false);
+                previousId = id;
+                previousPosition = position;
+            }
+            return true;
+        }
+
+        // Проходит журнал от from (начала записи) с проверкой CRC и отрезает хвост после последней целой записи.
+        // С начала файла индекс строится заново
+        private void scan(long from) throws IOException {
+            if (from == 0) {
+                indexCount = 0;
+                lastIndexedPosition = 0;
+                index.truncate(0);
+            }
+            long fileSize = log.size();
+            byte[] buffer = POOL.acquire(READ_BUFFER_SIZE);
+            long position = from;
+            try {
+                CRC32 crc = new CRC32();
+                scanning:
+                while (position < fileSize) {
+                    int length = (int) Math.min(buffer.length, fileSize - position);
+                    readFully(log, ByteBuffer.wrap(buffer, 0, length), position);
+                    int offset = 0;
+                    while (offset + HEADER_SIZE <= length) {
+                        int payload = readInt(buffer, offset);
+                        if (payload < FIXED_PAYLOAD_SIZE || position + offset + HEADER_SIZE + payload > fileSize) {
+                            position += offset;
+                            break scanning;
+                        }
+                        if (offset + HEADER_SIZE + payload > length) {
+                            break;
+                        }
+                        crc.reset();
+                        crc.update(buffer, offset + HEADER_SIZE, payload);
+                        if ((int) crc.getValue() != readInt(buffer, offset + 4)) {
+                            position += offset;
+                            break scanning;
+                        }
+                        long id = readLong(buffer, offset + HEADER_SIZE);
+                        long recordPosition = position + offset;
+                        if (recordPosition - lastIndexedPosition >= INDEX_INTERVAL) {
+                            addIndex(id, (int) recordPosition, true);
+                        }
+                        lastId = id;
+                        offset += HEADER_SIZE + payload;
+                    }
+                    if (length < HEADER_SIZE) {
+                        // Обрывок заголовка в конце файла
+                        break;
+                    }
+                    if (offset == 0) {
+                        byte[] larger = POOL.acquire(HEADER_SIZE + readInt(buffer, 0));
+                        POOL.release(buffer);
+                        buffer = larger;
+                        continue;
+                    }
+                    position += offset;
+                }
+            } finally {
+                POOL.release(buffer);
+            }
+            if (position < fileSize) {
+                truncated = fileSize - position;
+                log.truncate(position);
+            }
+            size = (int) position;
+        }
+
+        long lastModified() {
+            try {
+                return Files.getLastModifiedTime(logFile).toMillis();
+            } catch (IOException e) {
+                return System.currentTimeMillis();
+            }
+        }
+
+        void force() throws IOException {
+            log.force(false);
+            index.force(false);
+        }
+
+        void close() throws IOException {
+            try {
+                log.close();
+            } finally {
+                index.close();
+            }
+        }
+
+        void delete() throws IOException {
+            close();
+            Files.deleteIfExists(logFile);
+            Files.deleteIfExists(indexFile);
+        }
+
+        private static Message decode(byte[] buffer, int start, int payload) {
+            long id = readLong(buffer, start);
+            long timestamp = readLong(buffer, start + 8);
+            int authorLength = readInt(buffer, start + 16);
+            int textStart = start + FIXED_PAYLOAD_SIZE + Math.max(authorLength, 0);
+            String author = authorLength >= 0
+                    ? new String(buffer, start + FIXED_PAYLOAD_SIZE, authorLength, StandardCharsets.UTF_8)
+                    : null;
+            String text = new String(buffer, textStart, start + payload - textStart, StandardCharsets.UTF_8);
+            return new Message(id, author, text, timestamp);
+        }
+    }
+
+    private static int readInt(byte[] buffer, int at) {
+        return ((buffer[at] & 0xff) << 24) | ((buffer[at + 1] & 0xff) << 16) | ((buffer[at + 2] & 0xff) << 8) | (buffer[at + 3] & 0xff);
+    }
+
+    private static long readLong(byte[] buffer, int at) {
+        return ((long) readInt(buffer, at) << 32) | (readInt(buffer, at + 4) & 0xffffffffL);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of segment");
+            }
+            position += read;
+        }
+    }
+}
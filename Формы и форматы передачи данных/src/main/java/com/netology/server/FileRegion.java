@@ -0,0 +1,62 @@
+package com.netology.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Участок файла, который отправляется клиенту через FileChannel.transferTo без чтения в кучу.
+// Для SocketChannel ядро копирует данные из page cache прямо в сокет (sendfile)
+final class FileRegion implements Closeable {
+    private final FileChannel channel;
+    private long position;
+    private final long end;
+
+    FileRegion(FileChannel channel, long position, long count) {
+        this.channel = channel;
+        this.position = position;
+        this.end = position + count;
+    }
+
+    static FileRegion open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new FileRegion(channel, 0, channel.size());
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    long remaining() {
+        return end - position;
+    }
+
+    // Передаёт столько, сколько примет target; для неблокирующего сокета может вернуть 0
+    long transferTo(WritableByteChannel target) throws IOException {
+        long written = channel.transferTo(position, end - position, target);
+        position += written;
+        return written;
+    }
+
+    // Передаёт участок целиком; для блокирующих потоков
+    void transferFully(WritableByteChannel target) throws IOException {
+        while (position < end) {
+            if (transferTo(target) <= 0) {
+                // Файл укоротился после того, как был посчитан Content-Length
+                throw new IOException("File is shorter than expected");
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.netology.server;
+
+public enum FsyncPolicy {
+    // fsync после каждого сообщения: ответ на POST уходит, когда сообщение уже на диске.
+    // Одновременные запросы разделяют один fsync
+    EVERY_WRITE,
+    // fsync раз в groupCommitIntervalMillis или после groupCommitBytes несинхронизированных байт
+    GROUP_COMMIT,
+    // Сброс на диск оставлен операционной системе; данные переживают падение процесса, но не ОС
+    OS
+}
@@ -0,0 +1,172 @@
+package com.netology.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Таблица заголовков запроса: имена сравниваются без учёта регистра, у имени может быть несколько значений.
+// Частые заголовки занимают фиксированные слоты: поиск по ним не вычисляет хэш и не перебирает остальные заголовки,
+// а их имена при разборе не создаются заново, а берутся из констант ниже.
+public final class Headers {
+    public static final String HOST = "Host";
+    public static final String CONTENT_TYPE = "Content-Type";
+    public static final String CONTENT_LENGTH = "Content-Length";
+    public static final String CONNECTION = "Connection";
+    public static final String ACCEPT = "Accept";
+    public static final String ACCEPT_ENCODING = "Accept-Encoding";
+    public static final String TRANSFER_ENCODING = "Transfer-Encoding";
+    public static final String USER_AGENT = "User-Agent";
+    public static final String IF_NONE_MATCH = "If-None-Match";
+    public static final String COOKIE = "Cookie";
+    public static final String AUTHORIZATION = "Authorization";
+
+    private static final String[] KNOWN = {
+            HOST, CONTENT_TYPE, CONTENT_LENGTH, CONNECTION, ACCEPT, ACCEPT_ENCODING,
+            TRANSFER_ENCODING, USER_AGENT, IF_NONE_MATCH, COOKIE, AUTHORIZATION
+    };
+    // Слоты известных заголовков, сгруппированные по длине имени
+    private static final int[][] KNOWN_BY_LENGTH = knownByLength();
+
+    private String[] names = new String[8];
+    private String[] values = new String[8];
+    private int size;
+    // Индекс первого значения каждого известного заголовка или -1
+    private final int[] first = new int[KNOWN.length];
+
+    public Headers() {
+        Arrays.fill(first, -1);
+    }
+
+    public static Headers fromMap(Map<String, String> map) {
+        Headers headers = new Headers();
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            headers.add(entry.getKey(), entry.getValue());
+        }
+        return headers;
+    }
+
+    public void add(String name, String value) {
+        int slot = slotOf(name);
+        append(slot >= 0 ? KNOWN[slot] : name, value, slot);
+    }
+
+    // Добавляет заголовок прямо из байтов запроса
+    void add(byte[] raw, int nameStart, int nameEnd, int valueStart, int valueEnd) {
+        int slot = slotOf(raw, nameStart, nameEnd);
+        String name = slot >= 0 ? KNOWN[slot] : new String(raw, nameStart, nameEnd - nameStart, StandardCharsets.US_ASCII);
+        append(name, new String(raw, valueStart, valueEnd - valueStart, StandardCharsets.UTF_8), slot);
+    }
+
+    private void append(String name, String value, int slot) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        names[size] = name;
+        values[size] = value;
+        if (slot >= 0 && first[slot] < 0) {
+            first[slot] = size;
+        }
+        size++;
+    }
+
+    // Первое значение заголовка или null
+    public String get(String name) {
+        int slot = slotOf(name);
+        if (slot >= 0) {
+            int index = first[slot];
+            return index < 0 ? null : values[index];
+        }
+        for (int i = 0; i < size; i++) {
+            if (names[i].equalsIgnoreCase(name)) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    public List<String> getAll(String name) {
+        int slot = slotOf(name);
+        if (slot >= 0 && first[slot] < 0) {
+            return Collections.emptyList();
+        }
+        List<String> result = new ArrayList<>(1);
+        String canonical = slot >= 0 ? KNOWN[slot] : null;
+        for (int i = slot >= 0 ? first[slot] : 0; i < size; i++) {
+            // Имена известных заголовков - одни и те же константы, поэтому достаточно сравнения ссылок
+            if (canonical != null ? names[i] == canonical : names[i].equalsIgnoreCase(name)) {
+                result.add(values[i]);
+            }
+        }
+        return result;
+    }
+
+    public boolean contains(String name) {
+        return get(name) != null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String getName(int index) {
+        return names[index];
+    }
+
+    public String getValue(int index) {
+        return values[index];
+    }
+
+    // Карта "имя -> первое значение"; ключи карты тоже сравниваются без учёта регистра
+    public Map<String, String> toMap() {
+        Map<String, String> map = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < size; i++) {
+            map.putIfAbsent(names[i], values[i]);
+        }
+        return map;
+    }
+
+    static int slotOf(String name) {
+        int length = name.length();
+        if (length >= KNOWN_BY_LENGTH.length) {
+            return -1;
+        }
+        for (int slot : KNOWN_BY_LENGTH[length]) {
+            if (KNOWN[slot].equalsIgnoreCase(name)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    static int slotOf(byte[] raw, int start, int end) {
+        int length = end - start;
+        if (length >= KNOWN_BY_LENGTH.length) {
+            return -1;
+        }
+        for (int slot : KNOWN_BY_LENGTH[length]) {
+            if (RequestParser.equalsIgnoreCase(raw, start, end, KNOWN[slot])) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private static int[][] knownByLength() {
+        int maxLength = 0;
+        for (String name : KNOWN) {
+            maxLength = Math.max(maxLength, name.length());
+        }
+        int[][] table = new int[maxLength + 1][0];
+        for (int slot = 0; slot < KNOWN.length; slot++) {
+            int length = KNOWN[slot].length();
+            table[length] = Arrays.copyOf(table[length], table[length].length + 1);
+            table[length][table[length].length - 1] = slot;
+        }
+        return table;
+    }
+}
@@ -0,0 +1,25 @@
+package com.netology.server;
+
+import java.io.IOException;
+
+// Запрос, на который сервер отвечает не 400, а другим кодом ошибки (501, 413); соединение после ответа закрывается
+class HttpException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final String statusText;
+
+    HttpException(int statusCode, String statusText, String message) {
+        super(message);
+        this.statusCode = statusCode;
+        this.statusText = statusText;
+    }
+
+    int getStatusCode() {
+        return statusCode;
+    }
+
+    String getStatusText() {
+        return statusText;
+    }
+}
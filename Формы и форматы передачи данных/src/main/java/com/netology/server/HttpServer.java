@@ -1,32 +1,133 @@
 package com.netology.server;
 
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
 
 public class HttpServer {
     private final int port;
+    private final ServerConfig config;
     private final ExecutorService executorService;
+    // Свой пул с очередью допуска у каждого потока приёма (THREAD_POOL)
+    private final AdmissionControl[] admissions;
     private final RequestHandler requestHandler;
-    private ServerSocket serverSocket;
-    private boolean isRunning = false;
+    private volatile ServerSocket[] serverSockets;
+    private NioTransport nioTransport;
+    private volatile boolean isRunning = false;
 
     public HttpServer(int port) {
+        this(port, new ServerConfig());
+    }
+
+    public HttpServer(int port, ServerMode mode) {
+        this(port, new ServerConfig().setMode(mode));
+    }
+
+    public HttpServer(int port, ServerConfig config) {
         this.port = port;
-        this.executorService = Executors.newFixedThreadPool(64);
-        this.requestHandler = new RequestHandler();
+        this.config = config;
+        this.requestHandler = new RequestHandler(config);
+        // Пул потоков с ограниченной очередью и отсечением по задержке; для виртуальных потоков очереди нет
+        this.admissions = config.getMode() == ServerMode.THREAD_POOL ? createAdmissions() : null;
+        this.executorService = config.getMode() == ServerMode.VIRTUAL_THREADS ? newVirtualThreadPerTaskExecutor() : null;
+        if (admissions != null) {
+            requestHandler.getMetrics()
+                .gauge("http_queue_depth", "Connections waiting for a worker thread.", sum(AdmissionControl::getQueued))
+                .counter("http_admitted_total", "Connections passed to a worker thread.", sum(AdmissionControl::getAdmitted))
+                .counter("http_shed_total{reason=\"queue_full\"}", "Connections rejected with 503.", sum(AdmissionControl::getRejected))
+                .counter("http_shed_total{reason=\"queue_delay\"}", "Connections rejected with 503.", sum(AdmissionControl::getDropped));
+        }
+    }
+
+    // Потоки и очередь делятся между потоками приёма поровну (с округлением вверх)
+    private AdmissionControl[] createAdmissions() {
+        int acceptors = Math.max(1, config.getAcceptors());
+        if (acceptors == 1) {
+            return new AdmissionControl[] {new AdmissionControl(config, requestHandler)};
+        }
+        int workers = Math.max(1, (config.getWorkerThreads() + acceptors - 1) / acceptors);
+        int queued = Math.max(1, (config.getMaxQueuedConnections() + acceptors - 1) / acceptors);
+        AdmissionControl[] result = new AdmissionControl[acceptors];
+        for (int i = 0; i < acceptors; i++) {
+            result[i] = new AdmissionControl(config, requestHandler, workers, queued);
+        }
+        return result;
+    }
+
+    private LongSupplier sum(ToLongFunction<AdmissionControl> value) {
+        return () -> {
+            long total = 0;
+            for (AdmissionControl admission : admissions) {
+                total += value.applyAsLong(admission);
+            }
+            return total;
+        };
+    }
+
+    // Проект собирается под Java 11, поэтому API виртуальных потоков вызывается через reflection
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Virtual threads require Java 21+, running on "
+                    + System.getProperty("java.version"));
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Cannot create virtual thread executor", e);
+        }
     }
 
     public void start() {
+        // Файлы загрузок, оставшиеся от прошлого запуска, больше никому не нужны
+        int purged = config.getUploadStore().purge();
+        if (purged > 0) {
+            System.out.println("Removed " + purged + " stale upload files from " + config.getUploadDirectory());
+        }
+        if (config.getMode() == ServerMode.NIO) {
+            startNio();
+            return;
+        }
+
+        int acceptors = Math.max(1, config.getAcceptors());
+        ServerSocket[] sockets;
         try {
-            serverSocket = new ServerSocket(port);
-            isRunning = true;
-            System.out.println("Server started on port " + port);
+            sockets = Listeners.open(port, acceptors);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        serverSockets = sockets;
+        isRunning = true;
+        if (acceptors == 1) {
+            System.out.println("Server started on port " + port + " (" + config.getMode() + ")");
+        } else {
+            System.out.println("Server started on port " + port + " (" + config.getMode() + ", acceptors: " + acceptors
+                    + (sockets.length > 1 ? ", SO_REUSEPORT" : ", shared socket: SO_REUSEPORT is not supported") + ")");
+        }
 
+        // Каждый поток приёма передаёт соединения только своему пулу; нулевой работает в вызывающем потоке
+        for (int i = 1; i < acceptors; i++) {
+            ServerSocket socket = sockets[i % sockets.length];
+            AdmissionControl admission = admissions != null ? admissions[i] : null;
+            new Thread(() -> accept(socket, admission), "acceptor-" + i).start();
+        }
+        accept(sockets[0], admissions != null ? admissions[0] : null);
+    }
+
+    private void accept(ServerSocket serverSocket, AdmissionControl admission) {
+        try {
             while (isRunning) {
                 Socket socket = serverSocket.accept();
+                if (admission != null) {
+                    admission.submit(socket);
+                    continue;
+                }
                 executorService.submit(() -> {
                     try {
                         requestHandler.handle(socket);
@@ -35,6 +136,18 @@ public class HttpServer {
                     }
                 });
             }
+        } catch (IOException e) {
+            if (isRunning) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void startNio() {
+        try {
+            nioTransport = new NioTransport(port, config.getEventLoops(), config.getAcceptors(), requestHandler);
+            isRunning = true;
+            nioTransport.start();
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -42,27 +155,87 @@ public class HttpServer {
 
     public void stop() {
         isRunning = false;
-        if (serverSocket != null && !serverSocket.isClosed()) {
-            try {
-                serverSocket.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+        if (nioTransport != null) {
+            nioTransport.stop();
+        }
+        ServerSocket[] sockets = serverSockets;
+        if (sockets != null) {
+            Listeners.close(sockets);
+        }
+        if (admissions != null) {
+            for (AdmissionControl admission : admissions) {
+                admission.shutdown();
             }
         }
-        executorService.shutdown();
+        if (executorService != null) {
+            executorService.shutdown();
+        }
+    }
+
+    // Метрики сервера в формате Prometheus по GET path
+    public void enableMetrics(String path) {
+        requestHandler.addHandler("GET", path, new MetricsHandler(requestHandler.getMetrics()));
+    }
+
+    public Metrics getMetrics() {
+        return requestHandler.getMetrics();
+    }
+
+    AdmissionControl[] getAdmissions() {
+        return admissions;
     }
 
     public void addHandler(String method, String path, Handler handler) {
         requestHandler.addHandler(method, path, handler);
     }
 
-    public static void main(String[] args) {
-        HttpServer server = new HttpServer(9999);
-        
+    // Асинхронный обработчик: ответ можно отправить из любого потока (см. AsyncHandler)
+    public void addAsyncHandler(String method, String path, AsyncHandler handler) {
+        requestHandler.addAsyncHandler(method, path, handler);
+    }
+
+    public void addAsyncHandler(String method, String path, AsyncHandler handler, long timeoutMillis) {
+        requestHandler.addAsyncHandler(method, path, handler, timeoutMillis);
+    }
+
+    // Включает кэш ответов GET для маршрута (см. RequestHandler.enableCache)
+    public void enableCache(String path, String... vary) {
+        requestHandler.enableCache(path, vary);
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Режим транспорта можно выбрать аргументом: THREAD_POOL (по умолчанию), VIRTUAL_THREADS или NIO;
+        // второй аргумент - каталог ленты сообщений (по умолчанию data/messages), третий - число потоков приёма
+        ServerMode mode = args.length > 0 ? ServerMode.valueOf(args[0].toUpperCase()) : ServerMode.THREAD_POOL;
+        Path messagesDirectory = args.length > 1 ? Paths.get(args[1]) : Paths.get("data", "messages");
+        int acceptors = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        HttpServer server = new HttpServer(9999, new ServerConfig().setMode(mode).setAcceptors(acceptors));
+
+        DurableMessageLog log = DurableMessageLog.open(messagesDirectory);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                log.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }));
+        System.out.println("Messages: " + messagesDirectory.toAbsolutePath() + ", last id " + log.lastId());
+        if (log.getTruncatedBytes() > 0) {
+            System.out.println("Dropped " + log.getTruncatedBytes() + " bytes of incomplete messages from " + messagesDirectory.toAbsolutePath());
+        }
+        server.getMetrics()
+            .gauge("message_log_truncated_bytes", "Bytes of incomplete records dropped when the message log was opened.", log::getTruncatedBytes)
+            .gauge("message_log_fsync_failed", "1 if an fsync of the message log failed and appends are rejected.", () -> log.isSyncFailed() ? 1 : 0)
+            .counter("message_log_delete_failures_total", "Expired message log segments whose files could not be deleted.", log::getDeleteFailures);
+
         // Добавляем обработчики
-        server.addHandler("GET", "/messages", new MessagesHandler());
-        server.addHandler("POST", "/messages", new MessagesHandler());
+        // Один обработчик на оба метода: у них общая лента сообщений
+        MessagesHandler messages = new MessagesHandler(log);
+        server.addHandler("GET", "/messages", messages);
+        server.addHandler("POST", "/messages", messages);
+        server.enableCache("/messages");
+        server.enableMetrics("/metrics");
         
         server.start();
     }
-} 
\ No newline at end of file
+}
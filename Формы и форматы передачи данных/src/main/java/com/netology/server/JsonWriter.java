@@ -0,0 +1,343 @@
+package com.netology.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+// Потоковая запись JSON: значения экранируются и кодируются в UTF-8 сразу в байтовый буфер,
+// без промежуточных строк. Буфер берётся из BufferPool и возвращается в него после отправки ответа.
+public final class JsonWriter {
+    private static final int INITIAL_SIZE = 8 * 1024;
+    private static final BufferPool POOL = BufferPool.shared();
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+
+    // Состояния вложенных контейнеров
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_OBJECT = 2;
+    private static final int NONEMPTY_OBJECT = 3;
+    private static final int DANGLING_NAME = 4;
+    private static final int EMPTY_ARRAY = 5;
+    private static final int NONEMPTY_ARRAY = 6;
+
+    private final boolean pretty;
+    private byte[] buffer;
+    private int size;
+    private int[] stack = new int[16];
+    private int depth = 1;
+
+    public JsonWriter() {
+        this(false);
+    }
+
+    // pretty = true: каждый элемент с новой строки с отступом в два пробела
+    public JsonWriter(boolean pretty) {
+        this.pretty = pretty;
+        this.buffer = POOL.acquire(INITIAL_SIZE);
+        stack[0] = EMPTY_DOCUMENT;
+    }
+
+    public JsonWriter beginObject() {
+        beforeValue();
+        push(EMPTY_OBJECT);
+        write('{');
+        return this;
+    }
+
+    public JsonWriter endObject() {
+        return close(EMPTY_OBJECT, NONEMPTY_OBJECT, '}');
+    }
+
+    public JsonWriter beginArray() {
+        beforeValue();
+        push(EMPTY_ARRAY);
+        write('[');
+        return this;
+    }
+
+    public JsonWriter endArray() {
+        return close(EMPTY_ARRAY, NONEMPTY_ARRAY, ']');
+    }
+
+    public JsonWriter name(String name) {
+        int context = stack[depth - 1];
+        if (context != EMPTY_OBJECT && context != NONEMPTY_OBJECT) {
+            throw new IllegalStateException("Name outside of object");
+        }
+        if (context == NONEMPTY_OBJECT) {
+            write(',');
+        }
+        newline();
+        string(name);
+        write(':');
+        if (pretty) {
+            write(' ');
+        }
+        stack[depth - 1] = DANGLING_NAME;
+        return this;
+    }
+
+    public JsonWriter value(String value) {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        string(value);
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        beforeValue();
+        if (value == Long.MIN_VALUE) {
+            write(String.valueOf(value));
+            return this;
+        }
+        if (value < 0) {
+            write('-');
+            value = -value;
+        }
+        // Цифры пишем с конца прямо в буфер
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        ensure(digits);
+        for (int i = size + digits - 1; i >= size; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        size += digits;
+        return this;
+    }
+
+    public JsonWriter value(boolean value) {
+        beforeValue();
+        write(value ? TRUE : FALSE);
+        return this;
+    }
+
+    public JsonWriter nullValue() {
+        beforeValue();
+        write(NULL);
+        return this;
+    }
+
+    // Строковое значение из потока UTF-8 байтов (например, содержимое Part) без декодирования в String:
+    // многобайтовые последовательности UTF-8 экранирования не требуют и копируются как есть
+    public JsonWriter value(InputStream utf8) throws IOException {
+        beforeValue();
+        write('"');
+        byte[] chunk = POOL.acquire(4096);
+        try {
+            int read;
+            while ((read = utf8.read(chunk)) > 0) {
+                ensure(read);
+                for (int i = 0; i < read; i++) {
+                    int b = chunk[i];
+                    if (b >= 0 && (b < 0x20 || b == '"' || b == '\\')) {
+                        escape(b);
+                    } else {
+                        ensure(1);
+                        buffer[size++] = (byte) b;
+                    }
+                }
+            }
+        } finally {
+            POOL.release(chunk);
+        }
+        write('"');
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    byte[] buffer() {
+        return buffer;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    // Возвращает буфер в пул; после этого писать в writer нельзя
+    void release() {
+        if (buffer != null) {
+            POOL.release(buffer);
+            buffer = null;
+        }
+    }
+
+    // Забирает буфер вместе с обязанностью вернуть его в пул; после этого писать в writer нельзя
+    byte[] detach() {
+        byte[] detached = buffer;
+        buffer = null;
+        return detached;
+    }
+
+    private void beforeValue() {
+        if (buffer == null) {
+            throw new IllegalStateException("JsonWriter is already released");
+        }
+        switch (stack[depth - 1]) {
+            case EMPTY_DOCUMENT:
+                stack[depth - 1] = NONEMPTY_DOCUMENT;
+                break;
+            case NONEMPTY_ARRAY:
+                write(',');
+                newline();
+                break;
+            case EMPTY_ARRAY:
+                stack[depth - 1] = NONEMPTY_ARRAY;
+                newline();
+                break;
+            case DANGLING_NAME:
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                break;
+            case NONEMPTY_DOCUMENT:
+                throw new IllegalStateException("JSON must have only one top-level value");
+            default:
+                throw new IllegalStateException("Value without name inside object");
+        }
+    }
+
+    private void push(int context) {
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+        }
+        stack[depth++] = context;
+    }
+
+    private JsonWriter close(int empty, int nonempty, char bracket) {
+        int context = stack[depth - 1];
+        if (context != empty && context != nonempty) {
+            throw new IllegalStateException("Nesting problem: unexpected '" + bracket + "'");
+        }
+        depth--;
+        if (context == nonempty) {
+            newline();
+        }
+        write(bracket);
+        return this;
+    }
+
+    private void newline() {
+        if (!pretty) {
+            return;
+        }
+        int indent = 2 * (depth - 1);
+        ensure(1 + indent);
+        buffer[size++] = '\n';
+        for (int i = 0; i < indent; i++) {
+            buffer[size++] = ' ';
+        }
+    }
+
+    // Экранирует и кодирует строку в UTF-8
+    private void string(String value) {
+        int length = value.length();
+        // В худшем случае символ занимает 6 байт (\\uXXXX)
+        ensure(2 + length * 6);
+        byte[] out = buffer;
+        int position = size;
+        out[position++] = '"';
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c < 0x20 || c == '"' || c == '\\') {
+                    size = position;
+                    escape(c);
+                    position = size;
+                } else {
+                    out[position++] = (byte) c;
+                }
+            } else if (c < 0x800) {
+                out[position++] = (byte) (0xc0 | (c >> 6));
+                out[position++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out[position++] = (byte) (0xf0 | (codePoint >> 18));
+                out[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                out[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                out[position++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // Одиночный суррогат в UTF-8 не кодируется - оставляем его в виде \\uXXXX
+                size = position;
+                escape(c);
+                position = size;
+            } else {
+                out[position++] = (byte) (0xe0 | (c >> 12));
+                out[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                out[position++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        out[position++] = '"';
+        size = position;
+    }
+
+    private void escape(int c) {
+        ensure(6);
+        buffer[size++] = '\\';
+        switch (c) {
+            case '"':
+                buffer[size++] = '"';
+                break;
+            case '\\':
+                buffer[size++] = '\\';
+                break;
+            case '\n':
+                buffer[size++] = 'n';
+                break;
+            case '\r':
+                buffer[size++] = 'r';
+                break;
+            case '\t':
+                buffer[size++] = 't';
+                break;
+            case '\b':
+                buffer[size++] = 'b';
+                break;
+            case '\f':
+                buffer[size++] = 'f';
+                break;
+            default:
+                buffer[size++] = 'u';
+                buffer[size++] = HEX[(c >> 12) & 0xf];
+                buffer[size++] = HEX[(c >> 8) & 0xf];
+                buffer[size++] = HEX[(c >> 4) & 0xf];
+                buffer[size++] = HEX[c & 0xf];
+        }
+    }
+
+    private void write(char c) {
+        ensure(1);
+        buffer[size++] = (byte) c;
+    }
+
+    private void write(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    private void write(String ascii) {
+        ensure(ascii.length());
+        for (int i = 0; i < ascii.length(); i++) {
+            buffer[size++] = (byte) ascii.charAt(i);
+        }
+    }
+
+    private void ensure(int extra) {
+        if (size + extra > buffer.length) {
+            byte[] larger = POOL.acquire(Math.max(buffer.length * 2, size + extra));
+            System.arraycopy(buffer, 0, larger, 0, size);
+            POOL.release(buffer);
+            buffer = larger;
+        }
+    }
+}
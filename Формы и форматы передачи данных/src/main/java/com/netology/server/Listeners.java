@@ -0,0 +1,80 @@
+package com.netology.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+
+// Слушающие сокеты сервера. При нескольких потоках приёма каждый получает свой сокет на том же порту
+// с SO_REUSEPORT: ядро (Linux 3.9+) само распределяет новые соединения между сокетами, и потоки accept
+// не конкурируют за одну очередь. Где опция не поддерживается, открывается один сокет, и потоки
+// принимают соединения из него по очереди.
+// Сокет с SO_REUSEPORT на тот же порт может открыть и другой процесс того же пользователя,
+// поэтому по умолчанию (acceptors = 1) опция не включается
+final class Listeners {
+    private Listeners() {
+    }
+
+    static boolean isReusePortSupported() {
+        try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+            return channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // count сокетов на порту или один, если SO_REUSEPORT недоступен
+    static ServerSocket[] open(int port, int count) throws IOException {
+        boolean reusePort = count > 1 && isReusePortSupported();
+        ServerSocket[] sockets = new ServerSocket[reusePort ? count : 1];
+        try {
+            for (int i = 0; i < sockets.length; i++) {
+                sockets[i] = new ServerSocket();
+                if (reusePort) {
+                    sockets[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                sockets[i].bind(new InetSocketAddress(port));
+                // Порт 0: остальные сокеты открываются на порту, который выбрала система для первого
+                port = sockets[i].getLocalPort();
+            }
+        } catch (IOException | RuntimeException e) {
+            close(sockets);
+            throw e;
+        }
+        return sockets;
+    }
+
+    // То же для неблокирующего транспорта
+    static ServerSocketChannel[] openChannels(int port, int count) throws IOException {
+        boolean reusePort = count > 1 && isReusePortSupported();
+        ServerSocketChannel[] channels = new ServerSocketChannel[reusePort ? count : 1];
+        try {
+            for (int i = 0; i < channels.length; i++) {
+                channels[i] = ServerSocketChannel.open();
+                if (reusePort) {
+                    channels[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                channels[i].bind(new InetSocketAddress(port));
+                port = channels[i].socket().getLocalPort();
+            }
+        } catch (IOException | RuntimeException e) {
+            close(channels);
+            throw e;
+        }
+        return channels;
+    }
+
+    static void close(AutoCloseable[] listeners) {
+        for (AutoCloseable listener : listeners) {
+            if (listener == null) {
+                continue;
+            }
+            try {
+                listener.close();
+            } catch (Exception e) {
+                // Сокет уже закрыт
+            }
+        }
+    }
+}
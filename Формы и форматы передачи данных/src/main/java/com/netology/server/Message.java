@@ -0,0 +1,33 @@
+package com.netology.server;
+
+// Сообщение ленты /messages; неизменяемое
+public final class Message {
+    private final long id;
+    private final String author;
+    private final String text;
+    private final long timestamp;
+
+    public Message(long id, String author, String text, long timestamp) {
+        this.id = id;
+        this.author = author;
+        this.text = text;
+        this.timestamp = timestamp;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    // Время добавления, миллисекунды с начала эпохи
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
@@ -0,0 +1,128 @@
+package com.netology.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Лента сообщений в памяти: журнал только на добавление без блокировок.
+// Номер сообщения выдаёт счётчик, а само сообщение кладётся в ячейку блока (chunk) по этому номеру,
+// поэтому писатели не ждут друг друга, а читатели не мешают писателям.
+// Блоки лежат в кольце: когда лента заполняет его, новый блок вытесняет самый старый,
+// и в памяти остаются последние capacity сообщений (с точностью до блока)
+public final class MessageLog implements MessageStore {
+    static final int DEFAULT_CAPACITY = 1 << 20;
+    private static final int CHUNK_SHIFT = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final AtomicReferenceArray<Chunk> chunks;
+    // Номер последнего выданного сообщения; номера начинаются с 1
+    private final AtomicLong sequence = new AtomicLong();
+
+    public MessageLog() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public MessageLog(int capacity) {
+        // Лишний блок в кольце - запас для читателей, которые ещё дочитывают вытесняемый блок
+        this.chunks = new AtomicReferenceArray<>((capacity + CHUNK_SIZE - 1) / CHUNK_SIZE + 1);
+    }
+
+    @Override
+    public Message append(String author, String text) {
+        long id = sequence.incrementAndGet();
+        Message message = new Message(id, author, text, System.currentTimeMillis());
+        Chunk chunk = chunkForWrite(id);
+        if (chunk != null) {
+            // Запись в AtomicReferenceArray публикует сообщение для читателей
+            chunk.messages.set(index(id), message);
+        }
+        return message;
+    }
+
+    // До limit сообщений с номерами больше after, по возрастанию номера; время зависит от limit, а не от длины ленты.
+    // Сообщение, номер которого уже выдан, но которое ещё не записано, обрывает выборку:
+    // номера в ответе идут подряд, и следующая страница (after = последний номер) ничего не пропустит
+    @Override
+    public List<Message> read(long after, int limit) {
+        long last = sequence.get();
+        long from = Math.max(Math.max(after, 0) + 1, oldestId(last));
+        List<Message> result = new ArrayList<>((int) Math.max(0, Math.min(limit, last - from + 1)));
+        Chunk chunk = null;
+        for (long id = from; id <= last && result.size() < limit; id++) {
+            long number = chunkNumber(id);
+            if (chunk == null || chunk.number != number) {
+                chunk = chunks.get(slot(number));
+                if (chunk == null || chunk.number != number) {
+                    break;
+                }
+            }
+            Message message = chunk.messages.get(index(id));
+            if (message == null) {
+                break;
+            }
+            result.add(message);
+        }
+        return result;
+    }
+
+    @Override
+    public long lastId() {
+        return sequence.get();
+    }
+
+    @Override
+    public long firstId() {
+        return Math.min(oldestId(sequence.get()), sequence.get() + 1);
+    }
+
+    private long oldestId(long last) {
+        if (last == 0) {
+            return 1;
+        }
+        // Самый старый блок кольца может в любой момент уступить место новому, поэтому его не читаем
+        long oldestChunk = chunkNumber(last) - (chunks.length() - 2);
+        return Math.max(1, (oldestChunk << CHUNK_SHIFT) + 1);
+    }
+
+    private Chunk chunkForWrite(long id) {
+        long number = chunkNumber(id);
+        int slot = slot(number);
+        while (true) {
+            Chunk chunk = chunks.get(slot);
+            if (chunk != null && chunk.number == number) {
+                return chunk;
+            }
+            if (chunk != null && chunk.number > number) {
+                // Писатель отстал на целое кольцо: его сообщение уже старше хранимых
+                return null;
+            }
+            Chunk fresh = new Chunk(number);
+            if (chunks.compareAndSet(slot, chunk, fresh)) {
+                return fresh;
+            }
+        }
+    }
+
+    private static long chunkNumber(long id) {
+        return (id - 1) >>> CHUNK_SHIFT;
+    }
+
+    private static int index(long id) {
+        return (int) ((id - 1) & CHUNK_MASK);
+    }
+
+    private int slot(long chunkNumber) {
+        return (int) (chunkNumber % chunks.length());
+    }
+
+    private static final class Chunk {
+        private final long number;
+        private final AtomicReferenceArray<Message> messages = new AtomicReferenceArray<>(CHUNK_SIZE);
+
+        Chunk(long number) {
+            this.number = number;
+        }
+    }
+}
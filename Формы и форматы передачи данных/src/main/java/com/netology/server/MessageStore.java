@@ -0,0 +1,19 @@
+package com.netology.server;
+
+import java.io.IOException;
+import java.util.List;
+
+// Хранилище ленты сообщений: в памяти (MessageLog) или на диске (DurableMessageLog)
+public interface MessageStore {
+    // Добавляет сообщение со следующим по порядку номером
+    Message append(String author, String text) throws IOException;
+
+    // До limit сообщений с номерами больше after, по возрастанию номера
+    List<Message> read(long after, int limit) throws IOException;
+
+    // Номер последнего добавленного сообщения (0 - лента пуста)
+    long lastId();
+
+    // Номер самого старого сообщения, которое ещё хранится
+    long firstId();
+}
@@ -0,0 +1,67 @@
+package com.netology.server;
+
+public class MessageStoreConfig {
+    private long segmentSize = 64 * 1024 * 1024;
+    private FsyncPolicy fsyncPolicy = FsyncPolicy.GROUP_COMMIT;
+    private int groupCommitIntervalMillis = 100;
+    private long groupCommitBytes = 1024 * 1024;
+    private long retentionBytes = 1024L * 1024 * 1024;
+    private long retentionMillis;
+
+    public long getSegmentSize() {
+        return segmentSize;
+    }
+
+    // Размер файла сегмента, после которого начинается новый (не больше 2 ГБ)
+    public MessageStoreConfig setSegmentSize(long segmentSize) {
+        this.segmentSize = Math.min(segmentSize, Integer.MAX_VALUE);
+        return this;
+    }
+
+    public FsyncPolicy getFsyncPolicy() {
+        return fsyncPolicy;
+    }
+
+    public MessageStoreConfig setFsyncPolicy(FsyncPolicy fsyncPolicy) {
+        this.fsyncPolicy = fsyncPolicy;
+        return this;
+    }
+
+    public int getGroupCommitIntervalMillis() {
+        return groupCommitIntervalMillis;
+    }
+
+    public MessageStoreConfig setGroupCommitIntervalMillis(int groupCommitIntervalMillis) {
+        this.groupCommitIntervalMillis = groupCommitIntervalMillis;
+        return this;
+    }
+
+    public long getGroupCommitBytes() {
+        return groupCommitBytes;
+    }
+
+    public MessageStoreConfig setGroupCommitBytes(long groupCommitBytes) {
+        this.groupCommitBytes = groupCommitBytes;
+        return this;
+    }
+
+    public long getRetentionBytes() {
+        return retentionBytes;
+    }
+
+    // Суммарный объём сегментов, после которого удаляются самые старые; 0 - без ограничения
+    public MessageStoreConfig setRetentionBytes(long retentionBytes) {
+        this.retentionBytes = retentionBytes;
+        return this;
+    }
+
+    public long getRetentionMillis() {
+        return retentionMillis;
+    }
+
+    // Закрытые сегменты старше этого срока удаляются; 0 - без ограничения
+    public MessageStoreConfig setRetentionMillis(long retentionMillis) {
+        this.retentionMillis = retentionMillis;
+        return this;
+    }
+}
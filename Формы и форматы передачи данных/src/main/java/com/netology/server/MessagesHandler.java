@@ -1,10 +1,26 @@
 package com.netology.server;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
 import java.util.Map;
 
+// Лента сообщений: POST добавляет сообщение, GET ?last=N&limit=M отдаёт сообщения с номерами больше N
 public class MessagesHandler implements Handler {
-    
+    static final int DEFAULT_LIMIT = 20;
+    static final int MAX_LIMIT = 1000;
+
+    private final MessageStore log;
+
+    // Лента в памяти; для ленты, переживающей перезапуск, передайте DurableMessageLog
+    public MessagesHandler() {
+        this(new MessageLog());
+    }
+
+    public MessagesHandler(MessageStore log) {
+        this.log = log;
+    }
+
     @Override
     public void handle(Request request, Response response) throws IOException {
         if ("GET".equals(request.getMethod())) {
@@ -20,34 +36,36 @@ public class MessagesHandler implements Handler {
 
     private void handleGet(Request request, Response response) throws IOException {
         // Получаем Query параметры
-        String lastParam = request.getQueryParam("last");
-        String limitParam = request.getQueryParam("limit");
-        
-        // Формируем JSON ответ с информацией о запросе
-        StringBuilder json = new StringBuilder();
-        json.append("{\n");
-        json.append("  \"method\": \"").append(request.getMethod()).append("\",\n");
-        json.append("  \"path\": \"").append(request.getPath()).append("\",\n");
-        json.append("  \"queryString\": \"").append(request.getQueryString()).append("\",\n");
-        json.append("  \"queryParams\": {\n");
-        
-        Map<String, String> queryParams = request.getQueryParams();
-        boolean first = true;
-        for (Map.Entry<String, String> entry : queryParams.entrySet()) {
-            if (!first) {
-                json.append(",\n");
-            }
-            json.append("    \"").append(entry.getKey()).append("\": \"").append(entry.getValue()).append("\"");
-            first = false;
+        long last;
+        int limit;
+        try {
+            last = parseNumber(request.getQueryParam("last"), 0);
+            limit = (int) Math.min(parseNumber(request.getQueryParam("limit"), DEFAULT_LIMIT), MAX_LIMIT);
+        } catch (NumberFormatException e) {
+            sendBadRequest(response, "Parameters 'last' and 'limit' must be non-negative numbers");
+            return;
         }
-        json.append("\n  }\n");
-        json.append("}");
-        
-        response.sendJson(json.toString());
+
+        List<Message> messages = log.read(last, limit);
+        long lastReturned = messages.isEmpty() ? Math.max(last, log.firstId() - 1) : messages.get(messages.size() - 1).getId();
+
+        JsonWriter json = response.json(true);
+        json.beginObject()
+            .name("messages").beginArray();
+        for (Message message : messages) {
+            writeMessage(json, message);
+        }
+        json.endArray()
+            // Номер для следующей страницы: ?last=<last>
+            .name("last").value(lastReturned)
+            .name("hasMore").value(lastReturned < log.lastId())
+            .endObject();
+
+        response.send();
     }
 
     private void handlePost(Request request, Response response) throws IOException {
-        String contentType = request.getHeaders().get("Content-Type");
+        String contentType = request.getHeader(Headers.CONTENT_TYPE);
         
         if (contentType != null && contentType.startsWith("multipart/form-data")) {
             handleMultipartPost(request, response);
@@ -60,62 +78,101 @@ public class MessagesHandler implements Handler {
         // Получаем POST параметры
         String message = request.getPostParam("message");
         String author = request.getPostParam("author");
-        
-        // Формируем JSON ответ с информацией о POST запросе
-        StringBuilder json = new StringBuilder();
-        json.append("{\n");
-        json.append("  \"method\": \"").append(request.getMethod()).append("\",\n");
-        json.append("  \"path\": \"").append(request.getPath()).append("\",\n");
-        json.append("  \"contentType\": \"application/x-www-form-urlencoded\",\n");
-        json.append("  \"postParams\": {\n");
-        
-        Map<String, String> postParams = request.getPostParams();
-        boolean first = true;
-        for (Map.Entry<String, String> entry : postParams.entrySet()) {
-            if (!first) {
-                json.append(",\n");
-            }
-            json.append("    \"").append(entry.getKey()).append("\": \"").append(entry.getValue()).append("\"");
-            first = false;
+        if (message == null) {
+            sendBadRequest(response, "Parameter 'message' is required");
+            return;
         }
-        json.append("\n  },\n");
-        json.append("  \"body\": \"").append(request.getBody()).append("\"\n");
-        json.append("}");
+        Message stored = log.append(author, message);
+
+        // Формируем JSON ответ с информацией о POST запросе
+        JsonWriter json = response.json(true);
+        response.setStatus(201, "Created");
+        json.beginObject()
+            .name("id").value(stored.getId())
+            .name("method").value(request.getMethod())
+            .name("path").value(request.getPath())
+            .name("contentType").value("application/x-www-form-urlencoded");
+        writeStrings(json.name("postParams"), request.getPostParamsView());
+        json.name("body").value(request.getBody())
+            .endObject();
         
-        response.sendJson(json.toString());
+        response.send();
     }
     
     private void handleMultipartPost(Request request, Response response) throws IOException {
+        // Текст сообщения и автор - поля формы; файлы в ленту не попадают
+        Part message = request.getPart("message");
+        Part author = request.getPart("author");
+        if (message == null || message.isFile()) {
+            sendBadRequest(response, "Field 'message' is required");
+            return;
+        }
+        Message stored = log.append(author != null && author.isField() ? author.getStringContent() : null,
+                message.getStringContent());
+
         // Формируем JSON ответ с информацией о multipart POST запросе
-        StringBuilder json = new StringBuilder();
-        json.append("{\n");
-        json.append("  \"method\": \"").append(request.getMethod()).append("\",\n");
-        json.append("  \"path\": \"").append(request.getPath()).append("\",\n");
-        json.append("  \"contentType\": \"multipart/form-data\",\n");
-        json.append("  \"parts\": {\n");
+        JsonWriter json = response.json(true);
+        response.setStatus(201, "Created");
+        json.beginObject()
+            .name("id").value(stored.getId())
+            .name("method").value(request.getMethod())
+            .name("path").value(request.getPath())
+            .name("contentType").value("multipart/form-data")
+            .name("parts").beginObject();
         
-        Map<String, Part> parts = request.getParts();
-        boolean first = true;
-        for (Map.Entry<String, Part> entry : parts.entrySet()) {
-            if (!first) {
-                json.append(",\n");
-            }
+        for (Map.Entry<String, Part> entry : request.getPartsView().entrySet()) {
             Part part = entry.getValue();
-            json.append("    \"").append(entry.getKey()).append("\": {\n");
-            json.append("      \"name\": \"").append(part.getName()).append("\",\n");
-            json.append("      \"contentType\": \"").append(part.getContentType()).append("\",\n");
+            json.name(entry.getKey()).beginObject()
+                .name("name").value(part.getName())
+                .name("contentType").value(part.getContentType());
             if (part.isFile()) {
-                json.append("      \"filename\": \"").append(part.getFilename()).append("\",\n");
-                json.append("      \"size\": ").append(part.getSize()).append(",\n");
+                json.name("filename").value(part.getFilename())
+                    .name("size").value(part.getSize());
+            }
+            json.name("isFile").value(part.isFile());
+            // Содержимое копируется в ответ потоком, без промежуточной строки
+            try (InputStream content = part.getInputStream()) {
+                json.name("content").value(content);
             }
-            json.append("      \"isFile\": ").append(part.isFile()).append(",\n");
-            json.append("      \"content\": \"").append(part.getStringContent()).append("\"\n");
-            json.append("    }");
-            first = false;
+            json.endObject();
         }
-        json.append("\n  }\n");
-        json.append("}");
+        json.endObject()
+            .endObject();
         
-        response.sendJson(json.toString());
+        response.send();
+    }
+
+    private static void writeMessage(JsonWriter json, Message message) {
+        json.beginObject()
+            .name("id").value(message.getId())
+            .name("author").value(message.getAuthor())
+            .name("message").value(message.getText())
+            .name("timestamp").value(message.getTimestamp())
+            .endObject();
+    }
+
+    private static long parseNumber(String value, long defaultValue) {
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        long number = Long.parseLong(value);
+        if (number < 0) {
+            throw new NumberFormatException(value);
+        }
+        return number;
+    }
+
+    private static void sendBadRequest(Response response, String message) throws IOException {
+        response.setStatus(400, "Bad Request")
+               .setBody(message)
+               .send();
+    }
+
+    private static void writeStrings(JsonWriter json, Map<String, String> values) {
+        json.beginObject();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            json.name(entry.getKey()).value(entry.getValue());
+        }
+        json.endObject();
     }
-} 
\ No newline at end of file
+}
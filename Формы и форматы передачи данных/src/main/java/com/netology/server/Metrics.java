@@ -0,0 +1,246 @@
+package com.netology.server;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Метрики сервера: счётчики запросов по маршруту, методу и статусу, гистограммы времени обработки,
+// число соединений и запросов в работе, а также значения, которые снимаются с компонентов при чтении
+// (очередь допуска, пул буферов, кэш ответов, загрузки). Запись идёт через LongAdder и атомарные
+// массивы без блокировок; текст в формате Prometheus собирается только при запросе /metrics (MetricsHandler)
+public final class Metrics {
+    // Метки route и method берутся из таблицы маршрутов и фиксированного списка,
+    // чтобы произвольные пути и методы из запросов не плодили серии
+    static final String UNMATCHED = "unmatched";
+    private static final String[] METHODS = {"GET", "HEAD", "POST", "PUT", "PATCH", "DELETE", "OPTIONS", "OTHER"};
+    // Границы корзин для Prometheus - степени двойки в микросекундах, они совпадают с границами корзин гистограммы
+    private static final int FIRST_BOUND_EXPONENT = 7;
+    private static final int LAST_BOUND_EXPONENT = 24;
+
+    private final Map<String, RouteMetrics[]> routes = new ConcurrentHashMap<>();
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder connectionsTotal = new LongAdder();
+    private final LongAdder inFlight = new LongAdder();
+    private final List<Sampled> sampled = new CopyOnWriteArrayList<>();
+
+    void connectionOpened() {
+        connections.increment();
+        connectionsTotal.increment();
+    }
+
+    void connectionClosed() {
+        connections.decrement();
+    }
+
+    void requestStarted() {
+        inFlight.increment();
+    }
+
+    // route - шаблон маршрута (Route.pattern()) или null, если маршрут не найден
+    void requestFinished(String route, String method, int status, long nanos) {
+        inFlight.decrement();
+        RouteMetrics metrics = route(route != null ? route : UNMATCHED, methodIndex(method));
+        metrics.status(status).increment();
+        metrics.latency.record(nanos / 1000);
+    }
+
+    // Значение, которое читается в момент запроса метрик; name может содержать метки: name{label="value"}.
+    // Серии одной метрики регистрируются подряд, HELP и TYPE выводятся для первой из них
+    public Metrics gauge(String name, String help, LongSupplier value) {
+        sampled.add(new Sampled(name, help, "gauge", value));
+        return this;
+    }
+
+    // То же для монотонно растущего счётчика
+    public Metrics counter(String name, String help, LongSupplier value) {
+        sampled.add(new Sampled(name, help, "counter", value));
+        return this;
+    }
+
+    long getConnections() {
+        return connections.sum();
+    }
+
+    long getInFlight() {
+        return inFlight.sum();
+    }
+
+    // Гистограмма маршрута или null, если запросов к нему ещё не было
+    LatencyHistogram latency(String route, String method) {
+        RouteMetrics[] byMethod = routes.get(route);
+        RouteMetrics metrics = byMethod != null ? byMethod[methodIndex(method)] : null;
+        return metrics != null ? metrics.latency : null;
+    }
+
+    private RouteMetrics route(String route, int method) {
+        RouteMetrics[] byMethod = routes.get(route);
+        if (byMethod == null) {
+            byMethod = routes.computeIfAbsent(route, key -> new RouteMetrics[METHODS.length]);
+        }
+        RouteMetrics metrics = byMethod[method];
+        if (metrics == null) {
+            synchronized (byMethod) {
+                metrics = byMethod[method];
+                if (metrics == null) {
+                    metrics = new RouteMetrics();
+                    byMethod[method] = metrics;
+                }
+            }
+        }
+        return metrics;
+    }
+
+    private static int methodIndex(String method) {
+        for (int i = 0; i < METHODS.length - 1; i++) {
+            if (METHODS[i].equals(method)) {
+                return i;
+            }
+        }
+        return METHODS.length - 1;
+    }
+
+    // Текстовый формат Prometheus (version 0.0.4)
+    public String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        header(out, "http_connections_open", "Open client connections.", "gauge");
+        out.append("http_connections_open ").append(connections.sum()).append('\n');
+        header(out, "http_connections_total", "Accepted client connections.", "counter");
+        out.append("http_connections_total ").append(connectionsTotal.sum()).append('\n');
+        header(out, "http_requests_in_flight", "Requests being handled.", "gauge");
+        out.append("http_requests_in_flight ").append(inFlight.sum()).append('\n');
+
+        // Маршруты в алфавитном порядке, чтобы вывод не менялся от запроса к запросу
+        Map<String, RouteMetrics[]> sorted = new TreeMap<>(routes);
+        header(out, "http_requests_total", "Handled requests by route, method and status.", "counter");
+        for (Map.Entry<String, RouteMetrics[]> route : sorted.entrySet()) {
+            RouteMetrics[] byMethod = route.getValue();
+            for (int method = 0; method < byMethod.length; method++) {
+                RouteMetrics metrics = byMethod[method];
+                if (metrics == null) {
+                    continue;
+                }
+                for (int i = 0; i < metrics.statuses.length(); i++) {
+                    LongAdder status = metrics.statuses.get(i);
+                    if (status != null) {
+                        out.append("http_requests_total");
+                        labels(out, route.getKey(), METHODS[method]);
+                        out.append(",status=\"").append(RouteMetrics.FIRST_STATUS + i).append("\"} ")
+                           .append(status.sum()).append('\n');
+                    }
+                }
+            }
+        }
+
+        header(out, "http_request_duration_seconds", "Request handling time by route and method.", "histogram");
+        for (Map.Entry<String, RouteMetrics[]> route : sorted.entrySet()) {
+            RouteMetrics[] byMethod = route.getValue();
+            for (int method = 0; method < byMethod.length; method++) {
+                RouteMetrics metrics = byMethod[method];
+                if (metrics != null) {
+                    histogram(out, route.getKey(), METHODS[method], metrics.latency);
+                }
+            }
+        }
+
+        String previous = null;
+        for (Sampled metric : sampled) {
+            if (!metric.baseName.equals(previous)) {
+                header(out, metric.baseName, metric.help, metric.type);
+                previous = metric.baseName;
+            }
+            out.append(metric.name).append(' ').append(metric.value.getAsLong()).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void histogram(StringBuilder out, String route, String method, LatencyHistogram latency) {
+        long[] snapshot = latency.snapshot();
+        long cumulative = 0;
+        int index = 0;
+        for (int exponent = FIRST_BOUND_EXPONENT; exponent <= LAST_BOUND_EXPONENT; exponent++) {
+            int bound = LatencyHistogram.index(1L << exponent);
+            while (index < bound) {
+                cumulative += snapshot[index++];
+            }
+            out.append("http_request_duration_seconds_bucket");
+            labels(out, route, method);
+            out.append(",le=\"").append(seconds(1L << exponent)).append("\"} ").append(cumulative).append('\n');
+        }
+        while (index < snapshot.length) {
+            cumulative += snapshot[index++];
+        }
+        out.append("http_request_duration_seconds_bucket");
+        labels(out, route, method);
+        out.append(",le=\"+Inf\"} ").append(cumulative).append('\n');
+        out.append("http_request_duration_seconds_sum");
+        labels(out, route, method);
+        out.append("} ").append(seconds(latency.getSum())).append('\n');
+        // count согласован с корзинами, а не с отдельным счётчиком, который мог уйти вперёд
+        out.append("http_request_duration_seconds_count");
+        labels(out, route, method);
+        out.append("} ").append(cumulative).append('\n');
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    // Открывает список меток; закрывающую скобку добавляет вызывающий
+    private static void labels(StringBuilder out, String route, String method) {
+        out.append("{route=\"");
+        for (int i = 0; i < route.length(); i++) {
+            char c = route.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\');
+            }
+            out.append(c);
+        }
+        out.append("\",method=\"").append(method).append('"');
+    }
+
+    private static String seconds(long micros) {
+        return BigDecimal.valueOf(micros).movePointLeft(6).stripTrailingZeros().toPlainString();
+    }
+
+    private static final class RouteMetrics {
+        private static final int FIRST_STATUS = 100;
+
+        private final LatencyHistogram latency = new LatencyHistogram();
+        // Счётчики по коду статуса 100..599 создаются при первом ответе с этим кодом
+        private final AtomicReferenceArray<LongAdder> statuses = new AtomicReferenceArray<>(500);
+
+        private LongAdder status(int code) {
+            int index = Math.min(Math.max(code, FIRST_STATUS), 599) - FIRST_STATUS;
+            LongAdder counter = statuses.get(index);
+            if (counter == null) {
+                statuses.compareAndSet(index, null, new LongAdder());
+                counter = statuses.get(index);
+            }
+            return counter;
+        }
+    }
+
+    private static final class Sampled {
+        private final String name;
+        private final String baseName;
+        private final String help;
+        private final String type;
+        private final LongSupplier value;
+
+        private Sampled(String name, String help, String type, LongSupplier value) {
+            this.name = name;
+            int labels = name.indexOf('{');
+            this.baseName = labels >= 0 ? name.substring(0, labels) : name;
+            this.help = help;
+            this.type = type;
+            this.value = value;
+        }
+    }
+}
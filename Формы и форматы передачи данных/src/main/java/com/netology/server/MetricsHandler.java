@@ -0,0 +1,19 @@
+package com.netology.server;
+
+import java.io.IOException;
+
+// Отдаёт метрики сервера в текстовом формате Prometheus (GET /metrics)
+public class MetricsHandler implements Handler {
+    private final Metrics metrics;
+
+    public MetricsHandler(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void handle(Request request, Response response) throws IOException {
+        response.addHeader("Content-Type", "text/plain; version=0.0.4; charset=utf-8")
+               .setBody(metrics.scrape())
+               .send();
+    }
+}
@@ -0,0 +1,326 @@
+package com.netology.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Потоковый разбор multipart/form-data: тело читается через буфер фиксированного размера,
+// граница ищется по байтам алгоритмом Бойера-Мура-Хорспула.
+// Небольшие части остаются в памяти, части больше порога сбрасываются в файлы UploadStore.
+class MultipartParser {
+    static final int DEFAULT_MEMORY_THRESHOLD = 64 * 1024;
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_PART_HEADER_SIZE = 8 * 1024;
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] HEADER_END = {'\r', '\n', '\r', '\n'};
+
+    private final byte[] delimiter;
+    private final int[] shift = new int[256];
+    private final int memoryThreshold;
+    private final UploadStore store;
+    private final List<UploadStore.Writer> spilledFiles = new ArrayList<>();
+    private final BufferPool pool = BufferPool.shared();
+
+    private InputStream inputStream;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+
+    MultipartParser(String boundary, int memoryThreshold, Path tempDirectory) {
+        this(boundary, memoryThreshold, new UploadStore(tempDirectory));
+    }
+
+    MultipartParser(String boundary, int memoryThreshold, UploadStore store) {
+        // Разделитель частей: CRLF + "--" + boundary; CRLF перед ним относится к разделителю, а не к содержимому
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.US_ASCII);
+        this.memoryThreshold = memoryThreshold;
+        this.store = store;
+
+        // Таблица сдвигов Хорспула
+        for (int i = 0; i < shift.length; i++) {
+            shift[i] = delimiter.length;
+        }
+        for (int i = 0; i < delimiter.length - 1; i++) {
+            shift[delimiter[i] & 0xff] = delimiter.length - 1 - i;
+        }
+    }
+
+    // Все части в порядке следования; имена могут повторяться (<input type="file" multiple>)
+    List<Part> parse(InputStream inputStream) throws IOException {
+        this.inputStream = inputStream;
+        this.buffer = pool.acquire(Math.max(BUFFER_SIZE, delimiter.length * 2));
+        this.position = 0;
+        this.limit = 0;
+
+        List<Part> parts = new ArrayList<>();
+        try {
+            if (!skipPreamble()) {
+                return parts;
+            }
+            while (true) {
+                // После границы идёт либо "--" (конец тела), либо CRLF и заголовки следующей части
+                if (!ensure(2) || (buffer[position] == '-' && buffer[position + 1] == '-')) {
+                    break;
+                }
+                if (!startsWith(CRLF)) {
+                    throw new IOException("Malformed multipart boundary");
+                }
+                position += 2;
+
+                Map<String, String> headers = readPartHeaders();
+                Part part = readPartContent(headers);
+                if (part != null) {
+                    parts.add(part);
+                }
+                if (limit < 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // Не оставляем за собой временных файлов от недочитанного запроса
+            for (UploadStore.Writer file : spilledFiles) {
+                file.abort();
+            }
+            throw e;
+        } finally {
+            pool.release(buffer);
+            buffer = null;
+        }
+        return parts;
+    }
+
+    // Пропускает всё до первой границы; в начале тела она идёт без предшествующего CRLF
+    private boolean skipPreamble() throws IOException {
+        if (ensure(delimiter.length - 2) && startsWith(delimiter, 2)) {
+            position += delimiter.length - 2;
+            return true;
+        }
+        while (true) {
+            int index = indexOfDelimiter(position, limit);
+            if (index >= 0) {
+                position = index + delimiter.length;
+                return true;
+            }
+            position = Math.max(position, limit - delimiter.length + 1);
+            if (!fill()) {
+                return false;
+            }
+        }
+    }
+
+    private Map<String, String> readPartHeaders() throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        if (ensure(2) && startsWith(CRLF)) {
+            // Часть без заголовков
+            position += 2;
+            return headers;
+        }
+
+        int end;
+        while ((end = indexOf(HEADER_END, position, limit)) < 0) {
+            if (limit - position > MAX_PART_HEADER_SIZE) {
+                throw new IOException("Multipart headers too large");
+            }
+            if (!fill()) {
+                throw new IOException("Unexpected end of multipart headers");
+            }
+        }
+
+        String[] lines = new String(buffer, position, end - position, StandardCharsets.UTF_8).split("\r\n");
+        for (String line : lines) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+            }
+        }
+        position = end + HEADER_END.length;
+        return headers;
+    }
+
+    // Копирует содержимое части до следующего разделителя
+    private Part readPartContent(Map<String, String> headers) throws IOException {
+        String name = null;
+        String filename = null;
+        String contentType = "text/plain";
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase("Content-Disposition")) {
+                // Извлекаем name и filename
+                for (String param : header.getValue().split(";")) {
+                    param = param.trim();
+                    if (param.startsWith("name=")) {
+                        name = unquote(param.substring("name=".length()));
+                    } else if (param.startsWith("filename=")) {
+                        filename = unquote(param.substring("filename=".length()));
+                    }
+                }
+            } else if (header.getKey().equalsIgnoreCase("Content-Type")) {
+                contentType = header.getValue();
+            }
+        }
+
+        PartWriter writer = new PartWriter();
+        while (true) {
+            int index = indexOfDelimiter(position, limit);
+            if (index >= 0) {
+                writer.write(buffer, position, index - position);
+                position = index + delimiter.length;
+                break;
+            }
+            // Хвост буфера может оказаться началом разделителя - его оставляем до следующего чтения
+            int safe = limit - delimiter.length + 1;
+            if (safe > position) {
+                writer.write(buffer, position, safe - position);
+                position = safe;
+            }
+            if (!fill()) {
+                // Тело оборвалось без закрывающей границы: отбрасываем незавершённое начало разделителя
+                writer.write(buffer, position, limit - position - partialDelimiterLength());
+                limit = -1;
+                break;
+            }
+        }
+        return name == null ? writer.discard() : writer.finish(name, contentType, filename, headers);
+    }
+
+    private int partialDelimiterLength() {
+        for (int length = Math.min(delimiter.length - 1, limit - position); length > 0; length--) {
+            if (startsWith(delimiter, 0, limit - length, length)) {
+                return length;
+            }
+        }
+        return 0;
+    }
+
+    private int indexOfDelimiter(int from, int to) {
+        int last = delimiter.length - 1;
+        int i = from;
+        while (i + last < to) {
+            int j = last;
+            while (j >= 0 && buffer[i + j] == delimiter[j]) {
+                j--;
+            }
+            if (j < 0) {
+                return i;
+            }
+            i += shift[buffer[i + last] & 0xff];
+        }
+        return -1;
+    }
+
+    private int indexOf(byte[] pattern, int from, int to) {
+        for (int i = from; i + pattern.length <= to; i++) {
+            if (startsWith(pattern, 0, i, pattern.length)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean startsWith(byte[] pattern) {
+        return startsWith(pattern, 0, position, pattern.length);
+    }
+
+    private boolean startsWith(byte[] pattern, int patternFrom) {
+        return startsWith(pattern, patternFrom, position, pattern.length - patternFrom);
+    }
+
+    private boolean startsWith(byte[] pattern, int patternFrom, int at, int length) {
+        if (at + length > limit) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer[at + i] != pattern[patternFrom + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean ensure(int count) throws IOException {
+        while (limit - position < count) {
+            if (!fill()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Сдвигает непрочитанные байты в начало буфера и дочитывает поток
+    private boolean fill() throws IOException {
+        if (limit < 0) {
+            return false;
+        }
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        if (limit == buffer.length) {
+            byte[] larger = pool.acquire(buffer.length * 2);
+            System.arraycopy(buffer, 0, larger, 0, limit);
+            pool.release(buffer);
+            buffer = larger;
+        }
+        int read = inputStream.read(buffer, limit, buffer.length - limit);
+        if (read <= 0) {
+            return false;
+        }
+        limit += read;
+        return true;
+    }
+
+    private static String unquote(String value) {
+        return value.replace("\"", "");
+    }
+
+    // Накапливает содержимое части в памяти, а при превышении порога переключается на временный файл
+    private final class PartWriter {
+        private final ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        private UploadStore.Writer file;
+        private long size;
+
+        void write(byte[] data, int offset, int length) throws IOException {
+            if (length <= 0) {
+                return;
+            }
+            size += length;
+            if (file == null && memory.size() + length > memoryThreshold) {
+                spill();
+            }
+            if (file != null) {
+                file.write(data, offset, length);
+            } else {
+                memory.write(data, offset, length);
+            }
+        }
+
+        private void spill() throws IOException {
+            file = store.create();
+            spilledFiles.add(file);
+            // Уже накопленное в памяти уходит в файл первым блоком
+            memory.writeTo(file);
+            memory.reset();
+        }
+
+        Part finish(String name, String contentType, String filename, Map<String, String> headers) throws IOException {
+            if (file == null) {
+                return new Part(name, contentType, filename, memory.toByteArray(), headers);
+            }
+            return new Part(name, contentType, filename, file.finish(), size, headers, store);
+        }
+
+        Part discard() throws IOException {
+            if (file != null) {
+                file.abort();
+                spilledFiles.remove(file);
+            }
+            return null;
+        }
+    }
+}
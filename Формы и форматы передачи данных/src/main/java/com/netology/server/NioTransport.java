@@ -0,0 +1,499 @@
+package com.netology.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Неблокирующий транспорт: поток (или несколько потоков) принимает соединения, несколько event loop читают и пишут
+class NioTransport {
+    private static final long IDLE_CHECK_INTERVAL_MILLIS = 1000;
+    // Сколько байтов ответов может ждать отправки, прежде чем соединение перестанет разбирать новые запросы
+    private static final long MAX_PENDING_OUTPUT = 1024 * 1024;
+    // Сколько ответов (в основном незавершённых асинхронных) может стоять в очереди соединения
+    private static final int MAX_PENDING_RESPONSES = 64;
+
+    private final int port;
+    private final RequestHandler requestHandler;
+    private final EventLoop[] eventLoops;
+    private final Selector[] acceptSelectors;
+    private volatile boolean isRunning = false;
+
+    NioTransport(int port, int eventLoopCount, RequestHandler requestHandler) {
+        this(port, eventLoopCount, 1, requestHandler);
+    }
+
+    NioTransport(int port, int eventLoopCount, int acceptorCount, RequestHandler requestHandler) {
+        this.port = port;
+        this.requestHandler = requestHandler;
+        this.eventLoops = new EventLoop[Math.max(1, eventLoopCount)];
+        this.acceptSelectors = new Selector[Math.max(1, acceptorCount)];
+    }
+
+    void start() throws IOException {
+        ServerSocketChannel[] channels = Listeners.openChannels(port, acceptSelectors.length);
+        try {
+            for (int i = 0; i < acceptSelectors.length; i++) {
+                ServerSocketChannel channel = channels[i % channels.length];
+                channel.configureBlocking(false);
+                acceptSelectors[i] = Selector.open();
+                channel.register(acceptSelectors[i], SelectionKey.OP_ACCEPT);
+            }
+
+            isRunning = true;
+            for (int i = 0; i < eventLoops.length; i++) {
+                eventLoops[i] = new EventLoop();
+                Thread thread = new Thread(eventLoops[i], "nio-event-loop-" + i);
+                thread.start();
+            }
+            if (acceptSelectors.length == 1) {
+                System.out.println("Server started on port " + port + " (NIO, event loops: " + eventLoops.length + ")");
+            } else {
+                System.out.println("Server started on port " + port + " (NIO, event loops: " + eventLoops.length
+                        + ", acceptors: " + acceptSelectors.length
+                        + (channels.length > 1 ? ", SO_REUSEPORT" : ", shared socket: SO_REUSEPORT is not supported") + ")");
+            }
+
+            for (int i = 1; i < acceptSelectors.length; i++) {
+                int index = i;
+                new Thread(() -> acceptLoop(index), "nio-acceptor-" + i).start();
+            }
+            acceptLoop(0);
+        } finally {
+            for (Selector selector : acceptSelectors) {
+                if (selector != null) {
+                    selector.close();
+                }
+            }
+            Listeners.close(channels);
+        }
+    }
+
+    // Поток приёма раздаёт соединения по кругу своим event loop: с номерами index, index + acceptors, ...
+    // Если event loop меньше, чем потоков приёма, loop index % eventLoops делят несколько потоков
+    private void acceptLoop(int index) {
+        Selector selector = acceptSelectors[index];
+        EventLoop[] own = ownLoops(index);
+        int next = 0;
+        try {
+            while (isRunning) {
+                selector.select();
+                if (!isRunning) {
+                    break;
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    ServerSocketChannel serverChannel = (ServerSocketChannel) key.channel();
+                    SocketChannel channel;
+                    // Общий сокет без SO_REUSEPORT: соединение может забрать другой поток, тогда accept вернёт null
+                    while (isRunning && (channel = serverChannel.accept()) != null) {
+                        channel.configureBlocking(false);
+                        own[next].register(channel);
+                        next = (next + 1) % own.length;
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (isRunning) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private EventLoop[] ownLoops(int index) {
+        int acceptors = acceptSelectors.length;
+        if (eventLoops.length <= acceptors) {
+            return new EventLoop[] {eventLoops[index % eventLoops.length]};
+        }
+        EventLoop[] own = new EventLoop[(eventLoops.length - index + acceptors - 1) / acceptors];
+        for (int i = 0; i < own.length; i++) {
+            own[i] = eventLoops[index + i * acceptors];
+        }
+        return own;
+    }
+
+    void stop() {
+        isRunning = false;
+        for (Selector selector : acceptSelectors) {
+            if (selector != null) {
+                selector.wakeup();
+            }
+        }
+        for (EventLoop eventLoop : eventLoops) {
+            if (eventLoop != null) {
+                eventLoop.selector.wakeup();
+            }
+        }
+    }
+
+    private static final class Connection {
+        final RequestBuffer input;
+        final ResponseSequencer sequencer = new ResponseSequencer();
+        // Готовые к отправке части ответов: ByteBuffer или FileRegion
+        final ArrayDeque<Object> output = new ArrayDeque<>();
+        long pendingBytes;
+        boolean throttled;
+        boolean keepAlive = true;
+        int served;
+        long lastActivity = System.currentTimeMillis();
+        ResponseSequencer.Sink sink;
+        // Отменённый ключ остаётся в selector.keys() до следующего select(), и при остановке
+        // закрытое соединение встретится ещё раз
+        boolean closed;
+
+        Connection(ServerConfig config) {
+            this.input = new RequestBuffer(config);
+        }
+    }
+
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        // Задачи из других потоков: готовые асинхронные ответы и потоковые ответы асинхронных обработчиков
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private Thread thread;
+        private final ByteBuffer readBuffer = BufferPool.shared().acquireDirect(16 * 1024);
+        private ByteBuffer[] gather = new ByteBuffer[16];
+        // Отдельный селектор для ожидания записи внутри потокового ответа
+        private Selector writeSelector;
+
+        EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        void register(SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        // Выполняет задачу в потоке event loop: состояние соединений меняется только в нём
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            try {
+                while (isRunning) {
+                    selector.select(IDLE_CHECK_INTERVAL_MILLIS);
+                    registerPending();
+                    runTasks();
+                    closeIdle();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                read(key);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                write(key);
+                            }
+                        } catch (IOException e) {
+                            close(key);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    close(key);
+                }
+                BufferPool.shared().releaseDirect(readBuffer);
+                try {
+                    selector.close();
+                    if (writeSelector != null) {
+                        writeSelector.close();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private void registerPending() throws IOException {
+            SocketChannel channel;
+            while ((channel = pending.poll()) != null) {
+                Connection connection = new Connection(requestHandler.getConfig());
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connection.sink = slot -> {
+                    if (Thread.currentThread() == thread) {
+                        push(key, slot);
+                    } else {
+                        execute(() -> pushLater(key, slot));
+                    }
+                };
+                requestHandler.getMetrics().connectionOpened();
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+
+        private void read(SelectionKey key) throws IOException {
+            SocketChannel channel = (SocketChannel) key.channel();
+            Connection connection = (Connection) key.attachment();
+
+            readBuffer.clear();
+            if (channel.read(readBuffer) < 0) {
+                close(key);
+                return;
+            }
+            readBuffer.flip();
+            connection.input.append(readBuffer);
+            connection.lastActivity = System.currentTimeMillis();
+            process(key);
+        }
+
+        private void process(SelectionKey key) throws IOException {
+            Connection connection = (Connection) key.attachment();
+
+            // Обрабатываем все полностью полученные запросы, ответы встают в очередь по порядку
+            while (connection.keepAlive && !isThrottled(connection)) {
+                Request request;
+                try {
+                    request = connection.input.poll();
+                } catch (IOException e) {
+                    ResponseSequencer.Slot slot = connection.sequencer.reserve();
+                    Response response = new Response(slot);
+                    response.addHeader("Connection", "close");
+                    requestHandler.sendBadRequest(response, e);
+                    connection.sequencer.complete(slot);
+                    connection.keepAlive = false;
+                    break;
+                }
+                if (request == null) {
+                    break;
+                }
+
+                ResponseSequencer.Slot slot = connection.sequencer.reserve();
+                slot.setSink(connection.sink);
+                Response response = new Response(slot);
+                connection.keepAlive = requestHandler.prepareConnection(request, response, ++connection.served);
+                CompletableFuture<Void> pending = requestHandler.dispatchAsync(request, response);
+                if (pending != null) {
+                    // Следующие запросы разбираются сразу, ответ встанет в очередь, когда будет готов
+                    slot.setPending(pending);
+                    pending.whenComplete((result, error) -> execute(() -> completeAsync(key, slot, error)));
+                    continue;
+                }
+                connection.sequencer.complete(slot);
+                // Потоковый ответ HTTP/1.0 кончается закрытием соединения: следующие запросы не обрабатываем
+                connection.keepAlive &= !slot.isCloseAfter();
+                enqueueCompleted(connection);
+            }
+            enqueueCompleted(connection);
+            connection.throttled = isThrottled(connection);
+            write(key);
+        }
+
+        private boolean isThrottled(Connection connection) {
+            return connection.pendingBytes >= MAX_PENDING_OUTPUT || connection.sequencer.size() >= MAX_PENDING_RESPONSES;
+        }
+
+        // Асинхронный ответ готов; ошибка - ответ оборван, соединение закрывается
+        private void completeAsync(SelectionKey key, ResponseSequencer.Slot slot, Throwable error) {
+            if (!key.isValid()) {
+                // Соединение уже закрыто, слот освобождён вместе с ним
+                return;
+            }
+            if (error != null) {
+                close(key);
+                return;
+            }
+            Connection connection = (Connection) key.attachment();
+            connection.sequencer.complete(slot);
+            enqueueCompleted(connection);
+            try {
+                write(key);
+            } catch (IOException e) {
+                close(key);
+            }
+        }
+
+        // Часть потокового ответа, записанная асинхронным обработчиком из своего потока.
+        // Ждать сокет в чужом потоке нельзя, поэтому здесь неотправленные данные ограничивает только буфер потока
+        private void pushLater(SelectionKey key, ResponseSequencer.Slot slot) {
+            if (!key.isValid()) {
+                return;
+            }
+            Connection connection = (Connection) key.attachment();
+            enqueueCompleted(connection);
+            if (connection.sequencer.isHead(slot)) {
+                connection.pendingBytes += slot.takeAvailable(connection.output);
+            }
+            try {
+                write(key);
+            } catch (IOException e) {
+                close(key);
+            }
+        }
+
+        private void enqueueCompleted(Connection connection) {
+            ResponseSequencer.Slot slot;
+            while ((slot = connection.sequencer.poll()) != null) {
+                slot.drainTo(connection.output);
+                connection.pendingBytes += slot.length();
+            }
+            if (connection.sequencer.isClosing()) {
+                // Ответы за последним уже не уйдут; незавершённые отменятся при закрытии
+                connection.keepAlive = false;
+            }
+        }
+
+        // Отправка части потокового ответа прямо из обработчика. Обработчик выполняется в потоке event loop,
+        // поэтому при переполненном сокете ждём возможности записи, чтобы неотправленные данные не росли без предела
+        private void push(SelectionKey key, ResponseSequencer.Slot slot) throws IOException {
+            SocketChannel channel = (SocketChannel) key.channel();
+            Connection connection = (Connection) key.attachment();
+            enqueueCompleted(connection);
+            if (connection.sequencer.isHead(slot)) {
+                connection.pendingBytes += slot.takeAvailable(connection.output);
+            }
+            writeOutput(channel, connection);
+            while (connection.pendingBytes >= MAX_PENDING_OUTPUT) {
+                awaitWritable(channel);
+                writeOutput(channel, connection);
+            }
+        }
+
+        private void awaitWritable(SocketChannel channel) throws IOException {
+            if (writeSelector == null) {
+                writeSelector = Selector.open();
+            }
+            SelectionKey key = channel.register(writeSelector, SelectionKey.OP_WRITE);
+            try {
+                if (writeSelector.select(requestHandler.getKeepAliveTimeoutMillis()) == 0) {
+                    throw new IOException("Write timeout");
+                }
+            } finally {
+                key.cancel();
+                // Снимаем отменённый ключ, чтобы канал можно было зарегистрировать снова
+                writeSelector.selectNow();
+            }
+        }
+
+        private void write(SelectionKey key) throws IOException {
+            SocketChannel channel = (SocketChannel) key.channel();
+            Connection connection = (Connection) key.attachment();
+            writeOutput(channel, connection);
+
+            // Пока ждут MAX_PENDING_RESPONSES ответов, соединение не читается: клиент упрётся в окно TCP,
+            // а чтение возобновится, когда асинхронный ответ будет готов
+            int read = connection.sequencer.size() < MAX_PENDING_RESPONSES ? SelectionKey.OP_READ : 0;
+            if (!connection.output.isEmpty()) {
+                key.interestOps(connection.keepAlive ? read | SelectionKey.OP_WRITE : SelectionKey.OP_WRITE);
+                return;
+            }
+            if (!connection.keepAlive && (connection.sequencer.isEmpty() || connection.sequencer.isClosing())) {
+                close(key);
+                return;
+            }
+            key.interestOps(read);
+            if (connection.keepAlive && connection.throttled && !isThrottled(connection)) {
+                // Очередь освободилась, а в буфере остались конвейерные запросы. Только при переходе
+                // в свободное состояние: иначе process() и write() вызывали бы друг друга без конца
+                process(key);
+            }
+        }
+
+        private void writeOutput(SocketChannel channel, Connection connection) throws IOException {
+            // Подряд идущие буферы пишем одним gather-вызовом, файлы - через transferTo
+            while (!connection.output.isEmpty()) {
+                Object head = connection.output.peekFirst();
+                if (head instanceof byte[]) {
+                    // Все буферы, ссылавшиеся на массив, уже отправлены
+                    ResponseSequencer.Slot.release(connection.output.pollFirst());
+                    continue;
+                }
+                if (head instanceof FileRegion) {
+                    FileRegion file = (FileRegion) head;
+                    connection.pendingBytes -= file.transferTo(channel);
+                    connection.lastActivity = System.currentTimeMillis();
+                    if (file.remaining() > 0) {
+                        break;
+                    }
+                    file.close();
+                    connection.output.pollFirst();
+                    continue;
+                }
+
+                int count = 0;
+                for (Object segment : connection.output) {
+                    if (segment instanceof FileRegion) {
+                        break;
+                    }
+                    if (!(segment instanceof ByteBuffer)) {
+                        continue;
+                    }
+                    if (count == gather.length) {
+                        gather = Arrays.copyOf(gather, count * 2);
+                    }
+                    gather[count++] = (ByteBuffer) segment;
+                }
+                connection.pendingBytes -= channel.write(gather, 0, count);
+                connection.lastActivity = System.currentTimeMillis();
+                Arrays.fill(gather, 0, count, null);
+                Object first;
+                while ((first = connection.output.peekFirst()) != null
+                        && (first instanceof byte[] || first instanceof ByteBuffer && !((ByteBuffer) first).hasRemaining())) {
+                    ResponseSequencer.Slot.release(connection.output.pollFirst());
+                }
+                if (!connection.output.isEmpty() && connection.output.peekFirst() instanceof ByteBuffer) {
+                    // Буфер сокета заполнен
+                    break;
+                }
+            }
+        }
+
+        private void closeIdle() {
+            long deadline = System.currentTimeMillis() - requestHandler.getKeepAliveTimeoutMillis();
+            for (SelectionKey key : selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                // Соединение с незавершёнными асинхронными ответами не считается простаивающим
+                if (key.isValid() && connection.output.isEmpty() && connection.sequencer.isEmpty()
+                        && connection.lastActivity < deadline) {
+                    close(key);
+                }
+            }
+        }
+
+        private void close(SelectionKey key) {
+            key.cancel();
+            Connection connection = (Connection) key.attachment();
+            if (connection != null && !connection.closed) {
+                connection.closed = true;
+                for (Object segment : connection.output) {
+                    ResponseSequencer.Slot.release(segment);
+                }
+                connection.output.clear();
+                connection.sequencer.close();
+                connection.input.release();
+                requestHandler.getMetrics().connectionClosed();
+            }
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                // Соединение уже закрыто
+            }
+        }
+    }
+}
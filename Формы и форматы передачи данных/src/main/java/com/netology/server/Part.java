@@ -1,7 +1,15 @@
 package com.netology.server;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -9,23 +17,38 @@ public class Part {
     private final String name;
     private final String contentType;
     private final String filename;
+    // Содержимое лежит либо в памяти (content), либо в файле (file)
     private final byte[] content;
+    private volatile Path file;
+    private final long size;
     private final Map<String, String> headers;
+    // Хранилище, которому принадлежит файл; null - файл уже перенесён обработчиком или удалён
+    private volatile UploadStore store;
 
     public Part(String name, String contentType, String filename, byte[] content) {
+        this(name, contentType, filename, content, new HashMap<>());
+    }
+
+    public Part(String name, String contentType, String filename, byte[] content, Map<String, String> headers) {
         this.name = name;
         this.contentType = contentType;
         this.filename = filename;
         this.content = content;
-        this.headers = new HashMap<>();
+        this.file = null;
+        this.store = null;
+        this.size = content != null ? content.length : 0;
+        this.headers = Collections.unmodifiableMap(new HashMap<>(headers));
     }
 
-    public Part(String name, String contentType, String filename, byte[] content, Map<String, String> headers) {
+    Part(String name, String contentType, String filename, Path file, long size, Map<String, String> headers, UploadStore store) {
         this.name = name;
         this.contentType = contentType;
         this.filename = filename;
-        this.content = content;
-        this.headers = new HashMap<>(headers);
+        this.content = null;
+        this.file = file;
+        this.store = store;
+        this.size = size;
+        this.headers = Collections.unmodifiableMap(new HashMap<>(headers));
     }
 
     public String getName() {
@@ -40,22 +63,96 @@ public class Part {
         return filename;
     }
 
+    // Для части, сброшенной на диск, содержимое читается из файла целиком - большие файлы лучше читать через getInputStream()
     public byte[] getContent() {
-        return content;
+        if (file == null) {
+            return content;
+        }
+        try {
+            return Files.readAllBytes(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     public String getStringContent() {
-        return new String(content, java.nio.charset.StandardCharsets.UTF_8);
+        return new String(getContent(), java.nio.charset.StandardCharsets.UTF_8);
     }
 
     public InputStream getInputStream() {
-        return new ByteArrayInputStream(content);
+        if (file == null) {
+            return new ByteArrayInputStream(content);
+        }
+        try {
+            return Files.newInputStream(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public boolean isInMemory() {
+        return file == null;
+    }
+
+    // Файл с содержимым части или null для части в памяти.
+    // Временный файл удаляется после обработки запроса - чтобы сохранить его, используйте moveTo()
+    public Path getPath() {
+        return file;
+    }
+
+    // Содержимое только для чтения без копирования в кучу: файл отображается в память, часть в памяти оборачивается.
+    // Отображение временного файла остаётся доступным и после его удаления, но не на всех ОС - надёжнее не использовать его
+    // после завершения обработки запроса
+    public ByteBuffer map() throws IOException {
+        Path path = file;
+        if (path == null) {
+            return ByteBuffer.wrap(content).asReadOnlyBuffer();
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Part is too large to map: " + size + " bytes, use getInputStream()");
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    // Сохраняет содержимое в destination. Временный файл переименовывается без копирования
+    // (между файловыми системами Files.move копирует), часть в памяти записывается в файл.
+    // Существующий destination не перезаписывается. После переноса файл при очистке запроса не удаляется
+    public synchronized Path moveTo(Path destination) throws IOException {
+        Path path = file;
+        if (path == null) {
+            Files.write(destination, content, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            return destination;
+        }
+        UploadStore owner = store;
+        Files.move(path, destination);
+        file = destination;
+        if (owner != null) {
+            store = null;
+            owner.release(size);
+        }
+        return destination;
     }
 
     public Map<String, String> getHeaders() {
         return new HashMap<>(headers);
     }
 
+    // Представление только для чтения, без копирования
+    public Map<String, String> getHeadersView() {
+        return headers;
+    }
+
+    public String getHeader(String name) {
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            if (entry.getKey().equalsIgnoreCase(name)) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
     public boolean isFile() {
         return filename != null && !filename.isEmpty();
     }
@@ -65,6 +162,15 @@ public class Part {
     }
 
     public long getSize() {
-        return content != null ? content.length : 0;
+        return size;
+    }
+
+    // Удаляет временный файл части после завершения обработки запроса; перенесённый файл не трогает
+    synchronized void delete() {
+        UploadStore owner = store;
+        if (owner != null) {
+            store = null;
+            owner.delete(file, size);
+        }
     }
 } 
\ No newline at end of file
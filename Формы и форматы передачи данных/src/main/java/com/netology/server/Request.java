@@ -3,115 +3,191 @@ package com.netology.server;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.utils.URLEncodedUtils;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.URI;
-import java.net.URISyntaxException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 public class Request {
+    private static final ServerConfig DEFAULT_CONFIG = new ServerConfig();
+
     private final String method;
     private final String path;
+    private final String protocol;
     private final String queryString;
-    private final Map<String, String> headers;
-    private final Map<String, String> queryParams;
-    private final Map<String, String> postParams;
-    private final String body;
-    private final Map<String, Part> parts;
+    // Байты запроса и смещения заголовков (null, если запрос создан из готовых строк)
+    private final byte[] raw;
+    private final int[] offsets;
+    private final int bodyStart;
+    private final int bodyLength;
+    // Файл с телом, если RequestBuffer записал его на диск (большой multipart); тогда в raw только заголовок
+    private volatile UploadStore.Writer bodyFile;
+    private final ServerConfig config;
+    // raw возвращён в пул после обработки запроса
+    private volatile boolean released;
+    // Материализуются из raw при первом обращении
+    private volatile Headers headers;
+    private volatile Map<String, String> headersView;
+    private volatile String body;
+    // Разбираются при первом обращении; маршрут без обработчика и обработчики, читающие
+    // только путь, не платят за разбор параметров и тела
+    private volatile Map<String, String> queryParams;
+    private volatile Map<String, String> postParams;
+    private volatile Map<String, Part> parts;
+    // Все части, включая повторы одного имени: их файлы тоже нужно удалить после ответа
+    private volatile List<Part> partList;
+    // Значения переменных пути (/messages/{id}), заполняются маршрутизатором
+    private volatile Map<String, String> pathParams = Collections.emptyMap();
 
     public Request(String method, String path, Map<String, String> headers, String body) {
+        this(method, path, "HTTP/1.1", headers, body);
+    }
+
+    public Request(String method, String path, String protocol, Map<String, String> headers, String body) {
         this.method = method;
-        this.headers = headers;
+        this.protocol = protocol;
+        this.headers = headers == null ? new Headers() : Headers.fromMap(headers);
         this.body = body;
-        this.queryParams = new HashMap<>();
-        this.postParams = new HashMap<>();
-        this.parts = new HashMap<>();
+        this.raw = null;
+        this.offsets = null;
+        this.bodyStart = 0;
+        this.bodyLength = 0;
+        this.config = DEFAULT_CONFIG;
         
         // Разделяем путь и query string
         String[] pathAndQuery = path.split("\\?", 2);
         this.path = pathAndQuery[0];
         this.queryString = pathAndQuery.length > 1 ? pathAndQuery[1] : "";
-        
-        // Парсим query параметры
-        parseQueryParams();
-        
-        // Парсим POST параметры если это POST запрос
-        if ("POST".equals(method)) {
-            parsePostParams();
-        }
     }
 
-    private void parseQueryParams() {
-        if (queryString.isEmpty()) {
-            return;
+    Request(byte[] raw, int[] offsets, int bodyStart, int bodyLength, ServerConfig config) {
+        this(raw, offsets, bodyStart, bodyLength, null, config);
+    }
+
+    Request(byte[] raw, int[] offsets, int bodyStart, int bodyLength, UploadStore.Writer bodyFile, ServerConfig config) {
+        this.raw = raw;
+        this.bodyFile = bodyFile;
+        this.config = config;
+        this.offsets = offsets;
+        this.bodyStart = bodyStart;
+        this.bodyLength = bodyLength;
+        this.method = RequestParser.method(raw, offsets);
+        this.protocol = RequestParser.protocol(raw, offsets);
+
+        // Разделяем путь и query string прямо по байтам
+        int targetStart = offsets[RequestParser.TARGET_START];
+        int targetEnd = offsets[RequestParser.TARGET_END];
+        int question = RequestParser.indexOf(raw, targetStart, targetEnd, (byte) '?');
+        int pathEnd = question < 0 ? targetEnd : question;
+        this.path = new String(raw, targetStart, pathEnd - targetStart, StandardCharsets.UTF_8);
+        this.queryString = question < 0 ? "" : new String(raw, question + 1, targetEnd - question - 1, StandardCharsets.UTF_8);
+    }
+
+    // Ленивый разбор с double-checked locking: каждая часть разбирается не больше одного раза,
+    // даже если к запросу обращаются из нескольких потоков
+    private Map<String, String> queryParams() {
+        Map<String, String> result = queryParams;
+        if (result == null) {
+            synchronized (this) {
+                result = queryParams;
+                if (result == null) {
+                    result = parseUrlEncoded(queryString);
+                    queryParams = result;
+                }
+            }
         }
-        
-        try {
-            List<NameValuePair> params = URLEncodedUtils.parse(queryString, StandardCharsets.UTF_8);
-            for (NameValuePair param : params) {
-                queryParams.put(param.getName(), param.getValue());
+        return result;
+    }
+
+    private Map<String, String> postParams() {
+        Map<String, String> result = postParams;
+        if (result == null) {
+            synchronized (this) {
+                result = postParams;
+                if (result == null) {
+                    result = isPostWithContentType("application/x-www-form-urlencoded")
+                            ? parseUrlEncoded(getBody())
+                            : Collections.emptyMap();
+                    postParams = result;
+                }
             }
-        } catch (Exception e) {
-            // Игнорируем ошибки парсинга
         }
+        return result;
     }
 
-    private void parsePostParams() {
-        String contentType = headers.get("Content-Type");
-        if (contentType == null) {
-            return;
+    private Map<String, Part> parts() {
+        Map<String, Part> result = parts;
+        if (result == null) {
+            synchronized (this) {
+                result = parts;
+                if (result == null) {
+                    List<Part> all = isPostWithContentType("multipart/form-data")
+                            ? parseMultipartBody()
+                            : Collections.emptyList();
+                    // Для повторяющегося имени по имени доступна последняя часть, все - через getParts(name)
+                    Map<String, Part> byName = new LinkedHashMap<>();
+                    for (Part part : all) {
+                        byName.put(part.getName(), part);
+                    }
+                    partList = all;
+                    result = Collections.unmodifiableMap(byName);
+                    parts = result;
+                }
+            }
         }
+        return result;
+    }
 
-        if (contentType.startsWith("application/x-www-form-urlencoded")) {
-            parseUrlEncodedBody();
-        } else if (contentType.startsWith("multipart/form-data")) {
-            parseMultipartBody();
+    private boolean isPostWithContentType(String expected) {
+        if (!"POST".equals(method)) {
+            return false;
         }
+        String contentType = getHeader(Headers.CONTENT_TYPE);
+        return contentType != null && contentType.startsWith(expected);
     }
 
-    private void parseUrlEncodedBody() {
-        if (body == null || body.isEmpty()) {
-            return;
+    private static Map<String, String> parseUrlEncoded(String data) {
+        if (data == null || data.isEmpty()) {
+            return Collections.emptyMap();
         }
         
+        Map<String, String> params = new HashMap<>();
         try {
-            List<NameValuePair> params = URLEncodedUtils.parse(body, StandardCharsets.UTF_8);
-            for (NameValuePair param : params) {
-                postParams.put(param.getName(), param.getValue());
+            for (NameValuePair param : URLEncodedUtils.parse(data, StandardCharsets.UTF_8)) {
+                params.put(param.getName(), param.getValue());
             }
         } catch (Exception e) {
             // Игнорируем ошибки парсинга
         }
+        return Collections.unmodifiableMap(params);
     }
 
-    private void parseMultipartBody() {
-        if (body == null || body.isEmpty()) {
-            return;
+    private List<Part> parseMultipartBody() {
+        if (raw != null ? bodyLength == 0 : body == null || body.isEmpty()) {
+            return Collections.emptyList();
         }
         
-        try {
-            String boundary = extractBoundary(headers.get("Content-Type"));
-            if (boundary == null) {
-                return;
-            }
-            
-            // Разбиваем тело на части по boundary
-            String[] parts = body.split("--" + boundary);
-            
-            for (String part : parts) {
-                if (part.trim().isEmpty() || part.contains("--")) {
-                    continue; // Пропускаем пустые части и финальный boundary
-                }
-                
-                parseMultipartPart(part);
-            }
-        } catch (Exception e) {
+        String boundary = extractBoundary(getHeader(Headers.CONTENT_TYPE));
+        if (boundary == null) {
+            return Collections.emptyList();
+        }
+
+        // Тело разбирается потоково, части больше порога уходят в файлы хранилища загрузок
+        MultipartParser parser = new MultipartParser(boundary, config.getMultipartMemoryThreshold(), config.getUploadStore());
+        try (InputStream inputStream = getBodyStream()) {
+            return Collections.unmodifiableList(parser.parse(inputStream));
+        } catch (IOException e) {
             // Игнорируем ошибки парсинга
+            return Collections.emptyList();
         }
     }
     
@@ -130,76 +206,109 @@ public class Request {
         return null;
     }
     
-    private void parseMultipartPart(String partData) {
-        try {
-            // Разделяем заголовки и содержимое
-            String[] sections = partData.split("\r\n\r\n", 2);
-            if (sections.length < 2) {
-                return;
-            }
-            
-            String headersSection = sections[0];
-            String content = sections[1].trim();
-            
-            // Парсим заголовки
-            Map<String, String> partHeaders = new HashMap<>();
-            String name = null;
-            String filename = null;
-            String contentType = "text/plain";
-            
-            String[] headerLines = headersSection.split("\r\n");
-            for (String line : headerLines) {
-                if (line.startsWith("Content-Disposition:")) {
-                    // Извлекаем name и filename
-                    String[] params = line.split(";");
-                    for (String param : params) {
-                        param = param.trim();
-                        if (param.startsWith("name=")) {
-                            name = param.substring("name=".length()).replace("\"", "");
-                        } else if (param.startsWith("filename=")) {
-                            filename = param.substring("filename=".length()).replace("\"", "");
-                        }
-                    }
-                } else if (line.startsWith("Content-Type:")) {
-                    contentType = line.substring("Content-Type:".length()).trim();
-                }
-            }
-            
-            if (name != null) {
-                byte[] contentBytes = content.getBytes(StandardCharsets.UTF_8);
-                Part part = new Part(name, contentType, filename, contentBytes, partHeaders);
-                parts.put(name, part);
-            }
-        } catch (Exception e) {
-            // Игнорируем ошибки парсинга
-        }
-    }
-
     // Методы для работы с Query параметрами
     public String getQueryParam(String name) {
-        return queryParams.get(name);
+        return queryParams().get(name);
     }
 
     public Map<String, String> getQueryParams() {
-        return new HashMap<>(queryParams);
+        return new HashMap<>(queryParams());
+    }
+
+    // Представление только для чтения, без копирования
+    public Map<String, String> getQueryParamsView() {
+        return queryParams();
+    }
+
+    // Методы для работы с переменными пути
+    public String getPathParam(String name) {
+        return pathParams.get(name);
+    }
+
+    public Map<String, String> getPathParams() {
+        return pathParams;
+    }
+
+    void setPathParams(Map<String, String> pathParams) {
+        this.pathParams = Collections.unmodifiableMap(pathParams);
     }
 
     // Методы для работы с POST параметрами
     public String getPostParam(String name) {
-        return postParams.get(name);
+        return postParams().get(name);
     }
 
     public Map<String, String> getPostParams() {
-        return new HashMap<>(postParams);
+        return new HashMap<>(postParams());
+    }
+
+    public Map<String, String> getPostParamsView() {
+        return postParams();
     }
 
     // Методы для работы с multipart частями
     public Part getPart(String name) {
-        return parts.get(name);
+        return parts().get(name);
     }
 
     public Map<String, Part> getParts() {
-        return new HashMap<>(parts);
+        return new HashMap<>(parts());
+    }
+
+    // Все части с этим именем в порядке следования, например файлы из <input type="file" multiple>
+    public List<Part> getParts(String name) {
+        parts();
+        List<Part> result = new ArrayList<>();
+        for (Part part : partList) {
+            if (part.getName().equals(name)) {
+                result.add(part);
+            }
+        }
+        return result;
+    }
+
+    public Map<String, Part> getPartsView() {
+        return parts();
+    }
+
+    // Удаляет временные файлы multipart частей (кроме перенесённых через Part.moveTo); вызывается после отправки ответа.
+    // Если части не запрашивались, тело так и не разбиралось и удалять нечего
+    // Байты запроса при этом возвращаются в пул: то, что не было прочитано до конца обработки, больше недоступно
+    void cleanup() {
+        deleteParts();
+        if (raw != null && !released) {
+            released = true;
+            BufferPool.shared().release(raw);
+        }
+    }
+
+    // Запрос асинхронного обработчика, ответ на который ушёл без него (таймаут или отключение клиента).
+    // Файлы частей удаляются, а байты запроса остаются обработчику и не возвращаются в пул:
+    // отменённая стадия не значит, что работа, которая их читает, уже остановилась
+    void discard() {
+        deleteParts();
+    }
+
+    private void deleteParts() {
+        List<Part> parsed = partList;
+        if (parsed != null) {
+            for (Part part : parsed) {
+                part.delete();
+            }
+        }
+        synchronized (this) {
+            if (bodyFile != null) {
+                bodyFile.abort();
+                bodyFile = null;
+            }
+        }
+    }
+
+    private byte[] raw() {
+        if (released) {
+            throw new IllegalStateException("Request is already completed");
+        }
+        return raw;
     }
 
     // Геттеры
@@ -215,60 +324,114 @@ public class Request {
         return queryString;
     }
 
+    public String getProtocol() {
+        return protocol;
+    }
+
+    // HTTP/1.1 держит соединение открытым по умолчанию, HTTP/1.0 - только по явному keep-alive
+    public boolean isKeepAlive() {
+        String connection = getHeader(Headers.CONNECTION);
+        if ("HTTP/1.0".equals(protocol)) {
+            return "keep-alive".equalsIgnoreCase(connection);
+        }
+        return !"close".equalsIgnoreCase(connection);
+    }
+
     public Map<String, String> getHeaders() {
-        return new HashMap<>(headers);
+        return new HashMap<>(getHeadersView());
+    }
+
+    public Map<String, String> getHeadersView() {
+        Map<String, String> result = headersView;
+        if (result == null) {
+            result = Collections.unmodifiableMap(getHeaderTable().toMap());
+            headersView = result;
+        }
+        return result;
+    }
+
+    // Значение заголовка без учёта регистра имени; для повторяющихся заголовков - первое
+    public String getHeader(String name) {
+        return getHeaderTable().get(name);
+    }
+
+    public List<String> getHeaderValues(String name) {
+        return getHeaderTable().getAll(name);
+    }
+
+    public Headers getHeaderTable() {
+        Headers result = headers;
+        if (result == null) {
+            result = new Headers();
+            for (int i = RequestParser.HEADERS; i < offsets.length; i += 4) {
+                result.add(raw(), offsets[i], offsets[i + 1], offsets[i + 2], offsets[i + 3]);
+            }
+            headers = result;
+        }
+        return result;
     }
 
     public String getBody() {
+        if (body == null && raw != null) {
+            body = bodyFile != null
+                    ? new String(readBodyFile(), StandardCharsets.UTF_8)
+                    : new String(raw(), bodyStart, bodyLength, StandardCharsets.UTF_8);
+        }
         return body;
     }
 
-    public static Request fromInputStream(InputStream inputStream) throws IOException {
-        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-        
-        // Читаем первую строку (Request Line)
-        String requestLine = reader.readLine();
-        if (requestLine == null) {
-            throw new IOException("Empty request");
+    // Тело запроса без перекодирования в строку
+    public byte[] getBodyBytes() {
+        if (bodyFile != null) {
+            return readBodyFile();
         }
-        
-        String[] parts = requestLine.split(" ");
-        if (parts.length != 3) {
-            throw new IOException("Invalid request line: " + requestLine);
+        if (raw != null) {
+            return Arrays.copyOfRange(raw(), bodyStart, bodyStart + bodyLength);
         }
-        
-        String method = parts[0];
-        String path = parts[1];
-        
-        // Читаем заголовки
-        Map<String, String> headers = new HashMap<>();
-        String line;
-        while ((line = reader.readLine()) != null && !line.isEmpty()) {
-            int colonIndex = line.indexOf(':');
-            if (colonIndex > 0) {
-                String name = line.substring(0, colonIndex).trim();
-                String value = line.substring(colonIndex + 1).trim();
-                headers.put(name, value);
+        return body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Для тела на диске - поток чтения файла: multipart разбирается из него, не поднимая тело в память
+    public InputStream getBodyStream() {
+        UploadStore.Writer file = bodyFile;
+        if (file != null) {
+            try {
+                return Files.newInputStream(file.getFile());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
         }
-        
-        // Читаем тело запроса
-        StringBuilder body = new StringBuilder();
-        int contentLength = 0;
-        try {
-            contentLength = Integer.parseInt(headers.getOrDefault("Content-Length", "0"));
-        } catch (NumberFormatException e) {
-            // Игнорируем
+        if (raw != null) {
+            return new ByteArrayInputStream(raw(), bodyStart, bodyLength);
         }
-        
-        if (contentLength > 0) {
-            char[] buffer = new char[contentLength];
-            int bytesRead = reader.read(buffer, 0, contentLength);
-            if (bytesRead > 0) {
-                body.append(buffer, 0, bytesRead);
+        return new ByteArrayInputStream(getBodyBytes());
+    }
+
+    private byte[] readBodyFile() {
+        try (InputStream inputStream = getBodyStream()) {
+            return inputStream.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static Request fromInputStream(InputStream inputStream) throws IOException {
+        RequestBuffer buffer = new RequestBuffer(DEFAULT_CONFIG);
+        try {
+            Request request;
+            while ((request = buffer.poll()) == null) {
+                if (buffer.fill(inputStream) < 0) {
+                    // Поток закончился раньше, чем пришло всё тело: отдаём то, что успели получить
+                    request = buffer.pollTruncated();
+                    if (request == null) {
+                        throw new IOException("Empty request");
+                    }
+                    break;
+                }
             }
+            return request;
+        } finally {
+            buffer.release();
         }
-        
-        return new Request(method, path, headers, body.toString());
     }
-} 
\ No newline at end of file
+}
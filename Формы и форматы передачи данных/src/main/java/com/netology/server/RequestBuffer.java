@@ -0,0 +1,186 @@
+package com.netology.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+// Накопительный буфер входящих байтов соединения: отдаёт запрос только когда он получен целиком.
+// Тело больше maxRequestBodySize отклоняется ответом 413 сразу после заголовка, а большое тело multipart
+// пишется в файл UploadStore по мере поступления, так что в памяти остаётся только заголовок
+class RequestBuffer {
+    private static final int MAX_HEADER_SIZE = 64 * 1024;
+
+    private final RequestParser parser = new RequestParser();
+    private final ServerConfig config;
+    private final BufferPool pool = BufferPool.shared();
+    private byte[] data = pool.acquire(4096);
+    private int start;
+    private int end;
+    // Смещения разобранного заголовка, пока ждём оставшуюся часть тела
+    private int[] head;
+    private int bodyStart;
+    private int bodyLength;
+    // Файл, в который уходит тело текущего запроса, и сколько байт в него уже записано
+    private UploadStore.Writer spool;
+    private int spooled;
+
+    RequestBuffer(ServerConfig config) {
+        this.config = config;
+    }
+
+    void append(ByteBuffer source) {
+        ensureCapacity(source.remaining());
+        int length = source.remaining();
+        source.get(data, end, length);
+        end += length;
+    }
+
+    // Дочитывает очередную порцию байтов из потока; возвращает -1 при закрытии соединения
+    int fill(InputStream inputStream) throws IOException {
+        ensureCapacity(4096);
+        int read = inputStream.read(data, end, data.length - end);
+        if (read > 0) {
+            end += read;
+        }
+        return read;
+    }
+
+    boolean isEmpty() {
+        return start == end;
+    }
+
+    Request poll() throws IOException {
+        if (head == null) {
+            int headerEnd = indexOfHeaderEnd();
+            if (headerEnd < 0) {
+                if (end - start > MAX_HEADER_SIZE) {
+                    throw new IOException("Request header too large");
+                }
+                return null;
+            }
+            // Заголовок разбираем один раз, даже если тело приходит несколькими порциями
+            head = parser.parseHead(data, start, headerEnd);
+            bodyStart = headerEnd + 4 - start;
+            bodyLength = RequestParser.contentLength(data, start, head);
+            if (bodyLength > config.getMaxRequestBodySize()) {
+                head = null;
+                throw new HttpException(413, "Payload Too Large",
+                        "Request body of " + bodyLength + " bytes exceeds " + config.getMaxRequestBodySize());
+            }
+            if (bodyLength > config.getMultipartMemoryThreshold() && isMultipart()) {
+                spool = config.getUploadStore().create();
+                spooled = 0;
+            }
+        }
+
+        int total = bodyStart + bodyLength;
+        if (spool != null) {
+            if (!spoolBody()) {
+                return null;
+            }
+            // Тело уже в файле, в массив запроса копируется только заголовок
+            total = bodyStart;
+        } else if (end - start < total) {
+            return null;
+        }
+
+        // Единственная копия: байты запроса переезжают из общего буфера соединения в массив из пула,
+        // который Request вернёт в пул после обработки
+        byte[] raw = pool.acquire(total);
+        System.arraycopy(data, start, raw, 0, total);
+        Request request = new Request(raw, head, bodyStart, bodyLength, spool, config);
+        head = null;
+        spool = null;
+        start += total;
+        if (start == end) {
+            start = 0;
+            end = 0;
+        }
+        return request;
+    }
+
+    // Возвращает запрос с телом, обрезанным по фактически полученным байтам (поток закончился раньше Content-Length)
+    Request pollTruncated() throws IOException {
+        Request request = poll();
+        if (request != null || head == null) {
+            return request;
+        }
+        bodyLength = spooled + end - start - bodyStart;
+        return poll();
+    }
+
+    // Возвращает буфер соединения в пул; вызывается при закрытии соединения
+    void release() {
+        if (spool != null) {
+            // Соединение закрылось посреди тела
+            spool.abort();
+            spool = null;
+        }
+        if (data != null) {
+            pool.release(data);
+            data = null;
+        }
+    }
+
+    // Переносит полученную часть тела из буфера в файл; байты следующего конвейерного запроса
+    // сдвигаются на её место. Возвращает true, когда тело записано целиком
+    private boolean spoolBody() throws IOException {
+        int from = start + bodyStart;
+        int count = Math.min(end - from, bodyLength - spooled);
+        if (count > 0) {
+            try {
+                spool.write(data, from, count);
+            } catch (IOException e) {
+                spool.abort();
+                spool = null;
+                head = null;
+                throw e;
+            }
+            spooled += count;
+            System.arraycopy(data, from + count, data, from, end - from - count);
+            end -= count;
+        }
+        if (spooled < bodyLength) {
+            return false;
+        }
+        spool.finish();
+        return true;
+    }
+
+    private boolean isMultipart() {
+        int index = RequestParser.findHeader(data, start, head, Headers.CONTENT_TYPE);
+        if (index < 0) {
+            return false;
+        }
+        String prefix = "multipart/form-data";
+        int valueStart = start + head[index + 2];
+        int valueEnd = start + head[index + 3];
+        return valueEnd - valueStart >= prefix.length()
+                && RequestParser.equalsIgnoreCase(data, valueStart, valueStart + prefix.length(), prefix);
+    }
+
+    private int indexOfHeaderEnd() {
+        for (int i = start; i + 3 < end; i++) {
+            if (data[i] == '\r' && data[i + 1] == '\n' && data[i + 2] == '\r' && data[i + 3] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (end + extra <= data.length) {
+            return;
+        }
+        // Сначала сдвигаем непрочитанные байты в начало, затем при необходимости расширяем массив
+        int length = end - start;
+        byte[] target = length + extra <= data.length ? data : pool.acquire(Math.max(data.length * 2, length + extra));
+        System.arraycopy(data, start, target, 0, length);
+        if (target != data) {
+            pool.release(data);
+        }
+        data = target;
+        start = 0;
+        end = length;
+    }
+}
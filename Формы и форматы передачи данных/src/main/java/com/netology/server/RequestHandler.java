@@ -1,55 +1,419 @@
 package com.netology.server;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
-import java.util.HashMap;
-import java.util.Map;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
 
 public class RequestHandler {
-    private final Map<String, Handler> handlers = new HashMap<>();
+    private final Router router = new Router();
+    private final ServerConfig config;
+    private final int keepAliveTimeoutMillis;
+    private final int maxRequestsPerConnection;
+    private final ResponseCache cache;
+    private final Metrics metrics = new Metrics();
 
+    public RequestHandler() {
+        this(new ServerConfig());
+    }
+
+    public RequestHandler(ServerConfig config) {
+        this.config = config;
+        this.keepAliveTimeoutMillis = config.getKeepAliveTimeoutMillis();
+        this.maxRequestsPerConnection = config.getMaxRequestsPerConnection();
+        this.cache = new ResponseCache(config.getResponseCacheSize());
+        registerMetrics();
+    }
+
+    // Состояние общих компонентов снимается в момент запроса метрик
+    private void registerMetrics() {
+        BufferPool pool = BufferPool.shared();
+        metrics.counter("buffer_pool_hits_total{kind=\"heap\"}", "Buffers taken from the pool.", pool::getHits)
+               .counter("buffer_pool_hits_total{kind=\"direct\"}", "Buffers taken from the pool.", pool::getDirectHits)
+               .counter("buffer_pool_misses_total{kind=\"heap\"}", "Buffers allocated because the pool was empty.", pool::getMisses)
+               .counter("buffer_pool_misses_total{kind=\"direct\"}", "Buffers allocated because the pool was empty.", pool::getDirectMisses)
+               .counter("buffer_pool_recycled_total", "Buffers returned to the pool.", pool::getRecycled)
+               .counter("buffer_pool_dropped_total", "Buffers not returned because the pool was full.", pool::getDropped)
+               .gauge("response_cache_entries", "Cached responses.", cache::size)
+               .gauge("response_cache_bytes", "Approximate size of cached responses.", cache::getBytes)
+               .counter("response_cache_hits_total", "Requests answered from the response cache.", cache::getHits)
+               .counter("response_cache_misses_total", "Cacheable requests passed to the handler.", cache::getMisses)
+               .counter("response_cache_not_modified_total", "Cache hits answered with 304.", cache::getNotModified)
+               .counter("response_cache_evictions_total", "Entries evicted from the response cache.", cache::getEvictions)
+               .gauge("upload_files", "Spooled upload files not yet deleted or moved.", () -> config.getUploadStore().getFiles())
+               .gauge("upload_bytes", "Size of spooled upload files.", () -> config.getUploadStore().getBytes());
+    }
+
+    // Путь может содержать переменные (/messages/{id}) и хвостовой wildcard (/files/*)
     public void addHandler(String method, String path, Handler handler) {
-        String key = method + ":" + path;
-        handlers.put(key, handler);
+        router.add(method, path, handler);
+    }
+
+    // Асинхронный обработчик со сроком ответа из ServerConfig.getAsyncTimeoutMillis()
+    public void addAsyncHandler(String method, String path, AsyncHandler handler) {
+        addAsyncHandler(method, path, handler, config.getAsyncTimeoutMillis());
+    }
+
+    // timeoutMillis - срок ответа для этого маршрута; 0 - без ограничения
+    public void addAsyncHandler(String method, String path, AsyncHandler handler, long timeoutMillis) {
+        router.add(method, path, new AsyncCall.Target(handler, timeoutMillis));
+    }
+
+    // Включает кэш ответов GET для маршрута; vary - заголовки запроса, от которых зависит ответ.
+    // Изменяющий запрос (POST, PUT, PATCH, DELETE) на тот же путь, завершившийся кодом 2xx, сбрасывает его записи
+    public void enableCache(String path, String... vary) {
+        router.route(path).setCacheVary(vary);
+    }
+
+    ResponseCache getCache() {
+        return cache;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
     }
 
     public void handle(Socket socket) throws IOException {
-        try (InputStream inputStream = socket.getInputStream();
-             OutputStream outputStream = socket.getOutputStream()) {
-            
-            // Парсим запрос
-            Request request = Request.fromInputStream(inputStream);
-            Response response = new Response(outputStream);
-            
-            // Ищем обработчик
-            String key = request.getMethod() + ":" + request.getPath();
-            Handler handler = handlers.get(key);
-            
+        handle(socket, null);
+    }
+
+    // contended - ждут ли свободного потока другие соединения (THREAD_POOL); null - поток соединению не нужно уступать
+    void handle(Socket socket, BooleanSupplier contended) throws IOException {
+        metrics.connectionOpened();
+        try (Socket connection = socket;
+             InputStream inputStream = connection.getInputStream();
+             OutputStream outputStream = new BufferedOutputStream(connection.getOutputStream(), 16 * 1024)) {
+
+            // Таймаут простоя между запросами на одном соединении
+            connection.setSoTimeout(keepAliveTimeoutMillis);
+            RequestBuffer buffer = new RequestBuffer(config);
+            ResponseSequencer sequencer = new ResponseSequencer();
+            try {
+                serve(connection, inputStream, outputStream, buffer, sequencer, contended);
+            } finally {
+                // Закрываем файлы ответов, которые не успели уйти клиенту, и возвращаем буферы в пул
+                sequencer.close();
+                buffer.release();
+            }
+        } finally {
+            metrics.connectionClosed();
+        }
+    }
+
+    private void serve(Socket socket, InputStream inputStream, OutputStream outputStream,
+                       RequestBuffer buffer, ResponseSequencer sequencer, BooleanSupplier contended) throws IOException {
+        int served = 0;
+        boolean keepAlive = true;
+        // Потоковый ответ отправляется сразу, если все предыдущие ответы уже ушли. Асинхронный обработчик
+        // пишет из своего потока, поэтому запись в сокет идёт под блокировкой соединения. ReentrantLock, а не
+        // synchronized: виртуальный поток, блокирующийся на записи внутри synchronized, занимает поток-носитель
+        ReentrantLock writeLock = new ReentrantLock();
+        ResponseSequencer.Sink sink = slot -> {
+            writeLock.lock();
+            try {
+                flush(socket, sequencer, outputStream, writeLock);
+                if (sequencer.isHead(slot)) {
+                    slot.writeAvailable(outputStream);
+                    outputStream.flush();
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        };
+
+        while (keepAlive && !sequencer.isClosing()) {
+            // Парсим запрос; в буфере может лежать сразу несколько конвейерных запросов
+            Request request;
+            try {
+                request = buffer.poll();
+            } catch (IOException e) {
+                // Ошибка при разборе запроса
+                ResponseSequencer.Slot slot = sequencer.reserve();
+                Response response = new Response(slot);
+                response.addHeader("Connection", "close");
+                sendBadRequest(response, e);
+                sequencer.complete(slot);
+                break;
+            }
+
+            if (request == null) {
+                // Буфер исчерпан: отправляем накопленные ответы одной пачкой и ждём новых данных
+                flush(socket, sequencer, outputStream, writeLock);
+                try {
+                    boolean idle = contended != null && buffer.isEmpty() && sequencer.isEmpty();
+                    if ((idle ? awaitRequest(socket, inputStream, buffer, contended) : buffer.fill(inputStream)) < 0) {
+                        // Клиент закрыл соединение; незавершённые асинхронные ответы отменятся при закрытии очереди
+                        return;
+                    }
+                } catch (SocketTimeoutException e) {
+                    if (sequencer.isEmpty()) {
+                        break;
+                    }
+                    // Соединение не простаивает, пока асинхронные ответы не готовы
+                }
+                continue;
+            }
+
+            ResponseSequencer.Slot slot = sequencer.reserve();
+            slot.setSink(sink);
+            Response response = new Response(slot);
+            keepAlive = prepareConnection(request, response, ++served);
+            CompletableFuture<Void> pending = dispatchAsync(request, response);
+            if (pending == null) {
+                sequencer.complete(slot);
+                // Потоковый ответ HTTP/1.0 кончается закрытием соединения: следующие запросы не обрабатываем
+                keepAlive &= !slot.isCloseAfter();
+                continue;
+            }
+            // Ответ отправляет поток записи, а не поток, завершивший обработчик: это может быть общий поток
+            // таймаутов или поток приложения, и медленный клиент не должен их задерживать. Ошибка обрывает соединение
+            slot.setPending(pending);
+            pending.whenCompleteAsync((result, error) -> {
+                if (error instanceof CancellationException) {
+                    return;
+                }
+                try {
+                    if (error != null) {
+                        throw new IOException(error);
+                    }
+                    sequencer.complete(slot);
+                    flush(socket, sequencer, outputStream, writeLock);
+                } catch (IOException e) {
+                    closeQuietly(socket);
+                }
+            }, AsyncWriter.INSTANCE);
+        }
+        sequencer.awaitCompleted();
+        flush(socket, sequencer, outputStream, writeLock);
+    }
+
+    // Ожидание следующего запроса на простаивающем соединении. Оно занимает поток пула всё время keep-alive,
+    // и пара сотен молчащих клиентов держала бы очередь допуска непустой, а CoDel отвечал бы 503 простаивающему
+    // серверу. Поэтому ждём короткими отрезками и, как только в очереди кто-то есть, закрываем соединение
+    private int awaitRequest(Socket socket, InputStream inputStream, RequestBuffer buffer,
+                             BooleanSupplier contended) throws IOException {
+        int slice = Math.max(1, config.getQueueDelayTargetMillis());
+        long deadline = keepAliveTimeoutMillis > 0 ? System.currentTimeMillis() + keepAliveTimeoutMillis : Long.MAX_VALUE;
+        socket.setSoTimeout(keepAliveTimeoutMillis > 0 ? Math.min(slice, keepAliveTimeoutMillis) : slice);
+        try {
+            while (true) {
+                try {
+                    return buffer.fill(inputStream);
+                } catch (SocketTimeoutException e) {
+                    long left = deadline - System.currentTimeMillis();
+                    if (left <= 0 || contended.getAsBoolean()) {
+                        throw e;
+                    }
+                    socket.setSoTimeout((int) Math.min(slice, left));
+                }
+            }
+        } finally {
+            // Тело запроса и конвейерные запросы читаются с обычным таймаутом
+            socket.setSoTimeout(keepAliveTimeoutMillis);
+        }
+    }
+
+    private void flush(Socket socket, ResponseSequencer sequencer, OutputStream outputStream,
+                       ReentrantLock writeLock) throws IOException {
+        writeLock.lock();
+        try {
+            ResponseSequencer.Slot slot;
+            while ((slot = sequencer.poll()) != null) {
+                slot.writeTo(outputStream);
+            }
+            outputStream.flush();
+            if (sequencer.isClosing() && !socket.isOutputShutdown()) {
+                // Конец тела без длины: клиент узнаёт его по закрытию соединения, даже если поток соединения
+                // ещё ждёт следующий запрос
+                socket.shutdownOutput();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Соединение уже закрыто
+        }
+    }
+
+    // Решает, оставить ли соединение открытым после ответа, и проставляет заголовок Connection
+    boolean prepareConnection(Request request, Response response, int served) {
+        boolean keepAlive = served < maxRequestsPerConnection && request.isKeepAlive();
+        response.setHttp10("HTTP/1.0".equals(request.getProtocol()));
+        response.addHeader("Connection", keepAlive ? "keep-alive" : "close");
+        return keepAlive;
+    }
+
+    ServerConfig getConfig() {
+        return config;
+    }
+
+    int getKeepAliveTimeoutMillis() {
+        return keepAliveTimeoutMillis;
+    }
+
+    // Передаёт полностью разобранный запрос зарегистрированному обработчику и дожидается ответа
+    public void dispatch(Request request, Response response) throws IOException {
+        CompletableFuture<Void> pending = dispatchAsync(request, response);
+        if (pending != null) {
+            await(pending);
+        }
+    }
+
+    // То же без ожидания: null, если ответ уже записан, иначе future асинхронного обработчика.
+    // Она завершается, когда ответ записан (или заменён ответом 503 по таймауту); исключение в ней значит,
+    // что ответ оборван и соединение нужно закрыть. Транспорт отменяет её, если соединение закрылось раньше
+    CompletableFuture<Void> dispatchAsync(Request request, Response response) throws IOException {
+        if (config.isCompressionEnabled()) {
+            response.setCompression(request.getHeader(Headers.ACCEPT_ENCODING), config.getCompressionMinSize());
+        }
+        long start = System.nanoTime();
+        metrics.requestStarted();
+        // Ищем обработчик
+        Router.Route route = router.find(request.getPath());
+        Handler handler = route != null ? route.handler(request.getMethod()) : null;
+        CompletableFuture<Void> pending = null;
+
+        try {
             if (handler != null) {
+                if (route.hasParams()) {
+                    request.setPathParams(route.extractParams(request.getPath()));
+                }
                 try {
-                    handler.handle(request, response);
+                    String[] vary = route.cacheVary();
+                    if (vary != null && cacheable(request, response, vary)) {
+                        return null;
+                    }
+                    if (handler instanceof AsyncCall.Target) {
+                        pending = new AsyncCall(this, route, request, response, start).start((AsyncCall.Target) handler);
+                    } else {
+                        handler.handle(request, response);
+                        completed(route, request, response);
+                    }
                 } catch (Exception e) {
-                    e.printStackTrace();
-                    response.setStatus(500, "Internal Server Error")
-                           .setBody("Internal Server Error: " + e.getMessage())
-                           .send();
+                    failed(response, e);
                 }
+            } else if (route != null) {
+                // Путь существует, но метод не поддерживается
+                response.setStatus(405, "Method Not Allowed")
+                       .addHeader("Allow", route.allow())
+                       .setBody("Method " + request.getMethod() + " not allowed for " + request.getPath())
+                       .send();
             } else {
                 // Обработчик не найден
                 response.setStatus(404, "Not Found")
                        .setBody("Handler not found for " + request.getMethod() + " " + request.getPath())
                        .send();
             }
-        } catch (IOException e) {
-            // Ошибка при обработке запроса
-            try (OutputStream outputStream = socket.getOutputStream()) {
-                Response response = new Response(outputStream);
-                response.setStatus(400, "Bad Request")
-                       .setBody("Bad Request: " + e.getMessage())
-                       .send();
+        } finally {
+            // Асинхронный вызов завершает запрос сам, когда ответ готов
+            if (pending == null) {
+                finished(route, request, response.getStatusCode(), start);
             }
         }
+        if (pending != null && pending.isDone()) {
+            // Обработчик ответил, не отпуская поток
+            await(pending);
+            return null;
+        }
+        return pending;
+    }
+
+    // Обработчик завершился: дописываем потоковый ответ и сбрасываем кэш пути после успешного изменения
+    void completed(Router.Route route, Request request, Response response) throws IOException {
+        response.finish();
+        if (route.cacheVary() != null && isModifying(request.getMethod())
+                && response.getStatusCode() >= 200 && response.getStatusCode() < 300) {
+            cache.invalidate(request.getPath());
+        }
+    }
+
+    void failed(Response response, Throwable e) throws IOException {
+        e.printStackTrace();
+        if (response.isCommitted()) {
+            // Часть потокового ответа уже ушла: оборвать соединение - единственный способ сообщить об ошибке
+            throw new IOException("Handler failed after response was committed", e);
+        }
+        response.setStatus(500, "Internal Server Error")
+               .setBody("Internal Server Error: " + e.getMessage())
+               .send();
+    }
+
+    void finished(Router.Route route, Request request, int status, long start) {
+        metrics.requestFinished(route != null ? route.pattern() : null, request.getMethod(), status, System.nanoTime() - start);
+        request.cleanup();
+    }
+
+    // Ждёт ответ асинхронного обработчика; ошибку обработчика переводит в IOException
+    static void await(CompletableFuture<?> pending) throws IOException {
+        try {
+            pending.join();
+        } catch (CancellationException e) {
+            throw new IOException("Request was cancelled", e);
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    // Для GET отвечает из кэша и возвращает true; при промахе поручает ответу сохранить себя в кэш
+    private boolean cacheable(Request request, Response response, String[] vary) throws IOException {
+        if (!"GET".equals(request.getMethod())) {
+            return false;
+        }
+        String key = ResponseCache.key(request, vary, response.getCompressionEncoding());
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        ResponseCache.Entry entry = cache.get(key, request.getPath());
+        if (entry == null) {
+            response.setRecorder(cache.recorder(key, request.getPath(), ifNoneMatch));
+            return false;
+        }
+        if (ResponseCache.matches(ifNoneMatch, entry.etag)) {
+            cache.countNotModified();
+            response.sendNotModified(entry.etag);
+        } else {
+            response.sendCached(entry);
+        }
+        return true;
+    }
+
+    private static boolean isModifying(String method) {
+        return method.equals("POST") || method.equals("PUT") || method.equals("PATCH") || method.equals("DELETE");
+    }
+
+    void sendBadRequest(Response response, IOException e) throws IOException {
+        if (e instanceof HttpException) {
+            HttpException error = (HttpException) e;
+            response.setStatus(error.getStatusCode(), error.getStatusText())
+                   .setBody(error.getStatusText() + ": " + e.getMessage())
+                   .send();
+            return;
+        }
+        response.setStatus(400, "Bad Request")
+               .setBody("Bad Request: " + e.getMessage())
+               .send();
+    }
+
+    // Потоки, дописывающие в сокет ответы асинхронных обработчиков в блокирующих режимах. Поток занят, только пока
+    // клиент не принял ответ, поэтому пул без ограничения: зависший клиент держит один поток, а не чужие таймауты
+    private static final class AsyncWriter {
+        private static final ExecutorService INSTANCE = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "async-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
-} 
\ No newline at end of file
+}
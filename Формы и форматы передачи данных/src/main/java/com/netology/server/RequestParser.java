@@ -0,0 +1,200 @@
+package com.netology.server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Байтовый разбор стартовой строки и заголовков HTTP/1.1.
+// Парсер не создаёт строк: он только записывает смещения частей запроса в массив int,
+// а Request превращает их в String при первом обращении.
+final class RequestParser {
+    static final int METHOD_START = 0;
+    static final int METHOD_END = 1;
+    static final int TARGET_START = 2;
+    static final int TARGET_END = 3;
+    static final int PROTOCOL_START = 4;
+    static final int PROTOCOL_END = 5;
+    // Далее по 4 числа на заголовок: начало и конец имени, начало и конец значения
+    static final int HEADERS = 6;
+
+    private static final String[] KNOWN_METHODS = {"GET", "POST", "PUT", "DELETE", "HEAD", "OPTIONS", "PATCH"};
+    private static final String[] KNOWN_PROTOCOLS = {"HTTP/1.1", "HTTP/1.0"};
+
+    private int[] scratch = new int[HEADERS + 4 * 16];
+
+    // Разбирает заголовок запроса data[from, headerEnd), где headerEnd указывает на завершающий \r\n\r\n.
+    // Смещения в результате отсчитываются от from
+    int[] parseHead(byte[] data, int from, int headerEnd) throws IOException {
+        int lineEnd = indexOfLineEnd(data, from, headerEnd);
+        parseRequestLine(data, from, lineEnd);
+
+        int count = HEADERS;
+        int lineStart = lineEnd + 2;
+        while (lineStart < headerEnd) {
+            lineEnd = indexOfLineEnd(data, lineStart, headerEnd);
+            int colon = indexOf(data, lineStart, lineEnd, (byte) ':');
+            // Строки без двоеточия пропускаем, как и раньше
+            if (colon > lineStart) {
+                if (count + 4 > scratch.length) {
+                    scratch = Arrays.copyOf(scratch, scratch.length * 2);
+                }
+                int valueStart = skipSpaces(data, colon + 1, lineEnd);
+                scratch[count] = skipSpaces(data, lineStart, colon) - from;
+                scratch[count + 1] = trimEnd(data, lineStart, colon) - from;
+                scratch[count + 2] = valueStart - from;
+                scratch[count + 3] = trimEnd(data, valueStart, lineEnd) - from;
+                count += 4;
+            }
+            lineStart = lineEnd + 2;
+        }
+
+        for (int i = 0; i < HEADERS; i++) {
+            scratch[i] -= from;
+        }
+        return Arrays.copyOf(scratch, count);
+    }
+
+    private void parseRequestLine(byte[] data, int from, int to) throws IOException {
+        int firstSpace = indexOf(data, from, to, (byte) ' ');
+        int secondSpace = firstSpace < 0 ? -1 : indexOf(data, firstSpace + 1, to, (byte) ' ');
+        if (firstSpace <= from || secondSpace <= firstSpace + 1 || secondSpace + 1 >= to
+                || indexOf(data, secondSpace + 1, to, (byte) ' ') >= 0) {
+            throw new IOException("Invalid request line: " + new String(data, from, to - from, StandardCharsets.UTF_8));
+        }
+        scratch[METHOD_START] = from;
+        scratch[METHOD_END] = firstSpace;
+        scratch[TARGET_START] = firstSpace + 1;
+        scratch[TARGET_END] = secondSpace;
+        scratch[PROTOCOL_START] = secondSpace + 1;
+        scratch[PROTOCOL_END] = to;
+    }
+
+    static int headerCount(int[] offsets) {
+        return (offsets.length - HEADERS) / 4;
+    }
+
+    // Длина тела по заголовкам. Границу запроса определяет только Content-Length: тело с Transfer-Encoding
+    // не поддерживается, и такой запрос, как и разные значения Content-Length, отклоняется. Иначе прокси перед
+    // сервером и сам сервер могут по-разному понять, где кончается запрос (request smuggling)
+    static int contentLength(byte[] data, int from, int[] offsets) throws IOException {
+        int length = -1;
+        for (int i = HEADERS; i < offsets.length; i += 4) {
+            int nameStart = from + offsets[i];
+            int nameEnd = from + offsets[i + 1];
+            if (equalsIgnoreCase(data, nameStart, nameEnd, "Transfer-Encoding")) {
+                throw new HttpException(501, "Not Implemented", "Transfer-Encoding is not supported");
+            }
+            if (equalsIgnoreCase(data, nameStart, nameEnd, "Content-Length")) {
+                int value = parseLength(data, from + offsets[i + 2], from + offsets[i + 3]);
+                if (length >= 0 && value != length) {
+                    throw new IOException("Conflicting Content-Length headers");
+                }
+                length = value;
+            }
+        }
+        return Math.max(length, 0);
+    }
+
+    private static int parseLength(byte[] data, int start, int end) throws IOException {
+        if (start == end || end - start > 9) {
+            throw new IOException("Invalid Content-Length: " + new String(data, start, end - start, StandardCharsets.US_ASCII));
+        }
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IOException("Invalid Content-Length: " + new String(data, start, end - start, StandardCharsets.US_ASCII));
+            }
+            length = length * 10 + digit;
+        }
+        return length;
+    }
+
+    // Индекс заголовка с заданным именем (без учёта регистра) или -1
+    static int findHeader(byte[] data, int from, int[] offsets, String name) {
+        for (int i = HEADERS; i < offsets.length; i += 4) {
+            if (equalsIgnoreCase(data, from + offsets[i], from + offsets[i + 1], name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static String method(byte[] raw, int[] offsets) {
+        return intern(raw, offsets[METHOD_START], offsets[METHOD_END], KNOWN_METHODS);
+    }
+
+    static String protocol(byte[] raw, int[] offsets) {
+        return intern(raw, offsets[PROTOCOL_START], offsets[PROTOCOL_END], KNOWN_PROTOCOLS);
+    }
+
+    // Для частых значений возвращаем константу, чтобы не создавать новую строку на каждый запрос
+    private static String intern(byte[] raw, int start, int end, String[] known) {
+        for (String candidate : known) {
+            if (equals(raw, start, end, candidate)) {
+                return candidate;
+            }
+        }
+        return new String(raw, start, end - start, StandardCharsets.US_ASCII);
+    }
+
+    static boolean equals(byte[] raw, int start, int end, String value) {
+        if (end - start != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (raw[start + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean equalsIgnoreCase(byte[] raw, int start, int end, String value) {
+        if (end - start != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (toLowerCase(raw[start + i]) != toLowerCase(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int toLowerCase(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    static int indexOf(byte[] data, int from, int to, byte value) {
+        for (int i = from; i < to; i++) {
+            if (data[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOfLineEnd(byte[] data, int from, int to) {
+        for (int i = from; i + 1 < to; i++) {
+            if (data[i] == '\r' && data[i + 1] == '\n') {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    private static int skipSpaces(byte[] data, int from, int to) {
+        while (from < to && (data[from] == ' ' || data[from] == '\t')) {
+            from++;
+        }
+        return from;
+    }
+
+    private static int trimEnd(byte[] data, int from, int to) {
+        while (to > from && (data[to - 1] == ' ' || data[to - 1] == '\t')) {
+            to--;
+        }
+        return to;
+    }
+}
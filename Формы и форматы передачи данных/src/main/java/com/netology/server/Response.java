@@ -2,14 +2,55 @@ package com.netology.server;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 
 public class Response {
+    private static final byte[] EMPTY = new byte[0];
+    private static final BufferPool POOL = BufferPool.shared();
+
     private final OutputStream outputStream;
     private int statusCode = 200;
     private String statusText = "OK";
     private final StringBuilder headers = new StringBuilder();
-    private final StringBuilder body = new StringBuilder();
+    private boolean hasContentType;
+    private boolean hasContentLength;
+    private boolean hasContentEncoding;
+    private String contentType = "text/plain; charset=utf-8";
+
+    // Сжатие: включено ли оно на сервере, выбранная по Accept-Encoding кодировка (или null) и минимальный размер тела
+    private boolean compressionEnabled;
+    private String compressionEncoding;
+    private int compressionMinSize;
+
+    // Тело хранится в одном из видов: массив байтов, ByteBuffer (в том числе direct), участок файла или JsonWriter
+    private byte[] body = EMPTY;
+    private int bodyOffset;
+    private int bodyLength;
+    // body взят из BufferPool и должен вернуться туда после отправки
+    private boolean bodyPooled;
+    private ByteBuffer bodyBuffer;
+    private FileRegion bodyFile;
+    private JsonWriter json;
+    // Потоковое тело (chunked); после stream() заголовок уже отправлен
+    private ChunkedOutputStream stream;
+    // То, что получает обработчик: сам stream или сжимающая обёртка над ним
+    private OutputStream streamView;
+    // Кэшируемый маршрут: отправленное тело сохраняется в ResponseCache
+    private ResponseCache.Recorder recorder;
+    // Значение заголовка Connection, проставленное сервером; нужно ответу, который отправляется вместо этого
+    private String connection;
+    // Запрос HTTP/1.0: клиент не понимает chunked, потоковое тело идёт как есть до закрытия соединения
+    private boolean http10;
+    // Асинхронный ответ: sent - обработчик отправил ответ, expired - отправлять уже поздно (таймаут или отключение клиента).
+    // Обработчик может работать в другом потоке, поэтому send(), stream() и expire() синхронизированы
+    private boolean sent;
+    private boolean expired;
 
     public Response(OutputStream outputStream) {
         this.outputStream = outputStream;
@@ -23,44 +64,453 @@ public class Response {
 
     public Response addHeader(String name, String value) {
         headers.append(name).append(": ").append(value).append("\r\n");
+        if (name.equalsIgnoreCase(Headers.CONTENT_TYPE)) {
+            hasContentType = true;
+            contentType = value;
+        } else if (name.equalsIgnoreCase(Headers.CONTENT_LENGTH)) {
+            hasContentLength = true;
+        } else if (name.equalsIgnoreCase("Content-Encoding")) {
+            hasContentEncoding = true;
+        } else if (name.equalsIgnoreCase("Connection")) {
+            connection = value;
+        }
         return this;
     }
 
+    // Вызывается сервером перед обработчиком; acceptEncoding - заголовок Accept-Encoding запроса
+    void setCompression(String acceptEncoding, int minSize) {
+        this.compressionEnabled = true;
+        this.compressionEncoding = Compression.negotiate(acceptEncoding);
+        this.compressionMinSize = minSize;
+    }
+
+    void setHttp10(boolean http10) {
+        this.http10 = http10;
+    }
+
+    // Задаётся сервером перед обработчиком кэшируемого маршрута
+    void setRecorder(ResponseCache.Recorder recorder) {
+        this.recorder = recorder;
+    }
+
+    // Кодировка сжатия, выбранная для этого ответа, или null
+    String getCompressionEncoding() {
+        return compressionEnabled ? compressionEncoding : null;
+    }
+
+    int getStatusCode() {
+        return statusCode;
+    }
+
+    // Ответ из кэша: заголовки и тело уже закодированы (и сжаты), повторно сжимать нечего
+    void sendCached(ResponseCache.Entry entry) throws IOException {
+        compressionEnabled = false;
+        setStatus(entry.statusCode, entry.statusText);
+        for (int i = 0; i < entry.headers.length; i += 2) {
+            addHeader(entry.headers[i], entry.headers[i + 1]);
+        }
+        setBody(entry.body);
+        send();
+    }
+
+    void sendNotModified(String etag) throws IOException {
+        compressionEnabled = false;
+        setStatus(304, "Not Modified").addHeader("ETag", etag);
+        send();
+    }
+
     public Response setBody(String body) {
-        this.body.setLength(0);
-        this.body.append(body);
-        return this;
+        return setBody(body.getBytes(StandardCharsets.UTF_8));
     }
 
+    // Массив не копируется: его нельзя менять до отправки ответа
     public Response setBody(byte[] body) {
-        this.body.setLength(0);
-        this.body.append(new String(body, StandardCharsets.UTF_8));
+        return setBody(body, 0, body.length);
+    }
+
+    public Response setBody(byte[] body, int offset, int length) {
+        clearBody();
+        this.body = body;
+        this.bodyOffset = offset;
+        this.bodyLength = length;
+        return this;
+    }
+
+    // Отправляются байты от position до limit; буфер не копируется
+    public Response setBody(ByteBuffer body) {
+        clearBody();
+        this.bodyBuffer = body.slice();
         return this;
     }
 
-    public void send() throws IOException {
-        // Формируем ответ
-        StringBuilder response = new StringBuilder();
-        response.append("HTTP/1.1 ").append(statusCode).append(" ").append(statusText).append("\r\n");
-        
-        // Добавляем заголовки
-        if (!headers.toString().contains("Content-Type")) {
-            headers.insert(0, "Content-Type: text/plain; charset=utf-8\r\n");
+    // JSON-тело, которое пишется сразу в байтовый буфер ответа; после заполнения вызовите send()
+    public JsonWriter json() {
+        return json(false);
+    }
+
+    public JsonWriter json(boolean pretty) {
+        clearBody();
+        if (!hasContentType) {
+            addHeader(Headers.CONTENT_TYPE, "application/json; charset=utf-8");
+        }
+        json = new JsonWriter(pretty);
+        return json;
+    }
+
+    // Отправляет файл без чтения в кучу: в режиме NIO через FileChannel.transferTo прямо в сокет
+    public void sendFile(Path file) throws IOException {
+        String contentType = Files.probeContentType(file);
+        sendFile(file, contentType != null ? contentType : "application/octet-stream");
+    }
+
+    public void sendFile(Path file, String contentType) throws IOException {
+        clearBody();
+        bodyFile = FileRegion.open(file);
+        if (!hasContentType) {
+            addHeader(Headers.CONTENT_TYPE, contentType);
+        }
+        send();
+    }
+
+    // Отправляет содержимое загруженной части; часть, сброшенная на диск, отдаётся как файл
+    public void sendPart(Part part) throws IOException {
+        if (part.isInMemory()) {
+            if (!hasContentType) {
+                addHeader(Headers.CONTENT_TYPE, part.getContentType());
+            }
+            setBody(part.getContent());
+            send();
+        } else {
+            // Канал открывается сразу, поэтому удаление временного файла после обработки запроса
+            // не мешает дослать его содержимое
+            sendFile(part.getPath(), part.getContentType());
+        }
+    }
+
+    public synchronized void send() throws IOException {
+        if (stream != null) {
+            throw new IllegalStateException("Response is already streaming");
+        }
+        try {
+            checkExpired();
+            compressBody();
+            if (recorder != null) {
+                record();
+            }
+            writeHead(bodyLength(), false);
+            writeBody();
+            outputStream.flush();
+            sent = true;
+        } finally {
+            clearBody();
+        }
+    }
+
+    // Потоковый ответ с Transfer-Encoding: chunked: заголовок уходит сразу, тело пишется по мере готовности.
+    // В памяти держится не больше буфера и одной порции неотправленных чанков; flush() отправляет записанное клиенту.
+    // Клиенту HTTP/1.0 тело уходит без chunked и без длины, а конец ответа отмечает закрытие соединения
+    public OutputStream stream() throws IOException {
+        return stream(ChunkedOutputStream.DEFAULT_BUFFER_SIZE);
+    }
+
+    public synchronized OutputStream stream(int bufferSize) throws IOException {
+        if (stream == null) {
+            clearBody();
+            checkExpired();
+            boolean compress = negotiateCompression();
+            if (http10) {
+                closeConnection();
+            }
+            writeHead(-1, !http10);
+            stream = new ChunkedOutputStream(outputStream, bufferSize, this::push, !http10);
+            streamView = compress ? Compression.compressingStream(compressionEncoding, stream) : stream;
+        }
+        return streamView;
+    }
+
+    public WritableByteChannel streamChannel() throws IOException {
+        return Channels.newChannel(stream());
+    }
+
+    // Заголовок ответа уже ушёл, отправить другой ответ нельзя
+    public synchronized boolean isCommitted() {
+        return stream != null;
+    }
+
+    // Завершает потоковый ответ, если обработчик не закрыл поток сам
+    void finish() throws IOException {
+        if (stream != null) {
+            streamView.close();
+        }
+    }
+
+    // Срок асинхронного ответа истёк: вместо него отправляется ответ сервера, а обработчику отправлять свой уже нельзя.
+    // false, если обработчик успел отправить ответ или начать потоковый
+    synchronized boolean expire(int statusCode, String statusText, String message) throws IOException {
+        if (sent || stream != null) {
+            return false;
+        }
+        expired = true;
+        // Тело обработчика не трогаем: он может заполнять его прямо сейчас и освободит при своём send()
+        Response replacement = new Response(outputStream).setStatus(statusCode, statusText);
+        if (connection != null) {
+            replacement.addHeader("Connection", connection);
+        }
+        replacement.setBody(message).send();
+        return true;
+    }
+
+    // Клиент отключился: ответ больше никто не ждёт
+    synchronized void abandon() {
+        expired = true;
+    }
+
+    // Соединение закроется после этого ответа: заголовок Connection меняется на close,
+    // а ответы на следующие конвейерные запросы отправлены не будут
+    private void closeConnection() {
+        if (connection == null) {
+            addHeader("Connection", "close");
+        } else if (!connection.equalsIgnoreCase("close")) {
+            String current = "Connection: " + connection + "\r\n";
+            int index = headers.indexOf(current);
+            headers.replace(index, index + current.length(), "Connection: close\r\n");
+            connection = "close";
+        }
+        if (outputStream instanceof ResponseSequencer.Slot) {
+            ((ResponseSequencer.Slot) outputStream).closeAfter();
+        }
+    }
+
+    private void checkExpired() throws IOException {
+        if (expired) {
+            throw new IOException("Response is no longer expected: request timed out or client disconnected");
+        }
+    }
+
+    private void push() throws IOException {
+        if (outputStream instanceof ResponseSequencer.Slot) {
+            ((ResponseSequencer.Slot) outputStream).push();
+        } else {
+            outputStream.flush();
+        }
+    }
+
+    private void writeHead(long length, boolean chunked) throws IOException {
+        // Заголовок кодируется прямо в массив из пула, без промежуточных строк; символ UTF-8 занимает не больше 3 байт
+        byte[] head = POOL.acquire(128 + 3 * (statusText.length() + headers.length()));
+        try {
+            int size = put(head, 0, "HTTP/1.1 ");
+            size = put(head, size, statusCode);
+            head[size++] = ' ';
+            size = put(head, size, statusText);
+            size = put(head, size, "\r\n");
+            // У 1xx, 204 и 304 тела нет, и Content-Length им не положен
+            boolean bodiless = statusCode < 200 || statusCode == 204 || statusCode == 304;
+            if (chunked) {
+                size = put(head, size, "Transfer-Encoding: chunked\r\n");
+            } else if (!hasContentLength && !bodiless && length >= 0) {
+                // Длина тела считается в байтах, иначе при keep-alive клиент неверно найдёт границу ответа
+                size = put(head, size, "Content-Length: ");
+                size = put(head, size, length);
+                size = put(head, size, "\r\n");
+            }
+            if (!hasContentType && !bodiless) {
+                size = put(head, size, "Content-Type: text/plain; charset=utf-8\r\n");
+            }
+            size = put(head, size, headers);
+            // Пустая строка между заголовками и телом
+            size = put(head, size, "\r\n");
+            outputStream.write(head, 0, size);
+        } finally {
+            POOL.release(head);
+        }
+    }
+
+    private static int put(byte[] out, int at, CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                out[at++] = (byte) c;
+            } else if (c < 0x800) {
+                out[at++] = (byte) (0xc0 | (c >> 6));
+                out[at++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                out[at++] = (byte) (0xf0 | (codePoint >> 18));
+                out[at++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                out[at++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                out[at++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                out[at++] = '?';
+            } else {
+                out[at++] = (byte) (0xe0 | (c >> 12));
+                out[at++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                out[at++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        return at;
+    }
+
+    private static int put(byte[] out, int at, long number) {
+        if (number < 0) {
+            out[at++] = '-';
+            number = -number;
+        }
+        int digits = 1;
+        for (long rest = number / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = at + digits - 1; i >= at; i--) {
+            out[i] = (byte) ('0' + number % 10);
+            number /= 10;
+        }
+        return at + digits;
+    }
+
+    // Сохраняет готовое тело в кэш и проставляет ETag. Кэшируются только ответы 200 с телом в куче;
+    // если ETag совпал с If-None-Match клиента, вместо тела уходит 304
+    private void record() {
+        ResponseCache.Recorder current = recorder;
+        recorder = null;
+        if (statusCode != 200 || bodyFile != null || (bodyBuffer != null && !bodyBuffer.hasArray())) {
+            return;
+        }
+        byte[] source;
+        int offset;
+        int length;
+        if (json != null) {
+            source = json.buffer();
+            offset = 0;
+            length = json.size();
+        } else if (bodyBuffer != null) {
+            source = bodyBuffer.array();
+            offset = bodyBuffer.arrayOffset() + bodyBuffer.position();
+            length = bodyBuffer.remaining();
+        } else {
+            source = body;
+            offset = bodyOffset;
+            length = bodyLength;
+        }
+        String etag = ResponseCache.etag(source, offset, length);
+        addHeader("ETag", etag);
+        // Буферы тела могут вернуться в пул, поэтому в кэш идёт копия
+        current.store(statusCode, statusText, headers, Arrays.copyOfRange(source, offset, offset + length), etag);
+        if (current.isNotModified(etag)) {
+            clearBody();
+            setStatus(304, "Not Modified");
+        }
+    }
+
+    // Сжимает тело в памяти, если клиент это поддерживает. Файлы и direct-буферы не сжимаются:
+    // для них важнее отправка без копирования в кучу
+    private void compressBody() throws IOException {
+        if (bodyFile != null || (bodyBuffer != null && !bodyBuffer.hasArray()) || bodyLength() < compressionMinSize) {
+            if (compressionEnabled && !hasContentEncoding && Compression.isCompressible(contentType)) {
+                addHeader("Vary", Headers.ACCEPT_ENCODING);
+            }
+            return;
+        }
+        if (!negotiateCompression()) {
+            return;
+        }
+
+        byte[] source;
+        int offset;
+        int length;
+        if (json != null) {
+            source = json.buffer();
+            offset = 0;
+            length = json.size();
+        } else if (bodyBuffer != null) {
+            source = bodyBuffer.array();
+            offset = bodyBuffer.arrayOffset() + bodyBuffer.position();
+            length = bodyBuffer.remaining();
+        } else {
+            source = body;
+            offset = bodyOffset;
+            length = bodyLength;
+        }
+        int[] compressedLength = new int[1];
+        byte[] compressed = Compression.compress(compressionEncoding, source, offset, length, compressedLength);
+        setBody(compressed, 0, compressedLength[0]);
+        bodyPooled = true;
+    }
+
+    // Проставляет Vary и Content-Encoding; true, если тело нужно сжимать
+    private boolean negotiateCompression() {
+        if (!compressionEnabled || hasContentEncoding || hasContentLength || !Compression.isCompressible(contentType)) {
+            return false;
+        }
+        // Ответ зависит от Accept-Encoding, даже если этот клиент сжатие не поддерживает
+        addHeader("Vary", Headers.ACCEPT_ENCODING);
+        if (compressionEncoding == null) {
+            return false;
+        }
+        addHeader("Content-Encoding", compressionEncoding);
+        return true;
+    }
+
+    private long bodyLength() {
+        if (json != null) {
+            return json.size();
+        }
+        if (bodyBuffer != null) {
+            return bodyBuffer.remaining();
+        }
+        if (bodyFile != null) {
+            return bodyFile.remaining();
+        }
+        return bodyLength;
+    }
+
+    private void writeBody() throws IOException {
+        if (outputStream instanceof ResponseSequencer.Slot) {
+            // Тело прикладывается к ответу без копирования и уходит в сокет при отправке очереди;
+            // массивы из пула слот вернёт туда сам после отправки
+            ResponseSequencer.Slot slot = (ResponseSequencer.Slot) outputStream;
+            if (json != null) {
+                int size = json.size();
+                slot.attachPooled(json.detach(), size);
+                json = null;
+            } else if (bodyFile != null) {
+                slot.attach(bodyFile);
+                bodyFile = null;
+            } else if (bodyBuffer != null) {
+                slot.attach(bodyBuffer);
+            } else if (bodyPooled) {
+                slot.attachPooled(body, bodyLength);
+                bodyPooled = false;
+            } else if (bodyLength > 0) {
+                slot.attach(ByteBuffer.wrap(body, bodyOffset, bodyLength));
+            }
+        } else if (json != null) {
+            outputStream.write(json.buffer(), 0, json.size());
+        } else if (bodyFile != null) {
+            bodyFile.transferFully(Channels.newChannel(outputStream));
+        } else if (bodyBuffer != null) {
+            Channels.newChannel(outputStream).write(bodyBuffer.duplicate());
+        } else {
+            outputStream.write(body, bodyOffset, bodyLength);
+        }
+    }
+
+    private void clearBody() {
+        if (json != null) {
+            json.release();
+            json = null;
+        }
+        if (bodyFile != null) {
+            bodyFile.close();
+            bodyFile = null;
         }
-        if (!headers.toString().contains("Content-Length")) {
-            headers.insert(0, "Content-Length: " + body.length() + "\r\n");
+        if (bodyPooled) {
+            POOL.release(body);
+            bodyPooled = false;
         }
-        response.append(headers);
-        
-        // Добавляем пустую строку между заголовками и телом
-        response.append("\r\n");
-        
-        // Добавляем тело ответа
-        response.append(body);
-        
-        // Отправляем ответ
-        outputStream.write(response.toString().getBytes(StandardCharsets.UTF_8));
-        outputStream.flush();
+        bodyBuffer = null;
+        body = EMPTY;
+        bodyOffset = 0;
+        bodyLength = 0;
     }
 
     public void sendJson(String json) throws IOException {
@@ -80,4 +530,4 @@ public class Response {
         setBody(text);
         send();
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,255 @@
+package com.netology.server;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Кэш готовых ответов GET для маршрутов, где он включён (RequestHandler.enableCache).
+// Ключ - путь, query string с отсортированными параметрами, выбранные заголовки запроса и кодировка сжатия;
+// хранятся уже закодированные (и сжатые) байты тела, так что попадание не вызывает ни обработчик, ни сериализацию.
+// Объём ограничен суммарным размером записей, при переполнении вытесняются давно не использованные (LRU).
+// Успешный POST (и другие изменяющие методы) на тот же путь делает все его записи устаревшими
+final class ResponseCache {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    // Примерные накладные расходы на запись сверх тела и ключа
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+    // Поколение пути растёт при каждом изменении ресурса; записи старых поколений считаются промахом.
+    // Так ответ, вычисленный до POST, не попадёт в кэш после него
+    private final Map<String, Long> generations = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder notModified = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    ResponseCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    static String key(Request request, String[] vary, String encoding) {
+        StringBuilder key = new StringBuilder(request.getPath()).append('?');
+        String query = request.getQueryString();
+        if (query != null && !query.isEmpty()) {
+            // Порядок параметров на ответ не влияет: ?a=1&b=2 и ?b=2&a=1 - одна запись
+            String[] params = query.split("&");
+            Arrays.sort(params);
+            for (String param : params) {
+                if (!param.isEmpty()) {
+                    key.append(param).append('&');
+                }
+            }
+        }
+        for (String header : vary) {
+            String value = request.getHeader(header);
+            key.append('\n').append(value != null ? value : "");
+        }
+        return key.append('\n').append(encoding != null ? encoding : "").toString();
+    }
+
+    // Запись для ключа или null; устаревшая запись удаляется
+    Entry get(String key, String path) {
+        long generation = generation(path);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.generation == generation) {
+                hits.increment();
+                return entry;
+            }
+            if (entry != null) {
+                remove(key);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    // Запоминает поколение пути до вызова обработчика
+    Recorder recorder(String key, String path, String ifNoneMatch) {
+        return new Recorder(key, path, generation(path), ifNoneMatch);
+    }
+
+    void invalidate(String path) {
+        generations.merge(path, 1L, Long::sum);
+    }
+
+    void countNotModified() {
+        notModified.increment();
+    }
+
+    private long generation(String path) {
+        Long generation = generations.get(path);
+        return generation != null ? generation : 0;
+    }
+
+    private void put(String key, Entry entry) {
+        synchronized (this) {
+            if (generation(entry.path) != entry.generation) {
+                return;
+            }
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                bytes -= previous.size;
+            }
+            bytes += entry.size;
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= eldest.next().getValue().size;
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    private void remove(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            bytes -= removed.size;
+        }
+    }
+
+    // Сравнение для If-None-Match: список тегов через запятую или *, слабые теги (W/) сравниваются по значению
+    static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Сильный ETag - хэш байтов тела в том виде, в каком они уходят клиенту
+    static String etag(byte[] body, int offset, int length) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(body, offset, length);
+            byte[] hash = digest.digest();
+            char[] tag = new char[34];
+            tag[0] = '"';
+            for (int i = 0; i < 16; i++) {
+                tag[1 + 2 * i] = HEX[(hash[i] >> 4) & 0xf];
+                tag[2 + 2 * i] = HEX[hash[i] & 0xf];
+            }
+            tag[33] = '"';
+            return new String(tag);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    long getNotModified() {
+        return notModified.sum();
+    }
+
+    long getEvictions() {
+        return evictions.sum();
+    }
+
+    // Закодированный ответ: статус, заголовки (без Connection) и тело; не изменяется после создания
+    static final class Entry {
+        final int statusCode;
+        final String statusText;
+        final String[] headers;
+        final byte[] body;
+        final String etag;
+        private final String path;
+        private final long generation;
+        private final long size;
+
+        private Entry(int statusCode, String statusText, String[] headers, byte[] body, String etag,
+                      String path, long generation, long size) {
+            this.statusCode = statusCode;
+            this.statusText = statusText;
+            this.headers = headers;
+            this.body = body;
+            this.etag = etag;
+            this.path = path;
+            this.generation = generation;
+            this.size = size;
+        }
+    }
+
+    // Сохраняет ответ промаха, когда обработчик его отправляет
+    final class Recorder {
+        private final String key;
+        private final String path;
+        private final long generation;
+        private final String ifNoneMatch;
+
+        private Recorder(String key, String path, long generation, String ifNoneMatch) {
+            this.key = key;
+            this.path = path;
+            this.generation = generation;
+            this.ifNoneMatch = ifNoneMatch;
+        }
+
+        // headers - строки заголовков ответа в виде "Name: value\r\n"; body копируется
+        void store(int statusCode, String statusText, CharSequence headers, byte[] body, String etag) {
+            List<String> pairs = new ArrayList<>();
+            int start = 0;
+            String lines = headers.toString();
+            int end;
+            while ((end = lines.indexOf("\r\n", start)) >= 0) {
+                int colon = lines.indexOf(':', start);
+                if (colon > start && colon < end) {
+                    String name = lines.substring(start, colon);
+                    // Connection зависит от соединения, а не от ресурса
+                    if (!name.equalsIgnoreCase("Connection")) {
+                        pairs.add(name);
+                        pairs.add(lines.substring(colon + 1, end).trim());
+                    }
+                }
+                start = end + 2;
+            }
+            long size = body.length + 2L * (key.length() + lines.length()) + ENTRY_OVERHEAD;
+            // Одна запись не должна вытеснять весь кэш
+            if (size > maxBytes / 4) {
+                return;
+            }
+            put(key, new Entry(statusCode, statusText, pairs.toArray(new String[0]), body, etag, path, generation, size));
+        }
+
+        boolean isNotModified(String etag) {
+            return matches(ifNoneMatch, etag);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ResponseCache{entries=" + size() + ", bytes=" + getBytes() + ", hits=" + getHits()
+                + ", misses=" + getMisses() + ", notModified=" + getNotModified() + ", evictions=" + getEvictions() + "}";
+    }
+}
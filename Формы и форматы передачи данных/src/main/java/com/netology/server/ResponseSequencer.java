@@ -0,0 +1,392 @@
+package com.netology.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Очередь ответов конвейерного (pipelined) соединения: ответы уходят строго в порядке запросов,
+// даже если обработчики завершаются в другом порядке.
+// Блокировки - ReentrantLock, а не synchronized: виртуальный поток, ждущий на мониторе или пишущий
+// в сокет внутри synchronized, занимает поток-носитель (pinning) до Java 24
+class ResponseSequencer {
+    private final ArrayDeque<Slot> slots = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition completed = lock.newCondition();
+    // Отдан ответ, после которого соединение закрывается: следующие ответы уже не отправляются
+    private boolean closing;
+
+    Slot reserve() {
+        lock.lock();
+        try {
+            Slot slot = new Slot();
+            slots.addLast(slot);
+            return slot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void complete(Slot slot) {
+        lock.lock();
+        try {
+            slot.completed = true;
+            completed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Ждёт, пока будут готовы все ответы, в том числе асинхронные
+    void awaitCompleted() throws InterruptedIOException {
+        lock.lock();
+        try {
+            while (!closing && !allCompleted()) {
+                completed.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for async responses");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean allCompleted() {
+        for (Slot slot : slots) {
+            if (!slot.completed) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Следующий готовый ответ или null, если очередь пуста или первый ответ ещё не готов
+    Slot poll() {
+        lock.lock();
+        try {
+            Slot head = slots.peekFirst();
+            if (closing || head == null || !head.completed) {
+                return null;
+            }
+            if (head.closeAfter) {
+                closing = true;
+                completed.signalAll();
+            }
+            return slots.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Ответ, после которого соединение закрывается, уже передан на отправку
+    boolean isClosing() {
+        lock.lock();
+        try {
+            return closing;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isEmpty() {
+        lock.lock();
+        try {
+            return slots.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Число ответов в очереди: готовые ещё не забранные и незавершённые асинхронные
+    int size() {
+        lock.lock();
+        try {
+            return slots.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Ответ первый в очереди: все предыдущие уже переданы на отправку
+    boolean isHead(Slot slot) {
+        lock.lock();
+        try {
+            return slots.peekFirst() == slot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Освобождает неотправленные ответы при закрытии соединения. Незавершённые асинхронные ответы отменяются
+    // до освобождения слота и вне блокировки очереди: отмена ждёт send(), который может сам писать в очередь
+    void close() {
+        List<Slot> closed;
+        lock.lock();
+        try {
+            if (slots.isEmpty()) {
+                return;
+            }
+            closed = new ArrayList<>(slots);
+            slots.clear();
+        } finally {
+            lock.unlock();
+        }
+        for (Slot slot : closed) {
+            if (slot.pending != null) {
+                slot.pending.cancel(false);
+            }
+            slot.release();
+        }
+    }
+
+    // Отправка уже записанной части незавершённого (потокового) ответа
+    interface Sink {
+        void push(Slot slot) throws IOException;
+    }
+
+    // Ответ: байты, записанные как в обычный поток, плюс приложенные без копирования тела
+    // (ByteBuffer или FileRegion), в порядке записи. Массив byte[] среди частей - метка
+    // "вернуть этот массив в пул": она стоит после всех буферов, которые на него ссылаются
+    static final class Slot extends ByteArrayOutputStream {
+        private static final int INITIAL_SIZE = 4096;
+        private static final BufferPool POOL = BufferPool.shared();
+
+        // Записи обработчика, отправка в сокет и освобождение буфера идут под этой блокировкой
+        private final ReentrantLock lock = new ReentrantLock();
+        private boolean completed;
+        private volatile boolean closeAfter;
+        private List<Object> segments;
+        // Начало байтов buf, ещё не вынесенных в segments
+        private int mark;
+        private long attachedBytes;
+        private Sink sink;
+        // Ответ асинхронного обработчика: отменяется, если соединение закроется раньше
+        private CompletableFuture<?> pending;
+
+        Slot() {
+            super(0);
+            buf = POOL.acquire(INITIAL_SIZE);
+        }
+
+        void setSink(Sink sink) {
+            this.sink = sink;
+        }
+
+        void setPending(CompletableFuture<?> pending) {
+            this.pending = pending;
+        }
+
+        // После этого ответа соединение закрывается (потоковое тело для HTTP/1.0 без длины)
+        void closeAfter() {
+            closeAfter = true;
+        }
+
+        boolean isCloseAfter() {
+            return closeAfter;
+        }
+
+        // Асинхронный обработчик может писать в слот из своего потока уже после закрытия соединения
+        @Override
+        public void write(int b) {
+            lock.lock();
+            try {
+                ensureOpen();
+                super.write(b);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            lock.lock();
+            try {
+                ensureOpen();
+                super.write(b, off, len);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void ensureOpen() {
+            if (buf == null) {
+                throw new UncheckedIOException(new IOException("Connection is closed"));
+            }
+        }
+
+        // Передаёт записанное на отправку, не дожидаясь завершения ответа
+        void push() throws IOException {
+            if (sink != null) {
+                sink.push(this);
+            }
+        }
+
+        void attach(ByteBuffer body) {
+            cut();
+            segments.add(body);
+            attachedBytes += body.remaining();
+        }
+
+        // Массив из пула: после отправки он вернётся в пул
+        void attachPooled(byte[] body, int length) {
+            attach(ByteBuffer.wrap(body, 0, length));
+            segments.add(body);
+        }
+
+        void attach(FileRegion body) {
+            cut();
+            segments.add(body);
+            attachedBytes += body.remaining();
+        }
+
+        // Записанные байты оборачиваются без копирования: последующие записи идут либо дальше в тот же массив,
+        // либо в новый массив, так что обёрнутый участок не меняется
+        private void cut() {
+            if (segments == null) {
+                segments = new ArrayList<>(3);
+            }
+            if (count > mark) {
+                segments.add(ByteBuffer.wrap(buf, mark, count - mark));
+                mark = count;
+            }
+        }
+
+        // Части ответа по порядку: ByteBuffer, FileRegion или метка возврата массива в пул.
+        // Всё, включая собственный буфер слота, переходит к получателю
+        void drainTo(Collection<Object> output) {
+            if (segments != null) {
+                output.addAll(segments);
+            }
+            if (count > mark) {
+                output.add(ByteBuffer.wrap(buf, mark, count - mark));
+            }
+            output.add(buf);
+        }
+
+        long length() {
+            return count + attachedBytes;
+        }
+
+        // Пишет накопленную часть ответа в поток и освобождает буфер под следующую
+        void writeAvailable(OutputStream out) throws IOException {
+            lock.lock();
+            try {
+                try {
+                    writeSegments(out);
+                } finally {
+                    releaseSegments();
+                }
+                clear(buf);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Забирает накопленную часть ответа без копирования; буфер заменяется новым,
+        // потому что отданные ByteBuffer ссылаются на старый. Возвращает число забранных байт
+        long takeAvailable(Collection<Object> output) {
+            lock.lock();
+            try {
+                long taken = length();
+                drainTo(output);
+                clear(POOL.acquire(INITIAL_SIZE));
+                return taken;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void clear(byte[] next) {
+            buf = next;
+            count = 0;
+            mark = 0;
+            segments = null;
+            attachedBytes = 0;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            lock.lock();
+            try {
+                writeSegments(out);
+            } finally {
+                release();
+                lock.unlock();
+            }
+        }
+
+        private void writeSegments(OutputStream out) throws IOException {
+            if (segments != null) {
+                for (Object segment : segments) {
+                    if (segment instanceof ByteBuffer) {
+                        write(out, (ByteBuffer) segment);
+                    } else if (segment instanceof FileRegion) {
+                        // Поток блокирующего сокета не даёт канала, поэтому файл идёт через буфер transferTo,
+                        // но целиком в кучу не читается
+                        out.flush();
+                        ((FileRegion) segment).transferFully(Channels.newChannel(out));
+                    }
+                }
+            }
+            out.write(buf, mark, count - mark);
+        }
+
+        private static void write(OutputStream out, ByteBuffer buffer) throws IOException {
+            if (buffer.hasArray()) {
+                out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                return;
+            }
+            byte[] chunk = new byte[Math.min(buffer.remaining(), 8 * 1024)];
+            ByteBuffer source = buffer.duplicate();
+            while (source.hasRemaining()) {
+                int length = Math.min(chunk.length, source.remaining());
+                source.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+        }
+
+        // Закрывает файлы и возвращает в пул массивы ответа, включая собственный буфер слота
+        void release() {
+            lock.lock();
+            try {
+                releaseSegments();
+                if (buf != null) {
+                    POOL.release(buf);
+                    buf = null;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void releaseSegments() {
+            if (segments == null) {
+                return;
+            }
+            for (Object segment : segments) {
+                release(segment);
+            }
+            segments = null;
+        }
+
+        // Освобождает часть ответа, которая больше не будет отправлена
+        static void release(Object segment) {
+            if (segment instanceof FileRegion) {
+                ((FileRegion) segment).close();
+            } else if (segment instanceof byte[]) {
+                POOL.release((byte[]) segment);
+            }
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.netology.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Маршрутизатор на префиксном дереве сегментов пути.
+// Поддерживает статические сегменты (/messages), переменные (/messages/{id}) и хвостовой wildcard (/static/*).
+// Поиск идёт по исходной строке пути через regionMatches, поэтому для маршрутов без переменных
+// не создаётся ни одной строки, а время поиска зависит от длины пути, а не от числа маршрутов.
+class Router {
+    private final Route root = new Route();
+
+    void add(String method, String pattern, Handler handler) {
+        route(pattern).addHandler(method, handler);
+    }
+
+    // Узел маршрута для шаблона; создаётся, если его ещё нет
+    Route route(String pattern) {
+        if (!pattern.startsWith("/")) {
+            throw new IllegalArgumentException("Route must start with '/': " + pattern);
+        }
+
+        Route route = root;
+        List<String> paramNames = new ArrayList<>();
+        List<Integer> paramSegments = new ArrayList<>();
+        String[] segments = pattern.substring(1).split("/", -1);
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            if (segment.equals("*")) {
+                if (i != segments.length - 1) {
+                    throw new IllegalArgumentException("Wildcard must be the last segment: " + pattern);
+                }
+                if (route.wildcardChild == null) {
+                    route.wildcardChild = new Route();
+                }
+                route = route.wildcardChild;
+                paramNames.add("*");
+                paramSegments.add(i);
+            } else if (segment.startsWith("{") && segment.endsWith("}")) {
+                if (route.paramChild == null) {
+                    route.paramChild = new Route();
+                }
+                route = route.paramChild;
+                paramNames.add(segment.substring(1, segment.length() - 1));
+                paramSegments.add(i);
+            } else {
+                route = route.staticChild(segment);
+            }
+        }
+
+        route.setParams(pattern, paramNames, paramSegments);
+        return route;
+    }
+
+    // Маршрут, совпадающий с путём (без учёта метода), или null
+    Route find(String path) {
+        if (path.isEmpty() || path.charAt(0) != '/') {
+            return null;
+        }
+        return find(root, path, 1);
+    }
+
+    private Route find(Route route, String path, int position) {
+        int end = path.indexOf('/', position);
+        if (end < 0) {
+            end = path.length();
+        }
+        boolean last = end == path.length();
+
+        // Статические сегменты приоритетнее переменных, переменные приоритетнее wildcard
+        Route child = route.staticChild(path, position, end);
+        if (child != null) {
+            Route found = last ? child.terminal() : find(child, path, end + 1);
+            if (found != null) {
+                return found;
+            }
+        }
+        if (route.paramChild != null && end > position) {
+            Route found = last ? route.paramChild.terminal() : find(route.paramChild, path, end + 1);
+            if (found != null) {
+                return found;
+            }
+        }
+        if (route.wildcardChild != null) {
+            return route.wildcardChild.terminal();
+        }
+        return null;
+    }
+
+    static final class Route {
+        private static final Route[] NO_CHILDREN = new Route[0];
+
+        private String segment;
+        private int segmentHash;
+        // Открытая адресация по хэшу сегмента: хэш участка пути считается без создания подстроки
+        private Route[] staticChildren = NO_CHILDREN;
+        private int staticCount;
+        private Route paramChild;
+        private Route wildcardChild;
+
+        private String pattern;
+        private String[] paramNames;
+        private int[] paramSegments;
+        private String[] methods = new String[0];
+        private Handler[] handlers = new Handler[0];
+        private String allow;
+        // Заголовки запроса, от которых зависит кэшированный ответ; null - кэш для маршрута выключен
+        private String[] cacheVary;
+
+        private Route staticChild(String segment) {
+            Route existing = staticChild(segment, 0, segment.length());
+            if (existing != null) {
+                return existing;
+            }
+            Route child = new Route();
+            child.segment = segment;
+            child.segmentHash = segment.hashCode();
+            if ((staticCount + 1) * 2 > staticChildren.length) {
+                rehash(Math.max(4, staticChildren.length * 2));
+            }
+            insert(child);
+            staticCount++;
+            return child;
+        }
+
+        private Route staticChild(String path, int start, int end) {
+            if (staticCount == 0) {
+                return null;
+            }
+            int length = end - start;
+            // Тот же алгоритм, что и String.hashCode()
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + path.charAt(i);
+            }
+            int mask = staticChildren.length - 1;
+            for (int i = spread(hash) & mask; staticChildren[i] != null; i = (i + 1) & mask) {
+                Route child = staticChildren[i];
+                if (child.segmentHash == hash && child.segment.length() == length
+                        && path.regionMatches(start, child.segment, 0, length)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        private void rehash(int capacity) {
+            Route[] old = staticChildren;
+            staticChildren = new Route[capacity];
+            for (Route child : old) {
+                if (child != null) {
+                    insert(child);
+                }
+            }
+        }
+
+        private void insert(Route child) {
+            int mask = staticChildren.length - 1;
+            int i = spread(child.segmentHash) & mask;
+            while (staticChildren[i] != null) {
+                i = (i + 1) & mask;
+            }
+            staticChildren[i] = child;
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+
+        private Route terminal() {
+            return handlers.length > 0 ? this : null;
+        }
+
+        private void setParams(String pattern, List<String> names, List<Integer> segments) {
+            if (this.pattern != null && !samePlaceholders(names)) {
+                throw new IllegalArgumentException("Route " + pattern + " conflicts with " + this.pattern);
+            }
+            this.pattern = pattern;
+            this.paramNames = names.toArray(new String[0]);
+            this.paramSegments = segments.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        private boolean samePlaceholders(List<String> names) {
+            return Arrays.asList(paramNames).equals(names);
+        }
+
+        private void addHandler(String method, Handler handler) {
+            for (int i = 0; i < methods.length; i++) {
+                if (methods[i].equals(method)) {
+                    handlers[i] = handler;
+                    return;
+                }
+            }
+            methods = Arrays.copyOf(methods, methods.length + 1);
+            handlers = Arrays.copyOf(handlers, handlers.length + 1);
+            methods[methods.length - 1] = method;
+            handlers[handlers.length - 1] = handler;
+            allow = String.join(", ", methods);
+        }
+
+        // Обработчик для метода или null, если путь найден, но метод не поддерживается
+        Handler handler(String method) {
+            for (int i = 0; i < methods.length; i++) {
+                if (methods[i].equals(method)) {
+                    return handlers[i];
+                }
+            }
+            return null;
+        }
+
+        // Значение заголовка Allow для ответа 405
+        String allow() {
+            return allow;
+        }
+
+        void setCacheVary(String[] cacheVary) {
+            this.cacheVary = cacheVary;
+        }
+
+        String[] cacheVary() {
+            return cacheVary;
+        }
+
+        String pattern() {
+            return pattern;
+        }
+
+        boolean hasParams() {
+            return paramNames.length > 0;
+        }
+
+        // Вырезает значения переменных из пути; вызывается только для маршрутов с переменными
+        Map<String, String> extractParams(String path) {
+            if (paramNames.length == 0) {
+                return Collections.emptyMap();
+            }
+            Map<String, String> params = new HashMap<>();
+            int segment = 0;
+            int position = 1;
+            for (int i = 0; i < paramNames.length; i++) {
+                while (segment < paramSegments[i]) {
+                    position = path.indexOf('/', position) + 1;
+                    segment++;
+                }
+                int end = path.indexOf('/', position);
+                if (end < 0 || paramNames[i].equals("*")) {
+                    end = path.length();
+                }
+                params.put(paramNames[i], path.substring(position, end));
+            }
+            return params;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.netology.server;
+
+import java.nio.file.Path;
+
+public class ServerConfig {
+    private ServerMode mode = ServerMode.THREAD_POOL;
+    private int workerThreads = 64;
+    private int maxQueuedConnections = 256;
+    private int queueDelayTargetMillis = 50;
+    private int queueDelayIntervalMillis = 500;
+    private int retryAfterSeconds = 1;
+    private int eventLoops = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private int acceptors = 1;
+    private int keepAliveTimeoutMillis = 5000;
+    private int maxRequestsPerConnection = 100;
+    private int asyncTimeoutMillis = 30000;
+    private int maxRequestBodySize = 64 * 1024 * 1024;
+    private int multipartMemoryThreshold = MultipartParser.DEFAULT_MEMORY_THRESHOLD;
+    private Path uploadDirectory;
+    private UploadStore uploadStore;
+    private boolean compressionEnabled = true;
+    private int compressionMinSize = 1024;
+    private long responseCacheSize = 16 * 1024 * 1024;
+
+    public ServerMode getMode() {
+        return mode;
+    }
+
+    public ServerConfig setMode(ServerMode mode) {
+        this.mode = mode;
+        return this;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public ServerConfig setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+        return this;
+    }
+
+    public int getMaxQueuedConnections() {
+        return maxQueuedConnections;
+    }
+
+    // Сколько принятых соединений может ждать свободного потока (THREAD_POOL); остальным сразу отвечаем 503.
+    // Keep-alive соединение держит поток и между запросами, поэтому простаивающее соединение закрывается раньше
+    // keepAliveTimeoutMillis, если в очереди есть ждущие: очередь проверяется раз в queueDelayTargetMillis
+    public ServerConfig setMaxQueuedConnections(int maxQueuedConnections) {
+        this.maxQueuedConnections = maxQueuedConnections;
+        return this;
+    }
+
+    public int getQueueDelayTargetMillis() {
+        return queueDelayTargetMillis;
+    }
+
+    // Допустимое ожидание в очереди при перегрузке (CoDel target)
+    public ServerConfig setQueueDelayTargetMillis(int queueDelayTargetMillis) {
+        this.queueDelayTargetMillis = queueDelayTargetMillis;
+        return this;
+    }
+
+    public int getQueueDelayIntervalMillis() {
+        return queueDelayIntervalMillis;
+    }
+
+    // Перегрузка - очередь не опустошалась дольше этого времени; без перегрузки это же и предел ожидания (CoDel interval)
+    public ServerConfig setQueueDelayIntervalMillis(int queueDelayIntervalMillis) {
+        this.queueDelayIntervalMillis = queueDelayIntervalMillis;
+        return this;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    // Значение Retry-After в ответе 503 на отклонённое соединение
+    public ServerConfig setRetryAfterSeconds(int retryAfterSeconds) {
+        this.retryAfterSeconds = retryAfterSeconds;
+        return this;
+    }
+
+    public int getEventLoops() {
+        return eventLoops;
+    }
+
+    public ServerConfig setEventLoops(int eventLoops) {
+        this.eventLoops = eventLoops;
+        return this;
+    }
+
+    public int getAcceptors() {
+        return acceptors;
+    }
+
+    // Число потоков приёма соединений, у каждого свой сокет на порту (SO_REUSEPORT) и свои потоки обработки:
+    // в THREAD_POOL - своя доля workerThreads и очереди, в NIO - своя доля event loop
+    public ServerConfig setAcceptors(int acceptors) {
+        this.acceptors = acceptors;
+        return this;
+    }
+
+    public int getKeepAliveTimeoutMillis() {
+        return keepAliveTimeoutMillis;
+    }
+
+    public ServerConfig setKeepAliveTimeoutMillis(int keepAliveTimeoutMillis) {
+        this.keepAliveTimeoutMillis = keepAliveTimeoutMillis;
+        return this;
+    }
+
+    public int getMaxRequestsPerConnection() {
+        return maxRequestsPerConnection;
+    }
+
+    public ServerConfig setMaxRequestsPerConnection(int maxRequestsPerConnection) {
+        this.maxRequestsPerConnection = maxRequestsPerConnection;
+        return this;
+    }
+
+    public int getAsyncTimeoutMillis() {
+        return asyncTimeoutMillis;
+    }
+
+    // Сколько асинхронный обработчик может готовить ответ, прежде чем клиент получит 503; 0 - без ограничения
+    public ServerConfig setAsyncTimeoutMillis(int asyncTimeoutMillis) {
+        this.asyncTimeoutMillis = asyncTimeoutMillis;
+        return this;
+    }
+
+    public int getMaxRequestBodySize() {
+        return maxRequestBodySize;
+    }
+
+    // Запрос с Content-Length больше этого значения получает 413 до чтения тела, и соединение закрывается
+    public ServerConfig setMaxRequestBodySize(int maxRequestBodySize) {
+        this.maxRequestBodySize = maxRequestBodySize;
+        return this;
+    }
+
+    public int getMultipartMemoryThreshold() {
+        return multipartMemoryThreshold;
+    }
+
+    // Части multipart больше порога сохраняются во временные файлы, а не в памяти;
+    // тело multipart больше порога ещё при получении пишется в файл хранилища загрузок
+    public ServerConfig setMultipartMemoryThreshold(int multipartMemoryThreshold) {
+        this.multipartMemoryThreshold = multipartMemoryThreshold;
+        return this;
+    }
+
+    public Path getUploadDirectory() {
+        return uploadDirectory;
+    }
+
+    // Каталог для файлов загрузок; null - системный каталог временных файлов.
+    // Собственный каталог очищается от файлов прошлого запуска при старте сервера
+    public synchronized ServerConfig setUploadDirectory(Path uploadDirectory) {
+        this.uploadDirectory = uploadDirectory;
+        this.uploadStore = null;
+        return this;
+    }
+
+    synchronized UploadStore getUploadStore() {
+        if (uploadStore == null) {
+            uploadStore = new UploadStore(uploadDirectory);
+        }
+        return uploadStore;
+    }
+
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    // Сжатие ответов gzip/deflate по заголовку Accept-Encoding
+    public ServerConfig setCompressionEnabled(boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+        return this;
+    }
+
+    public int getCompressionMinSize() {
+        return compressionMinSize;
+    }
+
+    // Тела меньше этого размера (в байтах) отправляются без сжатия
+    public ServerConfig setCompressionMinSize(int compressionMinSize) {
+        this.compressionMinSize = compressionMinSize;
+        return this;
+    }
+
+    public long getResponseCacheSize() {
+        return responseCacheSize;
+    }
+
+    // Суммарный объём (в байтах) кэша ответов для маршрутов с включённым кэшем
+    public ServerConfig setResponseCacheSize(long responseCacheSize) {
+        this.responseCacheSize = responseCacheSize;
+        return this;
+    }
+}
@@ -0,0 +1,10 @@
+package com.netology.server;
+
+public enum ServerMode {
+    // Блокирующий accept() и фиксированный пул потоков (поток на соединение)
+    THREAD_POOL,
+    // Блокирующий accept() и отдельный виртуальный поток на каждое соединение (Java 21+)
+    VIRTUAL_THREADS,
+    // Неблокирующий ввод-вывод: Selector и несколько потоков event loop
+    NIO
+}
@@ -0,0 +1,175 @@
+package com.netology.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Каталог-спул для загруженных файлов multipart.
+// Содержимое части пишется в файл через FileChannel блоками из пула direct-буферов;
+// дальше часть читается отображением файла в память (Part.map()) или переносится на место (Part.moveTo()).
+// Файлы удаляются после обработки запроса, если обработчик их не забрал
+final class UploadStore {
+    static final String PREFIX = "upload-";
+    static final String SUFFIX = ".part";
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    // null - системный каталог временных файлов
+    private final Path directory;
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    UploadStore(Path directory) {
+        this.directory = directory;
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    // Удаляет файлы, оставшиеся от прошлого запуска (например, после аварийного завершения).
+    // Только для собственного каталога загрузок: в общем каталоге временных файлов чужое не трогаем
+    int purge() {
+        if (directory == null || !Files.isDirectory(directory)) {
+            return 0;
+        }
+        int purged = 0;
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : stale) {
+                if (Files.deleteIfExists(file)) {
+                    purged++;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return purged;
+    }
+
+    Writer create() throws IOException {
+        Path file;
+        if (directory != null) {
+            Files.createDirectories(directory);
+            file = Files.createTempFile(directory, PREFIX, SUFFIX);
+        } else {
+            file = Files.createTempFile(PREFIX, SUFFIX);
+        }
+        files.incrementAndGet();
+        try {
+            return new Writer(file);
+        } catch (IOException e) {
+            delete(file, 0);
+            throw e;
+        }
+    }
+
+    // Удаляет файл части и снимает его со счёта
+    void delete(Path file, long size) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            release(size);
+        }
+    }
+
+    // Файл больше не принадлежит хранилищу (перенесён обработчиком)
+    void release(long size) {
+        files.decrementAndGet();
+        bytes.addAndGet(-size);
+    }
+
+    // Файлы загрузок, ещё не удалённые и не перенесённые
+    long getFiles() {
+        return files.get();
+    }
+
+    long getBytes() {
+        return bytes.get();
+    }
+
+    // Запись одного файла части
+    final class Writer extends OutputStream {
+        private final Path file;
+        private final FileChannel channel;
+        private ByteBuffer buffer;
+        private long size;
+
+        private Writer(Path file) throws IOException {
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.buffer = BufferPool.shared().acquireDirect(WRITE_BUFFER_SIZE);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            size += length;
+            bytes.addAndGet(length);
+            while (length > 0) {
+                int count = Math.min(length, buffer.remaining());
+                buffer.put(data, offset, count);
+                offset += count;
+                length -= count;
+                if (!buffer.hasRemaining()) {
+                    writeBuffer();
+                }
+            }
+        }
+
+        Path getFile() {
+            return file;
+        }
+
+        long size() {
+            return size;
+        }
+
+        // Дописывает буфер и закрывает файл; файл остаётся на счету хранилища до delete или release
+        Path finish() throws IOException {
+            try {
+                writeBuffer();
+            } finally {
+                closeChannel();
+            }
+            return file;
+        }
+
+        // Незавершённая часть: файл удаляется
+        void abort() {
+            closeChannel();
+            delete(file, size);
+        }
+
+        private void writeBuffer() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void closeChannel() {
+            if (buffer == null) {
+                return;
+            }
+            BufferPool.shared().releaseDirect(buffer);
+            buffer = null;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
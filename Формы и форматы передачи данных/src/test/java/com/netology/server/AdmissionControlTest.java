@@ -0,0 +1,151 @@
+package com.netology.server;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class AdmissionControlTest {
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testQueueDelayLimits() {
+        ServerConfig config = new ServerConfig()
+            .setWorkerThreads(1)
+            .setQueueDelayTargetMillis(10)
+            .setQueueDelayIntervalMillis(100);
+        AdmissionControl admission = new AdmissionControl(config, new RequestHandler(config));
+        try {
+            long start = System.nanoTime();
+            // Очередь только что была пуста: допустимо ожидание до interval
+            assertTrue(admission.admit(start, start + 50 * MS, true));
+            assertFalse(admission.admit(start, start + 150 * MS, true));
+
+            // Очередь не опустошалась дольше interval: предел ожидания - target
+            long later = start + 300 * MS;
+            assertFalse(admission.admit(later - 50 * MS, later, false));
+            assertTrue(admission.admit(later - 5 * MS, later, false));
+
+            // Очередь опустела - перегрузка закончилась
+            assertTrue(admission.admit(later - 50 * MS, later + MS, true));
+        } finally {
+            admission.shutdown();
+        }
+    }
+
+    @Test
+    public void testFullQueueIsRejectedWith503() throws Exception {
+        ServerConfig config = new ServerConfig()
+            .setWorkerThreads(1)
+            .setMaxQueuedConnections(1)
+            .setRetryAfterSeconds(3);
+        RequestHandler handler = new RequestHandler(config);
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        handler.addHandler("GET", "/slow", (request, response) -> {
+            entered.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            response.setBody("done").send();
+        });
+        AdmissionControl admission = new AdmissionControl(config, handler);
+
+        try (ServerSocket server = new ServerSocket(0);
+             Socket busy = new Socket("localhost", server.getLocalPort());
+             Socket queued = new Socket("localhost", server.getLocalPort());
+             Socket extra = new Socket("localhost", server.getLocalPort())) {
+            busy.getOutputStream().write(get("/slow"));
+            admission.submit(server.accept());
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+            queued.getOutputStream().write(get("/slow"));
+            admission.submit(server.accept());
+            // Поток занят, в очереди уже одно соединение
+            admission.submit(server.accept());
+            String rejected = readAll(extra);
+            assertTrue(rejected.startsWith("HTTP/1.1 503 Service Unavailable\r\n"));
+            assertTrue(rejected.contains("Retry-After: 3\r\n"));
+            assertEquals(1, admission.getRejected());
+
+            release.countDown();
+            assertTrue(readAll(busy).endsWith("done"));
+            assertTrue(readAll(queued).endsWith("done"));
+            assertEquals(2, admission.getAdmitted());
+        } finally {
+            admission.shutdown();
+        }
+    }
+
+    @Test
+    public void testIdleKeepAliveConnectionsYieldToQueued() throws Exception {
+        ServerConfig config = new ServerConfig()
+            .setWorkerThreads(2)
+            .setKeepAliveTimeoutMillis(5000);
+        RequestHandler handler = new RequestHandler(config);
+        handler.addHandler("GET", "/ok", (request, response) -> response.setBody("ok").send());
+        AdmissionControl admission = new AdmissionControl(config, handler);
+
+        try (ServerSocket server = new ServerSocket(0);
+             Socket first = new Socket("localhost", server.getLocalPort());
+             Socket second = new Socket("localhost", server.getLocalPort());
+             Socket fresh = new Socket("localhost", server.getLocalPort())) {
+            // Оба потока пула заняты молчащими keep-alive соединениями
+            for (Socket idle : new Socket[] {first, second}) {
+                idle.getOutputStream().write(("GET /ok HTTP/1.1\r\nHost: localhost\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+                admission.submit(server.accept());
+                assertTrue(readUntil(idle, "\r\n\r\nok").startsWith("HTTP/1.1 200 OK\r\n"));
+            }
+
+            long start = System.nanoTime();
+            fresh.getOutputStream().write(get("/ok"));
+            admission.submit(server.accept());
+            String response = readAll(fresh);
+            assertTrue(response, response.startsWith("HTTP/1.1 200 OK\r\n"));
+            // Ждать конца keep-alive не пришлось
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+            assertEquals(0, admission.getDropped());
+        } finally {
+            admission.shutdown();
+        }
+    }
+
+    private static byte[] get(String path) {
+        return ("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+            .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // Читает ответ на keep-alive соединении, не дожидаясь его закрытия
+    private static String readUntil(Socket socket, String end) throws IOException {
+        socket.setSoTimeout(5000);
+        InputStream input = socket.getInputStream();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int read;
+        while (!output.toString(StandardCharsets.UTF_8).endsWith(end) && (read = input.read()) >= 0) {
+            output.write(read);
+        }
+        return output.toString(StandardCharsets.UTF_8);
+    }
+
+    private static String readAll(Socket socket) throws IOException {
+        socket.setSoTimeout(5000);
+        InputStream input = socket.getInputStream();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = input.read(buffer)) > 0) {
+            output.write(buffer, 0, read);
+        }
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
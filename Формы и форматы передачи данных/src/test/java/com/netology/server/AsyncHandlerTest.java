@@ -0,0 +1,204 @@
+package com.netology.server;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class AsyncHandlerTest {
+
+    @Test
+    public void testResponseFromAnotherThread() throws IOException {
+        RequestHandler handler = new RequestHandler(new ServerConfig());
+        handler.addAsyncHandler("GET", "/async", (request, response) -> CompletableFuture.runAsync(() -> {
+            try {
+                response.setBody("from " + Thread.currentThread().getName()).send();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }));
+        handler.addAsyncHandler("GET", "/failed", (request, response) ->
+            CompletableFuture.supplyAsync(() -> {
+                throw new IllegalStateException("storage is down");
+            }));
+
+        String output = dispatch(handler, "/async");
+        assertTrue(output.startsWith("HTTP/1.1 200 OK\r\n"));
+        assertFalse(output.endsWith("from main"));
+        assertTrue(dispatch(handler, "/failed").contains("Internal Server Error: storage is down"));
+        assertEquals(0, handler.getMetrics().getInFlight());
+    }
+
+    @Test
+    public void testTimeoutReplacesResponse() throws IOException {
+        RequestHandler handler = new RequestHandler(new ServerConfig());
+        CompletableFuture<Void> stage = new CompletableFuture<>();
+        Response[] late = new Response[1];
+        handler.addAsyncHandler("GET", "/slow", (request, response) -> {
+            late[0] = response;
+            return stage;
+        }, 50);
+
+        String output = dispatch(handler, "/slow");
+        assertTrue(output.startsWith("HTTP/1.1 503 Service Unavailable\r\n"));
+        assertTrue(output.endsWith("Request timed out"));
+        // Стадия обработчика отменена, а отправить ответ после срока уже нельзя
+        assertTrue(stage.isCancelled());
+        try {
+            late[0].setBody("too late").send();
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            // Ответ уже заменён
+        }
+        assertEquals(1, handler.getMetrics().latency("/slow", "GET").getCount());
+    }
+
+    @Test
+    public void testPipelinedOrderAndDisconnect() throws Exception {
+        RequestHandler handler = new RequestHandler(new ServerConfig());
+        CompletableFuture<Void> slow = new CompletableFuture<>();
+        CompletableFuture<Void> abandoned = new CompletableFuture<>();
+        handler.addAsyncHandler("GET", "/slow", (request, response) -> slow.thenRun(() -> {
+            try {
+                response.setBody("slow").send();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }));
+        handler.addAsyncHandler("GET", "/never", (request, response) -> abandoned);
+        handler.addHandler("GET", "/fast", (request, response) -> response.setBody("fast").send());
+
+        try (ServerSocket server = new ServerSocket(0)) {
+            CountDownLatch closed = new CountDownLatch(2);
+            try (Socket client = new Socket("localhost", server.getLocalPort())) {
+                serve(handler, server.accept(), closed);
+                // Поток соединения не ждёт асинхронный ответ и сразу отвечает на следующий запрос,
+                // но клиенту ответы уходят в порядке запросов
+                client.getOutputStream().write(get("/slow", "keep-alive"));
+                client.getOutputStream().write(get("/fast", "close"));
+                Thread.sleep(100);
+                slow.complete(null);
+                String output = readAll(client);
+                assertTrue(output.indexOf("slow") < output.indexOf("fast"));
+                assertTrue(output.endsWith("fast"));
+            }
+
+            try (Socket client = new Socket("localhost", server.getLocalPort())) {
+                serve(handler, server.accept(), closed);
+                client.getOutputStream().write(get("/never", "keep-alive"));
+                Thread.sleep(100);
+            }
+            // Клиент ушёл - обработка отменяется
+            assertTrue(closed.await(5, TimeUnit.SECONDS));
+            assertTrue(abandoned.isCancelled());
+        }
+    }
+
+    @Test
+    public void testStalledClientDoesNotDelayOtherTimeouts() throws Exception {
+        RequestHandler handler = new RequestHandler(new ServerConfig());
+        handler.addAsyncHandler("GET", "/hang", (request, response) -> new CompletableFuture<Void>(), 200);
+        byte[] large = new byte[16 * 1024 * 1024];
+        handler.addHandler("GET", "/large", (request, response) -> response.setBody(large).send());
+
+        try (ServerSocket server = new ServerSocket(0)) {
+            CountDownLatch closed = new CountDownLatch(2);
+            try (Socket stalled = new Socket()) {
+                // Клиент не читает: ответ на /large, который уйдёт вслед за 503 на /hang, заполнит буферы сокета
+                stalled.setReceiveBufferSize(4096);
+                stalled.connect(server.getLocalSocketAddress());
+                serve(handler, server.accept(), closed);
+                stalled.getOutputStream().write(get("/hang", "keep-alive"));
+                stalled.getOutputStream().write(get("/large", "keep-alive"));
+                Thread.sleep(500);
+
+                // Таймаут другого соединения срабатывает вовремя: поток таймаутов не пишет в сокеты
+                try (Socket client = new Socket("localhost", server.getLocalPort())) {
+                    serve(handler, server.accept(), closed);
+                    long start = System.nanoTime();
+                    client.getOutputStream().write(get("/hang", "close"));
+                    assertTrue(readAll(client).startsWith("HTTP/1.1 503 Service Unavailable\r\n"));
+                    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+                }
+            }
+            assertTrue(closed.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testHttp10AsyncStreamEndsWithClose() throws Exception {
+        RequestHandler handler = new RequestHandler(new ServerConfig());
+        CompletableFuture<Void> release = new CompletableFuture<>();
+        handler.addAsyncHandler("GET", "/stream", (request, response) -> release.thenRun(() -> {
+            try (OutputStream stream = response.stream()) {
+                stream.write("streamed".getBytes(StandardCharsets.US_ASCII));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }));
+        handler.addHandler("GET", "/fast", (request, response) -> response.setBody("fast").send());
+
+        try (ServerSocket server = new ServerSocket(0)) {
+            CountDownLatch closed = new CountDownLatch(1);
+            try (Socket client = new Socket("localhost", server.getLocalPort())) {
+                serve(handler, server.accept(), closed);
+                // Поток соединения уже ждёт следующий запрос, когда ответ допишет поток записи:
+                // конец тела без длины клиент узнаёт по закрытию соединения с нашей стороны
+                client.getOutputStream().write(("GET /stream HTTP/1.0\r\nConnection: keep-alive\r\n\r\n"
+                    + "GET /fast HTTP/1.0\r\nConnection: keep-alive\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                Thread.sleep(100);
+                release.complete(null);
+                String output = readAll(client);
+                assertFalse(output.contains("Transfer-Encoding"));
+                assertTrue(output.contains("\r\nConnection: close\r\n"));
+                assertTrue(output.endsWith("\r\n\r\nstreamed"));
+            }
+            assertTrue(closed.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    private static void serve(RequestHandler handler, Socket socket, CountDownLatch closed) {
+        new Thread(() -> {
+            try {
+                handler.handle(socket);
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                closed.countDown();
+            }
+        }).start();
+    }
+
+    private static String dispatch(RequestHandler handler, String path) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        handler.dispatch(new Request("GET", path, new HashMap<>(), null), new Response(output));
+        return output.toString("UTF-8");
+    }
+
+    private static byte[] get(String path, String connection) {
+        return ("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: " + connection + "\r\n\r\n")
+            .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static String readAll(Socket socket) throws IOException {
+        socket.setSoTimeout(5000);
+        InputStream input = socket.getInputStream();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = input.read(buffer)) > 0) {
+            output.write(buffer, 0, read);
+        }
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
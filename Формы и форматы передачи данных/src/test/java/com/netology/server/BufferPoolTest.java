@@ -0,0 +1,40 @@
+package com.netology.server;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+public class BufferPoolTest {
+
+    @Test
+    public void testSizeClasses() {
+        BufferPool pool = new BufferPool(1);
+        assertEquals(4096, pool.acquire(1).length);
+        assertEquals(4096, pool.acquire(4096).length);
+        assertEquals(8192, pool.acquire(4097).length);
+        // Больше 256 КБ - точный размер без пула
+        assertEquals(300_000, pool.acquire(300_000).length);
+    }
+
+    @Test
+    public void testReleasedBufferIsReused() {
+        BufferPool pool = new BufferPool(1);
+        byte[] buffer = pool.acquire(10_000);
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire(9_000));
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getRecycled());
+
+        // Массив не из класса размеров в пул не попадает
+        pool.release(new byte[5000]);
+        assertEquals(1, pool.getRecycled());
+
+        ByteBuffer direct = pool.acquireDirect(100);
+        direct.position(10);
+        pool.releaseDirect(direct);
+        ByteBuffer again = pool.acquireDirect(100);
+        assertSame(direct, again);
+        assertEquals(0, again.position());
+    }
+}
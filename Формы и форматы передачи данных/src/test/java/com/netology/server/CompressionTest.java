@@ -0,0 +1,102 @@
+package com.netology.server;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+public class CompressionTest {
+
+    @Test
+    public void testNegotiate() {
+        assertEquals("gzip", Compression.negotiate("gzip, deflate, br"));
+        assertEquals("deflate", Compression.negotiate("deflate, gzip;q=0"));
+        assertEquals("gzip", Compression.negotiate("*"));
+        assertNull(Compression.negotiate("br, identity"));
+        assertNull(Compression.negotiate(null));
+        // "*" не отменяет явный запрет
+        assertNull(Compression.negotiate("gzip;q=0, deflate;q=0, *"));
+        assertEquals("deflate", Compression.negotiate("gzip;q=0, *"));
+        assertNull(Compression.negotiate("gzip;q=0, *;q=0"));
+        // Побеждает больший q, а не фиксированный порядок
+        assertEquals("deflate", Compression.negotiate("gzip;q=0.5, deflate;q=0.8"));
+        assertEquals("gzip", Compression.negotiate("deflate;q=0.3, *;q=0.6"));
+    }
+
+    @Test
+    public void testCompressRoundTrip() throws IOException {
+        byte[] data = repeat("{\"message\": \"Hello\"}", 200).getBytes(StandardCharsets.UTF_8);
+        int[] length = new int[1];
+
+        byte[] gzip = Compression.compress(Compression.GZIP, data, 0, data.length, length);
+        assertTrue(length[0] < data.length / 10);
+        assertArrayEquals(data, readAll(new GZIPInputStream(new ByteArrayInputStream(gzip, 0, length[0]))));
+
+        byte[] deflate = Compression.compress(Compression.DEFLATE, data, 0, data.length, length);
+        assertArrayEquals(data, readAll(new InflaterInputStream(new ByteArrayInputStream(deflate, 0, length[0]))));
+    }
+
+    @Test
+    public void testResponseCompression() throws IOException {
+        String text = repeat("compressible text ", 500);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Response response = new Response(output);
+        response.setCompression("gzip", 1024);
+        response.sendText(text);
+        byte[] result = output.toByteArray();
+        String head = head(result);
+        assertTrue(head.contains("Content-Encoding: gzip\r\n"));
+        assertTrue(head.contains("Vary: Accept-Encoding\r\n"));
+        byte[] body = Arrays.copyOfRange(result, head.length(), result.length);
+        assertTrue(head.contains("Content-Length: " + body.length + "\r\n"));
+        assertEquals(text, new String(readAll(new GZIPInputStream(new ByteArrayInputStream(body))), StandardCharsets.UTF_8));
+
+        // Маленькие тела и уже сжатые форматы отправляются как есть
+        output.reset();
+        response = new Response(output);
+        response.setCompression("gzip", 1024);
+        response.sendText("short");
+        head = head(output.toByteArray());
+        assertFalse(head.contains("Content-Encoding"));
+        assertTrue(head.contains("Vary: Accept-Encoding\r\n"));
+
+        output.reset();
+        response = new Response(output);
+        response.setCompression("gzip", 1024);
+        response.addHeader("Content-Type", "image/png").setBody(new byte[4096]).send();
+        head = head(output.toByteArray());
+        assertFalse(head.contains("Content-Encoding"));
+        assertFalse(head.contains("Vary"));
+    }
+
+    private static String head(byte[] response) {
+        String text = new String(response, StandardCharsets.ISO_8859_1);
+        return text.substring(0, text.indexOf("\r\n\r\n") + 4);
+    }
+
+    private static String repeat(String value, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(value).append(i % 10);
+        }
+        return builder.toString();
+    }
+
+    private static byte[] readAll(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = input.read(buffer)) > 0) {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+}
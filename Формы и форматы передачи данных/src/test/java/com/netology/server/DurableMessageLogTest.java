@@ -0,0 +1,120 @@
+package com.netology.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class DurableMessageLogTest {
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("message-log");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    private MessageStoreConfig smallSegments() {
+        return new MessageStoreConfig().setSegmentSize(16 * 1024).setFsyncPolicy(FsyncPolicy.OS).setRetentionBytes(0);
+    }
+
+    @Test
+    public void testMessagesSurviveReopen() throws IOException {
+        try (DurableMessageLog log = DurableMessageLog.open(directory, smallSegments())) {
+            for (int i = 1; i <= 2000; i++) {
+                log.append(i % 2 == 0 ? "author " + i : null, "сообщение " + i);
+            }
+            assertTrue(log.segmentCount() > 5);
+        }
+        try (DurableMessageLog log = DurableMessageLog.open(directory, smallSegments())) {
+            assertEquals(2000, log.lastId());
+            // Страница на стыке сегментов находится по индексу
+            List<Message> page = log.read(1234, 500);
+            assertEquals(500, page.size());
+            for (int i = 0; i < page.size(); i++) {
+                Message message = page.get(i);
+                long id = 1235 + i;
+                assertEquals(id, message.getId());
+                assertEquals("сообщение " + id, message.getText());
+                assertEquals(id % 2 == 0 ? "author " + id : null, message.getAuthor());
+            }
+            assertEquals(2001, log.append("a", "after reopen").getId());
+            assertEquals("after reopen", log.read(2000, 10).get(0).getText());
+        }
+    }
+
+    @Test
+    public void testRecordLargerThanReadBufferReturnsBuffersToPool() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) {
+            text.append((char) ('a' + i % 26));
+        }
+        try (DurableMessageLog log = DurableMessageLog.open(directory, new MessageStoreConfig().setFsyncPolicy(FsyncPolicy.OS))) {
+            log.append("a", "small");
+            log.append("a", text.toString());
+
+            BufferPool pool = BufferPool.shared();
+            long returned = pool.getRecycled() + pool.getDropped();
+            List<Message> messages = log.read(0, 10);
+            assertEquals(2, messages.size());
+            assertEquals(text.toString(), messages.get(1).getText());
+            // В пул вернулись и исходный буфер чтения, и больший, взятый под запись
+            assertEquals(2, pool.getRecycled() + pool.getDropped() - returned);
+        }
+    }
+
+    @Test
+    public void testTornTailIsTruncated() throws IOException {
+        try (DurableMessageLog log = DurableMessageLog.open(directory, smallSegments())) {
+            for (int i = 1; i <= 10; i++) {
+                log.append("a", "message " + i);
+            }
+            assertEquals(0, log.getTruncatedBytes());
+        }
+        // Запись, оборванная на середине
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.filter(file -> file.toString().endsWith(".log")).max(Comparator.naturalOrder()).get();
+        }
+        Files.write(segment, new byte[]{0, 0, 0, 40, 1, 2, 3, 4, 5}, StandardOpenOption.APPEND);
+
+        try (DurableMessageLog log = DurableMessageLog.open(directory, smallSegments())) {
+            assertEquals(10, log.lastId());
+            assertEquals(9, log.getTruncatedBytes());
+            log.append("a", "message 11");
+            List<Message> messages = log.read(8, 10);
+            assertEquals(3, messages.size());
+            assertEquals("message 11", messages.get(2).getText());
+        }
+    }
+
+    @Test
+    public void testRetentionDeletesOldSegments() throws IOException {
+        MessageStoreConfig config = smallSegments().setRetentionBytes(64 * 1024).setFsyncPolicy(FsyncPolicy.EVERY_WRITE);
+        try (DurableMessageLog log = DurableMessageLog.open(directory, config)) {
+            for (int i = 1; i <= 5000; i++) {
+                log.append("a", "message " + i);
+            }
+            assertTrue(log.segmentCount() <= 5);
+            long first = log.firstId();
+            assertTrue(first > 1);
+            List<Message> messages = new ArrayList<>(log.read(0, 10));
+            assertEquals(first, messages.get(0).getId());
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.netology.server;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class HeadersTest {
+
+    @Test
+    public void testNamesAreCaseInsensitive() throws IOException {
+        String requestData =
+            "POST /messages HTTP/1.1\r\n" +
+            "content-type: application/x-www-form-urlencoded\r\n" +
+            "CONTENT-LENGTH: 13\r\n" +
+            "x-request-id: 42\r\n" +
+            "\r\n" +
+            "message=Hello";
+
+        Request request = Request.fromInputStream(new ByteArrayInputStream(requestData.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals("application/x-www-form-urlencoded", request.getHeader("Content-Type"));
+        assertEquals("42", request.getHeader("X-Request-Id"));
+        // Известные заголовки получают каноническое имя
+        assertEquals("13", request.getHeadersView().get("Content-Length"));
+        assertEquals("Hello", request.getPostParam("message"));
+    }
+
+    @Test
+    public void testMultipleValues() {
+        Headers headers = new Headers();
+        headers.add("Accept", "text/html");
+        headers.add("X-Tag", "a");
+        headers.add("accept", "application/json");
+        headers.add("x-tag", "b");
+
+        assertEquals("text/html", headers.get("ACCEPT"));
+        assertEquals(Arrays.asList("text/html", "application/json"), headers.getAll("Accept"));
+        assertEquals(Arrays.asList("a", "b"), headers.getAll("X-Tag"));
+        assertEquals(Collections.emptyList(), headers.getAll("Host"));
+        assertEquals(4, headers.size());
+        assertEquals(2, headers.toMap().size());
+    }
+}
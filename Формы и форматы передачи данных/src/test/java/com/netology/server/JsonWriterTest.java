@@ -0,0 +1,60 @@
+package com.netology.server;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class JsonWriterTest {
+
+    @Test
+    public void testEscaping() {
+        JsonWriter json = new JsonWriter();
+        json.beginObject()
+            .name("text").value("say \"hi\"\\\n\t\u0001")
+            .name("unicode").value("Привет 😀")
+            .name("count").value(-42)
+            .name("ok").value(true)
+            .name("missing").value((String) null)
+            .endObject();
+
+        String result = new String(json.toByteArray(), StandardCharsets.UTF_8);
+        assertEquals("{\"text\":\"say \\\"hi\\\"\\\\\\n\\t\\u0001\",\"unicode\":\"Привет 😀\","
+                + "\"count\":-42,\"ok\":true,\"missing\":null}", result);
+    }
+
+    @Test
+    public void testPrettyNestedAndStreamValue() throws IOException {
+        JsonWriter json = new JsonWriter(true);
+        json.beginObject()
+            .name("items").beginArray().value(1).value(2).endArray()
+            .name("empty").beginObject().endObject()
+            .name("content").value(new ByteArrayInputStream("a\"б\r\n".getBytes(StandardCharsets.UTF_8)))
+            .endObject();
+
+        String result = new String(json.toByteArray(), StandardCharsets.UTF_8);
+        assertEquals("{\n  \"items\": [\n    1,\n    2\n  ],\n  \"empty\": {},\n  \"content\": \"a\\\"б\\r\\n\"\n}", result);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testValueWithoutName() {
+        new JsonWriter().beginObject().value("orphan");
+    }
+
+    @Test
+    public void testResponseBody() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Response response = new Response(output);
+        response.json().beginObject().name("message").value("Ёж").endObject();
+        response.send();
+
+        String result = new String(output.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(result.contains("Content-Type: application/json; charset=utf-8\r\n"));
+        // "Ёж" занимает 4 байта, всё тело - 18
+        assertTrue(result.contains("Content-Length: 18\r\n"));
+        assertTrue(result.endsWith("\r\n\r\n{\"message\":\"Ёж\"}"));
+    }
+}
@@ -0,0 +1,69 @@
+package com.netology.server;
+
+import org.junit.Assume;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ListenersTest {
+
+    @Test
+    public void testSingleAcceptorDoesNotReusePort() throws IOException {
+        ServerSocket[] sockets = Listeners.open(0, 1);
+        try {
+            assertEquals(1, sockets.length);
+            // Второй сокет на тот же порт без SO_REUSEPORT не открыть
+            try {
+                new ServerSocket(sockets[0].getLocalPort()).close();
+                fail("Port should be busy");
+            } catch (IOException expected) {
+                // Порт занят
+            }
+        } finally {
+            Listeners.close(sockets);
+        }
+    }
+
+    @Test
+    public void testConnectionsAreSpreadAcrossSockets() throws IOException {
+        Assume.assumeTrue(Listeners.isReusePortSupported());
+        ServerSocket[] sockets = Listeners.open(0, 2);
+        List<Socket> clients = new ArrayList<>();
+        try {
+            assertEquals(2, sockets.length);
+            assertEquals(sockets[0].getLocalPort(), sockets[1].getLocalPort());
+            for (int i = 0; i < 32; i++) {
+                clients.add(new Socket("localhost", sockets[0].getLocalPort()));
+            }
+            // Ядро раскладывает соединения по сокетам по хешу адресов: каждому достаётся часть, в сумме - все
+            int first = acceptAll(sockets[0]);
+            int second = acceptAll(sockets[1]);
+            assertEquals(32, first + second);
+            assertTrue(first > 0 && second > 0);
+        } finally {
+            for (Socket client : clients) {
+                client.close();
+            }
+            Listeners.close(sockets);
+        }
+    }
+
+    private static int acceptAll(ServerSocket socket) throws IOException {
+        socket.setSoTimeout(200);
+        int accepted = 0;
+        while (true) {
+            try {
+                socket.accept().close();
+                accepted++;
+            } catch (SocketTimeoutException e) {
+                return accepted;
+            }
+        }
+    }
+}
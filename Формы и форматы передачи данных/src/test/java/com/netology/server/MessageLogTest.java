@@ -0,0 +1,75 @@
+package com.netology.server;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class MessageLogTest {
+
+    @Test
+    public void testPagination() {
+        MessageLog log = new MessageLog();
+        for (int i = 1; i <= 50; i++) {
+            assertEquals(i, log.append("author", "message " + i).getId());
+        }
+        List<Message> page = log.read(10, 5);
+        assertEquals(5, page.size());
+        assertEquals(11, page.get(0).getId());
+        assertEquals("message 15", page.get(4).getText());
+        assertEquals(0, log.read(50, 5).size());
+        assertEquals(2, log.read(48, 100).size());
+    }
+
+    @Test
+    public void testOldChunksAreEvicted() {
+        MessageLog log = new MessageLog(2048);
+        for (int i = 0; i < 10_000; i++) {
+            log.append(null, "m" + i);
+        }
+        assertTrue(log.firstId() > 10_000 - 3 * 1024);
+        List<Message> page = log.read(0, 10);
+        assertEquals(log.firstId(), page.get(0).getId());
+        assertEquals(10_000, log.read(9_999, 10).get(0).getId());
+    }
+
+    @Test
+    public void testConcurrentWritersAndReaders() throws InterruptedException {
+        MessageLog log = new MessageLog();
+        int writers = 4;
+        int perWriter = 20_000;
+        AtomicBoolean broken = new AtomicBoolean();
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < perWriter; i++) {
+                    log.append("w", "m");
+                }
+            }));
+        }
+        Thread reader = new Thread(() -> {
+            // Читатель идёт страницами и не должен увидеть пропусков в номерах
+            long last = 0;
+            while (last < writers * perWriter) {
+                for (Message message : log.read(last, 100)) {
+                    if (message.getId() != last + 1) {
+                        broken.set(true);
+                        return;
+                    }
+                    last = message.getId();
+                }
+            }
+        });
+        threads.forEach(Thread::start);
+        reader.start();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        reader.join(10_000);
+        assertFalse(reader.isAlive());
+        assertFalse(broken.get());
+        assertEquals(writers * perWriter, log.lastId());
+    }
+}
@@ -0,0 +1,69 @@
+package com.netology.server;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+public class MetricsTest {
+
+    @Test
+    public void testHistogramBuckets() {
+        // Значения до 8 хранятся точно, дальше - 8 корзин на степень двойки
+        assertEquals(7, LatencyHistogram.index(7));
+        assertEquals(8, LatencyHistogram.index(8));
+        assertEquals(16, LatencyHistogram.index(16));
+        assertEquals(16, LatencyHistogram.index(17));
+        assertEquals(17, LatencyHistogram.index(18));
+        for (int i = 0; i < LatencyHistogram.BUCKETS - 1; i++) {
+            assertEquals(i, LatencyHistogram.index(LatencyHistogram.lowerBound(i)));
+            assertEquals(i, LatencyHistogram.index(LatencyHistogram.lowerBound(i + 1) - 1));
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.index(Long.MAX_VALUE));
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 100);
+        }
+        long p50 = histogram.percentile(0.5);
+        long p99 = histogram.percentile(0.99);
+        assertTrue(p50 >= 50_000 && p50 <= 50_000 * 1.125);
+        assertTrue(p99 >= 99_000 && p99 <= 99_000 * 1.125);
+        assertEquals(1000, histogram.getCount());
+    }
+
+    @Test
+    public void testPrometheusOutput() throws IOException {
+        RequestHandler handler = new RequestHandler(new ServerConfig());
+        handler.addHandler("GET", "/messages/{id}", (request, response) -> response.setBody("ok").send());
+        handler.addHandler("GET", "/metrics", new MetricsHandler(handler.getMetrics()));
+
+        dispatch(handler, "GET", "/messages/1");
+        dispatch(handler, "GET", "/messages/2");
+        dispatch(handler, "POST", "/messages/3");
+        dispatch(handler, "GET", "/missing");
+        String metrics = dispatch(handler, "GET", "/metrics");
+
+        assertTrue(metrics.contains("Content-Type: text/plain; version=0.0.4; charset=utf-8\r\n"));
+        // Метка route - шаблон маршрута, а не сам путь
+        assertTrue(metrics.contains("http_requests_total{route=\"/messages/{id}\",method=\"GET\",status=\"200\"} 2\n"));
+        assertTrue(metrics.contains("http_requests_total{route=\"/messages/{id}\",method=\"POST\",status=\"405\"} 1\n"));
+        assertTrue(metrics.contains("http_requests_total{route=\"unmatched\",method=\"GET\",status=\"404\"} 1\n"));
+        assertTrue(metrics.contains("# TYPE http_request_duration_seconds histogram\n"));
+        assertTrue(metrics.contains("http_request_duration_seconds_bucket{route=\"/messages/{id}\",method=\"GET\",le=\"0.000128\"}"));
+        assertTrue(metrics.contains("http_request_duration_seconds_bucket{route=\"/messages/{id}\",method=\"GET\",le=\"+Inf\"} 2\n"));
+        assertTrue(metrics.contains("http_request_duration_seconds_count{route=\"/messages/{id}\",method=\"GET\"} 2\n"));
+        // Сам запрос /metrics ещё выполняется
+        assertTrue(metrics.contains("http_requests_in_flight 1\n"));
+        assertTrue(metrics.contains("# TYPE buffer_pool_hits_total counter\nbuffer_pool_hits_total{kind=\"heap\"} "));
+        assertEquals(0, handler.getMetrics().getInFlight());
+    }
+
+    private static String dispatch(RequestHandler handler, String method, String path) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        handler.dispatch(new Request(method, path, new HashMap<>(), null), new Response(output));
+        return output.toString("UTF-8");
+    }
+}
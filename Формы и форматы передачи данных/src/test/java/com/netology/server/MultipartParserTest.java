@@ -0,0 +1,195 @@
+package com.netology.server;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MultipartParserTest {
+    private static final String BOUNDARY = "----WebKitFormBoundary7MA4YWxkTrZu0gW";
+
+    @Test
+    public void testBinaryContentIsPreserved() throws IOException {
+        byte[] binary = new byte[256];
+        for (int i = 0; i < binary.length; i++) {
+            binary[i] = (byte) i;
+        }
+        byte[] body = multipart(binary);
+
+        Map<String, Part> parts = byName(new MultipartParser(BOUNDARY, 1024, (Path) null).parse(new ByteArrayInputStream(body)));
+
+        Part file = parts.get("file");
+        assertNotNull(file);
+        assertEquals("data.bin", file.getFilename());
+        assertEquals("application/octet-stream", file.getContentType());
+        assertTrue(file.isInMemory());
+        assertArrayEquals(binary, file.getContent());
+        assertEquals("Hello World", parts.get("message").getStringContent());
+    }
+
+    @Test
+    public void testLargePartIsSpilledToDisk() throws IOException {
+        byte[] binary = new byte[100_000];
+        for (int i = 0; i < binary.length; i++) {
+            binary[i] = (byte) (i * 31);
+        }
+        Path directory = Files.createTempDirectory("multipart-test");
+        try {
+            Map<String, Part> parts = byName(new MultipartParser(BOUNDARY, 4096, directory)
+                    .parse(new OneByteInputStream(multipart(binary))));
+
+            Part file = parts.get("file");
+            assertFalse(file.isInMemory());
+            assertEquals(binary.length, file.getSize());
+            assertArrayEquals(binary, readAll(file.getInputStream()));
+            assertTrue(parts.get("message").isInMemory());
+
+            file.delete();
+            try (java.util.stream.Stream<Path> files = Files.list(directory)) {
+                assertEquals(0, files.count());
+            }
+        } finally {
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    @Test
+    public void testStoredPartIsMappedAndMoved() throws IOException {
+        byte[] binary = new byte[200_000];
+        for (int i = 0; i < binary.length; i++) {
+            binary[i] = (byte) (i * 7);
+        }
+        Path directory = Files.createTempDirectory("multipart-test");
+        Path destination = directory.resolve("saved.bin");
+        UploadStore store = new UploadStore(directory.resolve("spool"));
+        try {
+            Map<String, Part> parts = byName(new MultipartParser(BOUNDARY, 4096, store)
+                    .parse(new ByteArrayInputStream(multipart(binary))));
+            Part file = parts.get("file");
+            assertEquals(1, store.getFiles());
+            assertEquals(binary.length, store.getBytes());
+
+            ByteBuffer mapped = file.map();
+            assertTrue(mapped.isReadOnly());
+            byte[] copy = new byte[mapped.remaining()];
+            mapped.get(copy);
+            assertArrayEquals(binary, copy);
+
+            // Перенесённый файл принадлежит обработчику и при очистке запроса не удаляется
+            Path spooled = file.getPath();
+            assertEquals(destination, file.moveTo(destination));
+            assertFalse(Files.exists(spooled));
+            file.delete();
+            assertEquals(0, store.getFiles());
+            assertArrayEquals(binary, Files.readAllBytes(destination));
+            assertArrayEquals(binary, readAll(file.getInputStream()));
+        } finally {
+            Files.deleteIfExists(destination);
+            Files.deleteIfExists(directory.resolve("spool"));
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    @Test
+    public void testPartsWithSameNameAreAllKeptAndDeleted() throws IOException {
+        byte[] first = new byte[10_000];
+        byte[] second = new byte[20_000];
+        Arrays.fill(first, (byte) 1);
+        Arrays.fill(second, (byte) 2);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (byte[] content : new byte[][]{first, second}) {
+            body.write(("--" + BOUNDARY + "\r\n" +
+                    "Content-Disposition: form-data; name=\"files\"; filename=\"" + content[0] + ".bin\"\r\n" +
+                    "\r\n").getBytes(StandardCharsets.UTF_8));
+            body.write(content);
+            body.write("\r\n".getBytes(StandardCharsets.UTF_8));
+        }
+        body.write(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+
+        Path directory = Files.createTempDirectory("multipart-test");
+        ServerConfig config = new ServerConfig().setMultipartMemoryThreshold(4096).setUploadDirectory(directory);
+        RequestBuffer buffer = new RequestBuffer(config);
+        try {
+            buffer.append(ByteBuffer.wrap(("POST /upload HTTP/1.1\r\n" +
+                    "Content-Type: multipart/form-data; boundary=" + BOUNDARY + "\r\n" +
+                    "Content-Length: " + body.size() + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII)));
+            buffer.append(ByteBuffer.wrap(body.toByteArray()));
+            Request request = buffer.poll();
+
+            // <input type="file" multiple>: обе части доступны, по имени - последняя
+            List<Part> files = request.getParts("files");
+            assertEquals(2, files.size());
+            assertArrayEquals(first, files.get(0).getContent());
+            assertArrayEquals(second, files.get(1).getContent());
+            assertSame(files.get(1), request.getPart("files"));
+            assertFalse(files.get(0).isInMemory());
+
+            // Файлы обеих частей удаляются вместе с запросом
+            request.cleanup();
+            UploadStore store = config.getUploadStore();
+            assertEquals(0, store.getFiles());
+            assertEquals(0, store.getBytes());
+            try (java.util.stream.Stream<Path> left = Files.list(directory)) {
+                assertEquals(0, left.count());
+            }
+        } finally {
+            buffer.release();
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static Map<String, Part> byName(List<Part> parts) {
+        Map<String, Part> result = new HashMap<>();
+        for (Part part : parts) {
+            result.put(part.getName(), part);
+        }
+        return result;
+    }
+
+    private static byte[] multipart(byte[] fileContent) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(("--" + BOUNDARY + "\r\n" +
+                "Content-Disposition: form-data; name=\"message\"\r\n" +
+                "\r\n" +
+                "Hello World\r\n" +
+                "--" + BOUNDARY + "\r\n" +
+                "Content-Disposition: form-data; name=\"file\"; filename=\"data.bin\"\r\n" +
+                "Content-Type: application/octet-stream\r\n" +
+                "\r\n").getBytes(StandardCharsets.UTF_8));
+        out.write(fileContent);
+        out.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        return out.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        try (InputStream in = inputStream) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            in.transferTo(out);
+            return out.toByteArray();
+        }
+    }
+
+    // Отдаёт данные по одному байту, чтобы граница гарантированно попадала на стык чтений
+    private static final class OneByteInputStream extends FilterInputStream {
+        OneByteInputStream(byte[] data) {
+            super(new ByteArrayInputStream(data));
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, 1));
+        }
+    }
+}
@@ -17,7 +17,7 @@ public class MultipartTest {
             "POST /messages HTTP/1.1\r\n" +
             "Host: localhost:9999\r\n" +
             "Content-Type: multipart/form-data; boundary=" + boundary + "\r\n" +
-            "Content-Length: 300\r\n" +
+            "Content-Length: 411\r\n" +
             "\r\n" +
             "--" + boundary + "\r\n" +
             "Content-Disposition: form-data; name=\"message\"\r\n" +
@@ -0,0 +1,381 @@
+package com.netology.server;
+
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class NioTransportTest {
+    private HttpServer server;
+    private int port;
+
+    @After
+    public void stopServer() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testManyPipelinedAsyncRequests() throws Exception {
+        CompletableFuture<Void> release = new CompletableFuture<>();
+        start(server -> {
+            server.addAsyncHandler("GET", "/slow", (request, response) -> release.thenRun(() -> {
+                try {
+                    response.setBody("slow" + request.getQueryParam("n")).send();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+            server.addHandler("GET", "/fast", (request, response) -> response.setBody("fast").send());
+        });
+
+        // Больше запросов, чем ответов может ждать в очереди соединения
+        int count = 100;
+        try (Socket client = connect()) {
+            StringBuilder requests = new StringBuilder();
+            for (int i = 0; i < count; i++) {
+                requests.append("GET /slow?n=").append(i).append(" HTTP/1.1\r\nHost: localhost\r\n")
+                        .append(i == count - 1 ? "Connection: close\r\n" : "").append("\r\n");
+            }
+            client.getOutputStream().write(requests.toString().getBytes(StandardCharsets.US_ASCII));
+            Thread.sleep(200);
+
+            // Event loop жив и обслуживает другие соединения
+            try (Socket other = connect()) {
+                other.getOutputStream().write(get("/fast", "close"));
+                assertTrue(readAll(other).endsWith("fast"));
+            }
+
+            release.complete(null);
+            String[] responses = readAll(client).split("HTTP/1\\.1 200 OK\r\n");
+            assertEquals(count + 1, responses.length);
+            for (int i = 0; i < count; i++) {
+                assertTrue("response " + i, responses[i + 1].endsWith("\r\n\r\nslow" + i));
+            }
+        }
+    }
+
+    @Test
+    public void testPipelinedRequestsAnsweredInOrder() throws Exception {
+        start(server -> server.addHandler("GET", "/echo",
+            (request, response) -> response.setBody("echo" + request.getQueryParam("n")).send()));
+
+        int count = 50;
+        try (Socket client = connect()) {
+            // Все запросы одной записью: event loop разбирает их из одного буфера
+            ByteArrayOutputStream requests = new ByteArrayOutputStream();
+            for (int i = 0; i < count; i++) {
+                requests.write(get("/echo?n=" + i, i == count - 1 ? "close" : "keep-alive"));
+            }
+            client.getOutputStream().write(requests.toByteArray());
+
+            String[] responses = readAll(client).split("HTTP/1\\.1 200 OK\r\n");
+            assertEquals(count + 1, responses.length);
+            for (int i = 0; i < count; i++) {
+                assertTrue("response " + i, responses[i + 1].endsWith("\r\n\r\necho" + i));
+            }
+        }
+    }
+
+    @Test
+    public void testKeepAliveConnectionServesSequentialRequests() throws Exception {
+        start(server -> server.addHandler("GET", "/echo",
+            (request, response) -> response.setBody("echo" + request.getQueryParam("n")).send()));
+
+        try (Socket client = connect()) {
+            for (int i = 0; i < 5; i++) {
+                client.getOutputStream().write(get("/echo?n=" + i, "keep-alive"));
+                String response = readResponse(client.getInputStream());
+                assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n"));
+                assertTrue(response.endsWith("echo" + i));
+            }
+            // После Connection: close сервер закрывает соединение сам
+            client.getOutputStream().write(get("/echo?n=last", "close"));
+            assertTrue(readResponse(client.getInputStream()).endsWith("echolast"));
+            assertEquals(-1, client.getInputStream().read());
+        }
+    }
+
+    @Test
+    public void testRequestArrivingInPieces() throws Exception {
+        start(server -> server.addHandler("POST", "/echo",
+            (request, response) -> response.setBody(request.getMethod() + " " + request.getBody()).send()));
+
+        byte[] request = ("POST /echo HTTP/1.1\r\nHost: localhost\r\nContent-Length: 11\r\nConnection: close\r\n\r\nhello world")
+            .getBytes(StandardCharsets.US_ASCII);
+        try (Socket client = connect()) {
+            client.setTcpNoDelay(true);
+            OutputStream output = client.getOutputStream();
+            // Разрывы посреди стартовой строки, заголовка, перед пустой строкой и посреди тела
+            int[] cuts = {3, 20, 45, 70, request.length - 4, request.length};
+            int from = 0;
+            for (int cut : cuts) {
+                output.write(request, from, cut - from);
+                output.flush();
+                from = cut;
+                Thread.sleep(50);
+            }
+            assertTrue(readAll(client).endsWith("POST hello world"));
+        }
+    }
+
+    @Test
+    public void testLargeResponseToSlowReader() throws Exception {
+        byte[] body = new byte[8 * 1024 * 1024];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) ('a' + i % 26);
+        }
+        start(server -> {
+            server.addHandler("GET", "/large", (request, response) -> response.setBody(body).send());
+            server.addHandler("GET", "/fast", (request, response) -> response.setBody("fast").send());
+        });
+
+        try (Socket client = new Socket()) {
+            // Маленький приёмный буфер: сокет сервера переполняется, и ответ уходит частичными записями
+            client.setReceiveBufferSize(4096);
+            client.setSoTimeout(5000);
+            client.connect(new InetSocketAddress("localhost", port));
+            client.getOutputStream().write(get("/large", "close"));
+
+            InputStream input = client.getInputStream();
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            for (int i = 0; i < 20; i++) {
+                received.write(buffer, 0, input.read(buffer));
+                Thread.sleep(10);
+            }
+
+            // Пока ответ ждёт читателя, event loop обслуживает другие соединения
+            try (Socket other = connect()) {
+                other.getOutputStream().write(get("/fast", "close"));
+                assertTrue(readAll(other).endsWith("fast"));
+            }
+
+            int read;
+            while ((read = input.read(buffer)) > 0) {
+                received.write(buffer, 0, read);
+            }
+            String response = new String(received.toByteArray(), StandardCharsets.US_ASCII);
+            int headEnd = response.indexOf("\r\n\r\n") + 4;
+            assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n"));
+            assertEquals(new String(body, StandardCharsets.US_ASCII), response.substring(headEnd));
+        }
+    }
+
+    @Test
+    public void testBadRequestClosesConnection() throws Exception {
+        start(server -> server.addHandler("GET", "/echo", (request, response) -> response.setBody("echo").send()));
+
+        try (Socket client = connect()) {
+            // Запрос после испорченного не обрабатывается: граница между ними уже неизвестна
+            client.getOutputStream().write("NONSENSE\r\n\r\nGET /echo HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            String response = readAll(client);
+            assertTrue(response.startsWith("HTTP/1.1 400 Bad Request\r\n"));
+            assertTrue(response.contains("Connection: close\r\n"));
+            assertFalse(response.contains("echo"));
+        }
+    }
+
+    @Test
+    public void testClientDisconnectClosesConnection() throws Exception {
+        start(server -> {
+            server.addHandler("GET", "/echo", (request, response) -> response.setBody("echo").send());
+            server.enableMetrics("/metrics");
+        });
+
+        // Клиенты уходят посреди запроса и посреди тела
+        try (Socket client = connect()) {
+            client.getOutputStream().write("GET /ec".getBytes(StandardCharsets.US_ASCII));
+        }
+        try (Socket client = connect()) {
+            client.getOutputStream().write("POST /echo HTTP/1.1\r\nContent-Length: 100\r\n\r\nabc".getBytes(StandardCharsets.US_ASCII));
+        }
+        // И после ответа на keep-alive соединении
+        try (Socket client = connect()) {
+            client.getOutputStream().write(get("/echo", "keep-alive"));
+            assertTrue(readResponse(client.getInputStream()).endsWith("echo"));
+        }
+
+        // Открытым остаётся только соединение, которое запрашивает метрики
+        String openConnections = null;
+        for (int attempt = 0; attempt < 50; attempt++) {
+            try (Socket client = connect()) {
+                client.getOutputStream().write(get("/metrics", "close"));
+                openConnections = metric(readAll(client), "http_connections_open");
+            }
+            if ("1".equals(openConnections)) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+        assertEquals("1", openConnections);
+    }
+
+    @Test
+    public void testHttp10StreamEndsWithClose() throws Exception {
+        start(server -> {
+            server.addHandler("GET", "/stream", (request, response) -> {
+                try (OutputStream stream = response.stream()) {
+                    stream.write("part1 ".getBytes(StandardCharsets.US_ASCII));
+                    stream.flush();
+                    stream.write("part2".getBytes(StandardCharsets.US_ASCII));
+                }
+            });
+            server.addAsyncHandler("GET", "/async-stream", (request, response) -> CompletableFuture.runAsync(() -> {
+                try (OutputStream stream = response.stream()) {
+                    stream.write("async".getBytes(StandardCharsets.US_ASCII));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+            server.addHandler("GET", "/echo", (request, response) -> response.setBody("echo").send());
+        });
+
+        for (String path : new String[]{"/stream", "/async-stream"}) {
+            try (Socket client = connect()) {
+                // Клиент HTTP/1.0 просит keep-alive, но тело без длины кончается только закрытием соединения;
+                // конвейерный запрос за ним остаётся без ответа
+                client.getOutputStream().write(("GET " + path + " HTTP/1.0\r\nConnection: keep-alive\r\n\r\n"
+                    + "GET /echo HTTP/1.0\r\nConnection: keep-alive\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                String response = readAll(client);
+                assertTrue(response, response.startsWith("HTTP/1.1 200 OK\r\n"));
+                assertFalse(response.contains("Transfer-Encoding"));
+                assertTrue(response.contains("\r\nConnection: close\r\n"));
+                assertTrue(response, response.endsWith("\r\n\r\n" + (path.equals("/stream") ? "part1 part2" : "async")));
+            }
+        }
+    }
+
+    @Test
+    public void testStopClosesEveryConnectionOnce() throws Exception {
+        start(server -> server.addHandler("GET", "/echo", (request, response) -> response.setBody("echo").send()));
+
+        Socket[] idle = new Socket[5];
+        for (int i = 0; i < idle.length; i++) {
+            idle[i] = connect();
+            idle[i].getOutputStream().write(get("/echo", "keep-alive"));
+            assertTrue(readResponse(idle[i].getInputStream()).endsWith("echo"));
+        }
+        try {
+            // Соединения закрываются сервером в момент остановки: их отменённые ключи ещё в selector.keys()
+            AtomicBoolean stopping = new AtomicBoolean();
+            Thread closer = new Thread(() -> {
+                while (!stopping.get()) {
+                    try (Socket closing = connect()) {
+                        closing.getOutputStream().write(get("/echo", "close"));
+                        readAll(closing);
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            });
+            closer.start();
+            Thread.sleep(200);
+            server.stop();
+            stopping.set(true);
+            closer.join(2000);
+            Metrics metrics = server.getMetrics();
+            for (int attempt = 0; attempt < 50 && metrics.getConnections() != 0; attempt++) {
+                Thread.sleep(20);
+            }
+            Thread.sleep(100);
+            assertEquals(0, metrics.getConnections());
+        } finally {
+            for (Socket socket : idle) {
+                socket.close();
+            }
+            server = null;
+        }
+    }
+
+    interface Setup {
+        void apply(HttpServer server);
+    }
+
+    private void start(Setup setup) throws Exception {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        server = new HttpServer(port, new ServerConfig().setMode(ServerMode.NIO).setEventLoops(1));
+        setup.apply(server);
+        new Thread(server::start, "nio-test-server").start();
+        // Ждём, пока сервер начнёт принимать соединения
+        for (int attempt = 0; ; attempt++) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch (IOException e) {
+                if (attempt == 50) {
+                    throw e;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket("localhost", port);
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private static byte[] get(String path, String connection) {
+        return ("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: " + connection + "\r\n\r\n")
+            .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // Читает один ответ с Content-Length, не дожидаясь закрытия соединения
+    private static String readResponse(InputStream input) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        while (!head.toString("US-ASCII").endsWith("\r\n\r\n")) {
+            int b = input.read();
+            if (b < 0) {
+                throw new IOException("Connection closed before response head");
+            }
+            head.write(b);
+        }
+        String text = head.toString("US-ASCII");
+        int start = text.toLowerCase().indexOf("content-length: ") + "content-length: ".length();
+        int length = Integer.parseInt(text.substring(start, text.indexOf("\r\n", start)));
+        byte[] body = new byte[length];
+        for (int offset = 0; offset < length; ) {
+            int read = input.read(body, offset, length - offset);
+            if (read < 0) {
+                throw new IOException("Connection closed before response body");
+            }
+            offset += read;
+        }
+        return text + new String(body, StandardCharsets.UTF_8);
+    }
+
+    private static String metric(String text, String name) {
+        for (String line : text.split("\n")) {
+            if (line.startsWith(name + " ")) {
+                return line.substring(name.length() + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    private static String readAll(Socket socket) throws IOException {
+        InputStream input = socket.getInputStream();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = input.read(buffer)) > 0) {
+            output.write(buffer, 0, read);
+        }
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
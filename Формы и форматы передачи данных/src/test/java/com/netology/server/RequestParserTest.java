@@ -0,0 +1,219 @@
+package com.netology.server;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class RequestParserTest {
+
+    @Test
+    public void testUtf8BodyReadByContentLengthInBytes() throws IOException {
+        String text = "Привет, мир";
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        String requestData =
+            "POST /messages HTTP/1.1\r\n" +
+            "content-type: text/plain; charset=utf-8\r\n" +
+            "content-length: " + body.length + "\r\n" +
+            "\r\n";
+
+        RequestBuffer buffer = new RequestBuffer(new ServerConfig());
+        buffer.append(ByteBuffer.wrap(requestData.getBytes(StandardCharsets.US_ASCII)));
+        buffer.append(ByteBuffer.wrap(body));
+        buffer.append(ByteBuffer.wrap("GET / HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII)));
+
+        Request request = buffer.poll();
+        assertNotNull(request);
+        assertEquals(text, request.getBody());
+        assertArrayEquals(body, request.getBodyBytes());
+
+        // Следующий запрос не должен пострадать от чтения тела
+        assertEquals("/", buffer.poll().getPath());
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void testPipelinedRequestsAreParsedSeparately() throws IOException {
+        String requestData =
+            "GET /messages?last=1 HTTP/1.1\r\n" +
+            "Host: localhost\r\n" +
+            "\r\n" +
+            "GET /messages?last=2 HTTP/1.0\r\n" +
+            "Connection: keep-alive\r\n" +
+            "\r\n" +
+            "GET /mess";
+
+        RequestBuffer buffer = new RequestBuffer(new ServerConfig());
+        buffer.append(ByteBuffer.wrap(requestData.getBytes(StandardCharsets.US_ASCII)));
+
+        Request first = buffer.poll();
+        assertEquals("1", first.getQueryParam("last"));
+        assertEquals("HTTP/1.1", first.getProtocol());
+
+        Request second = buffer.poll();
+        assertEquals("2", second.getQueryParam("last"));
+        assertEquals("HTTP/1.0", second.getProtocol());
+        assertTrue(second.isKeepAlive());
+
+        // Третий запрос ещё не получен целиком
+        assertNull(buffer.poll());
+        assertFalse(buffer.isEmpty());
+    }
+
+    @Test
+    public void testBodyArrivingInPieces() throws IOException {
+        RequestBuffer buffer = new RequestBuffer(new ServerConfig());
+        buffer.append(ByteBuffer.wrap("POST /messages HTTP/1.1\r\nContent-Length: 5\r\n\r\nab".getBytes(StandardCharsets.US_ASCII)));
+        assertNull(buffer.poll());
+
+        buffer.append(ByteBuffer.wrap("cde".getBytes(StandardCharsets.US_ASCII)));
+        Request request = buffer.poll();
+        assertEquals("abcde", request.getBody());
+    }
+
+    @Test
+    public void testHeaderValuesAreTrimmed() throws IOException {
+        String requestData =
+            "GET /messages HTTP/1.1\r\n" +
+            "Host:   localhost:9999  \r\n" +
+            "\r\n";
+
+        Request request = Request.fromInputStream(new ByteArrayInputStream(requestData.getBytes(StandardCharsets.US_ASCII)));
+
+        assertEquals("GET", request.getMethod());
+        assertEquals("localhost:9999", request.getHeaders().get("Host"));
+    }
+
+    @Test
+    public void testTransferEncodingIsRejected() throws IOException {
+        RequestBuffer buffer = new RequestBuffer(new ServerConfig());
+        buffer.append(ByteBuffer.wrap(("POST /messages HTTP/1.1\r\nContent-Length: 5\r\nTransfer-Encoding: chunked\r\n\r\n"
+            + "0\r\n\r\nGET /admin HTTP/1.1\r\n\r\n").getBytes(StandardCharsets.US_ASCII)));
+        try {
+            buffer.poll();
+            fail("Expected HttpException");
+        } catch (HttpException e) {
+            assertEquals(501, e.getStatusCode());
+        }
+
+        // Имя заголовка без учёта регистра; клиент получает 501
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        RequestBuffer lowercase = new RequestBuffer(new ServerConfig());
+        lowercase.append(ByteBuffer.wrap("POST /messages HTTP/1.1\r\ntransfer-encoding: gzip\r\n\r\n".getBytes(StandardCharsets.US_ASCII)));
+        try {
+            lowercase.poll();
+            fail("Expected HttpException");
+        } catch (HttpException e) {
+            new RequestHandler().sendBadRequest(new Response(output), e);
+        }
+        assertTrue(output.toString("UTF-8").startsWith("HTTP/1.1 501 Not Implemented\r\n"));
+    }
+
+    @Test
+    public void testConflictingContentLength() throws IOException {
+        RequestBuffer buffer = new RequestBuffer(new ServerConfig());
+        buffer.append(ByteBuffer.wrap("POST /messages HTTP/1.1\r\nContent-Length: 3\r\nContent-Length: 5\r\n\r\nabcde"
+            .getBytes(StandardCharsets.US_ASCII)));
+        try {
+            buffer.poll();
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertFalse(e instanceof HttpException);
+            assertEquals("Conflicting Content-Length headers", e.getMessage());
+        }
+
+        // Одинаковые повторы допустимы
+        RequestBuffer repeated = new RequestBuffer(new ServerConfig());
+        repeated.append(ByteBuffer.wrap("POST /messages HTTP/1.1\r\nContent-Length: 5\r\ncontent-length: 5\r\n\r\nabcde"
+            .getBytes(StandardCharsets.US_ASCII)));
+        assertEquals("abcde", repeated.poll().getBody());
+    }
+
+    @Test
+    public void testBodyOverLimitIsRejectedBeforeItArrives() throws IOException {
+        RequestBuffer buffer = new RequestBuffer(new ServerConfig().setMaxRequestBodySize(1024));
+        buffer.append(ByteBuffer.wrap("POST /messages HTTP/1.1\r\nContent-Length: 1025\r\n\r\n".getBytes(StandardCharsets.US_ASCII)));
+        try {
+            buffer.poll();
+            fail("Expected HttpException");
+        } catch (HttpException e) {
+            assertEquals(413, e.getStatusCode());
+        }
+
+        // Ровно на пределе - обычный запрос
+        RequestBuffer exact = new RequestBuffer(new ServerConfig().setMaxRequestBodySize(5));
+        exact.append(ByteBuffer.wrap("POST /messages HTTP/1.1\r\nContent-Length: 5\r\n\r\nabcde".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals("abcde", exact.poll().getBody());
+    }
+
+    @Test
+    public void testLargeMultipartBodyIsSpooledAsItArrives() throws IOException {
+        byte[] file = new byte[300_000];
+        for (int i = 0; i < file.length; i++) {
+            file[i] = (byte) (i * 13);
+        }
+        String boundary = "XyZ";
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(("--" + boundary + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"a.bin\"\r\n\r\n")
+            .getBytes(StandardCharsets.US_ASCII));
+        body.write(file);
+        body.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        byte[] head = ("POST /upload HTTP/1.1\r\nContent-Type: multipart/form-data; boundary=" + boundary + "\r\n"
+            + "Content-Length: " + body.size() + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] next = "GET / HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+        Path directory = Files.createTempDirectory("request-spool");
+        ServerConfig config = new ServerConfig().setMultipartMemoryThreshold(4096).setUploadDirectory(directory);
+        UploadStore store = config.getUploadStore();
+        RequestBuffer buffer = new RequestBuffer(config);
+        try {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            stream.write(head);
+            stream.write(body.toByteArray());
+            stream.write(next);
+            byte[] bytes = stream.toByteArray();
+
+            // Тело приходит порциями, за которыми сразу следует конвейерный запрос
+            Request request = null;
+            for (int offset = 0; offset < bytes.length; offset += 8192) {
+                buffer.append(ByteBuffer.wrap(bytes, offset, Math.min(8192, bytes.length - offset)));
+                if (request == null) {
+                    request = buffer.poll();
+                }
+                if (request == null) {
+                    // Полученная часть тела уже на диске, а не в буфере соединения
+                    assertEquals(1, store.getFiles());
+                    assertEquals(offset + 8192 - head.length, store.getBytes());
+                }
+            }
+            assertNotNull(request);
+            assertEquals(body.size(), store.getBytes());
+            assertArrayEquals(body.toByteArray(), request.getBodyBytes());
+
+            Part part = request.getPart("file");
+            assertFalse(part.isInMemory());
+            assertArrayEquals(file, part.getContent());
+
+            request.cleanup();
+            assertEquals(0, store.getFiles());
+            assertEquals(0, store.getBytes());
+            assertEquals("/", buffer.poll().getPath());
+            assertTrue(buffer.isEmpty());
+        } finally {
+            buffer.release();
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidRequestLine() throws IOException {
+        String requestData = "GET /messages\r\n\r\n";
+        Request.fromInputStream(new ByteArrayInputStream(requestData.getBytes(StandardCharsets.US_ASCII)));
+    }
+}
@@ -91,4 +91,30 @@ public class RequestTest {
         assertEquals("John Doe", request.getQueryParam("name"));
         assertEquals("Moscow", request.getQueryParam("city"));
     }
-} 
\ No newline at end of file
+
+    @Test
+    public void testHeaderLookupAndViews() throws IOException {
+        String requestData = 
+            "GET /messages?last=10 HTTP/1.1\r\n" +
+            "Host: localhost:9999\r\n" +
+            "Accept: application/json\r\n" +
+            "\r\n";
+        
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(requestData.getBytes(StandardCharsets.UTF_8));
+        Request request = Request.fromInputStream(inputStream);
+        
+        assertEquals("application/json", request.getHeader("accept"));
+        assertNull(request.getHeader("Content-Type"));
+        
+        // Представления не копируются и не допускают изменений
+        assertSame(request.getQueryParamsView(), request.getQueryParamsView());
+        assertSame(request.getHeadersView(), request.getHeadersView());
+        assertEquals("10", request.getQueryParamsView().get("last"));
+        try {
+            request.getHeadersView().put("X-Test", "1");
+            fail("Headers view must be read-only");
+        } catch (UnsupportedOperationException e) {
+            // Ожидаемо
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.netology.server;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ResponseCacheTest {
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private RequestHandler handler() {
+        RequestHandler handler = new RequestHandler(new ServerConfig());
+        handler.addHandler("GET", "/messages", (request, response) -> {
+            calls.incrementAndGet();
+            response.json().beginObject()
+                .name("last").value(request.getQueryParam("last"))
+                .name("calls").value(calls.get())
+                .endObject();
+            response.send();
+        });
+        handler.addHandler("POST", "/messages", (request, response) -> response.setStatus(201, "Created").send());
+        handler.enableCache("/messages");
+        return handler;
+    }
+
+    private static String exchange(RequestHandler handler, String method, String path, Map<String, String> headers)
+            throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        handler.dispatch(new Request(method, path, headers, null), new Response(output));
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String etag(String response) {
+        int start = response.indexOf("ETag: ") + "ETag: ".length();
+        return response.substring(start, response.indexOf("\r\n", start));
+    }
+
+    @Test
+    public void testHitAndNotModified() throws IOException {
+        RequestHandler handler = handler();
+        String first = exchange(handler, "GET", "/messages?last=1&limit=5", new HashMap<>());
+        assertTrue(first.startsWith("HTTP/1.1 200 OK\r\n"));
+        assertTrue(first.endsWith("{\"last\":\"1\",\"calls\":1}"));
+
+        // Порядок параметров не важен, обработчик не вызывается повторно
+        String second = exchange(handler, "GET", "/messages?limit=5&last=1", new HashMap<>());
+        assertEquals(1, calls.get());
+        assertEquals(first, second);
+
+        Map<String, String> headers = new HashMap<>();
+        headers.put("If-None-Match", etag(first));
+        String notModified = exchange(handler, "GET", "/messages?last=1&limit=5", headers);
+        assertTrue(notModified.startsWith("HTTP/1.1 304 Not Modified\r\n"));
+        assertTrue(notModified.contains("ETag: " + etag(first) + "\r\n"));
+        assertFalse(notModified.contains("Content-Length"));
+        assertTrue(notModified.endsWith("\r\n\r\n"));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testPostInvalidates() throws IOException {
+        RequestHandler handler = handler();
+        String first = exchange(handler, "GET", "/messages?last=1", new HashMap<>());
+        assertTrue(exchange(handler, "POST", "/messages", new HashMap<>()).startsWith("HTTP/1.1 201 Created\r\n"));
+
+        String second = exchange(handler, "GET", "/messages?last=1", new HashMap<>());
+        assertEquals(2, calls.get());
+        assertTrue(second.endsWith("\"calls\":2}"));
+        assertNotEquals(etag(first), etag(second));
+    }
+
+    @Test
+    public void testEvictionByBytes() {
+        ResponseCache cache = new ResponseCache(4096);
+        for (int i = 0; i < 10; i++) {
+            cache.recorder("key" + i, "/messages", null).store(200, "OK", "Connection: close\r\n", new byte[500], "\"" + i + "\"");
+        }
+        assertTrue(cache.getBytes() <= 4096);
+        assertTrue(cache.getEvictions() > 0);
+        assertNull(cache.get("key0", "/messages"));
+        ResponseCache.Entry last = cache.get("key9", "/messages");
+        assertNotNull(last);
+        assertEquals(0, last.headers.length);
+    }
+}
@@ -0,0 +1,116 @@
+package com.netology.server;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ResponseTest {
+
+    @Test
+    public void testBinaryBodyIsNotCorrupted() throws IOException {
+        byte[] binary = {(byte) 0xff, (byte) 0xd8, 0x00, (byte) 0x80, 0x7f};
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new Response(output)
+            .addHeader("Content-Type", "image/jpeg")
+            .setBody(binary)
+            .send();
+
+        byte[] result = output.toByteArray();
+        String head = new String(result, 0, result.length - binary.length, StandardCharsets.US_ASCII);
+        assertTrue(head.startsWith("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n"));
+        assertFalse(head.contains("text/plain"));
+        assertArrayEquals(binary, Arrays.copyOfRange(result, result.length - binary.length, result.length));
+    }
+
+    @Test
+    public void testSendFileAttachesRegionWithoutCopy() throws IOException {
+        Path file = Files.createTempFile("response-", ".bin");
+        try {
+            byte[] content = new byte[100_000];
+            for (int i = 0; i < content.length; i++) {
+                content[i] = (byte) i;
+            }
+            Files.write(file, content);
+
+            ResponseSequencer.Slot slot = new ResponseSequencer.Slot();
+            new Response(slot).sendFile(file, "application/octet-stream");
+
+            // В слоте лежит только заголовок, файл приложен отдельной частью
+            assertTrue(slot.size() < 200);
+            assertEquals(slot.size() + content.length, slot.length());
+            List<Object> segments = new ArrayList<>();
+            slot.drainTo(segments);
+            // Заголовок, файл и метка возврата буфера слота в пул
+            assertEquals(3, segments.size());
+            assertTrue(segments.get(0) instanceof ByteBuffer);
+            assertTrue(segments.get(1) instanceof FileRegion);
+            assertTrue(segments.get(2) instanceof byte[]);
+            for (Object segment : segments) {
+                ResponseSequencer.Slot.release(segment);
+            }
+
+            // Отправка через поток блокирующего сокета
+            slot = new ResponseSequencer.Slot();
+            new Response(slot).sendFile(file, "application/octet-stream");
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            slot.writeTo(output);
+            byte[] result = output.toByteArray();
+            String head = new String(result, 0, slot.size(), StandardCharsets.US_ASCII);
+            assertTrue(head.contains("Content-Length: 100000\r\n"));
+            assertArrayEquals(content, Arrays.copyOfRange(result, slot.size(), result.length));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testChunkedStream() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Response response = new Response(output);
+        OutputStream stream = response.stream(4);
+        stream.write("ab".getBytes(StandardCharsets.US_ASCII));
+        stream.flush();
+        stream.write("0123456789".getBytes(StandardCharsets.US_ASCII));
+        stream.close();
+
+        String result = new String(output.toByteArray(), StandardCharsets.US_ASCII);
+        assertTrue(result.startsWith("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n"));
+        assertFalse(result.contains("Content-Length"));
+        assertTrue(result.endsWith("\r\n\r\n2\r\nab\r\na\r\n0123456789\r\n0\r\n\r\n"));
+        assertTrue(response.isCommitted());
+    }
+
+    @Test
+    public void testStreamForHttp10IsNotChunked() throws IOException {
+        ResponseSequencer.Slot slot = new ResponseSequencer.Slot();
+        Response response = new Response(slot);
+        response.setHttp10(true);
+        response.addHeader("Connection", "keep-alive");
+        OutputStream stream = response.stream(4);
+        stream.write("ab".getBytes(StandardCharsets.US_ASCII));
+        stream.flush();
+        stream.write("0123456789".getBytes(StandardCharsets.US_ASCII));
+        stream.close();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        slot.writeTo(output);
+        String result = new String(output.toByteArray(), StandardCharsets.US_ASCII);
+        // Без длины и без chunked: конец тела - закрытие соединения
+        assertFalse(result.contains("Transfer-Encoding"));
+        assertFalse(result.contains("Content-Length"));
+        assertFalse(result.contains("keep-alive"));
+        assertTrue(result.contains("\r\nConnection: close\r\n"));
+        assertTrue(result.endsWith("\r\n\r\nab0123456789"));
+        assertTrue(slot.isCloseAfter());
+    }
+}
@@ -0,0 +1,71 @@
+package com.netology.server;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+public class RouterTest {
+    private final Handler list = (request, response) -> { };
+    private final Handler create = (request, response) -> { };
+    private final Handler single = (request, response) -> { };
+    private final Handler latest = (request, response) -> { };
+    private final Handler files = (request, response) -> { };
+
+    private Router router() {
+        Router router = new Router();
+        router.add("GET", "/messages", list);
+        router.add("POST", "/messages", create);
+        router.add("GET", "/messages/{id}", single);
+        router.add("GET", "/messages/latest", latest);
+        router.add("GET", "/files/*", files);
+        return router;
+    }
+
+    @Test
+    public void testStaticRoutesAndMethods() {
+        Router router = router();
+
+        Router.Route route = router.find("/messages");
+        assertSame(list, route.handler("GET"));
+        assertSame(create, route.handler("POST"));
+        assertNull(route.handler("DELETE"));
+        assertEquals("GET, POST", route.allow());
+        assertFalse(route.hasParams());
+
+        assertNull(router.find("/unknown"));
+        assertNull(router.find("/messages/1/extra"));
+    }
+
+    @Test
+    public void testPathVariables() {
+        Router router = router();
+
+        // Статический сегмент выигрывает у переменной
+        assertSame(latest, router.find("/messages/latest").handler("GET"));
+
+        Router.Route route = router.find("/messages/42");
+        assertSame(single, route.handler("GET"));
+        Map<String, String> params = route.extractParams("/messages/42");
+        assertEquals("42", params.get("id"));
+    }
+
+    @Test
+    public void testWildcard() {
+        Router router = router();
+
+        Router.Route route = router.find("/files/docs/readme.txt");
+        assertSame(files, route.handler("GET"));
+        assertEquals("docs/readme.txt", route.extractParams("/files/docs/readme.txt").get("*"));
+    }
+
+    @Test
+    public void testManyRoutes() {
+        Router router = new Router();
+        for (int i = 0; i < 5000; i++) {
+            router.add("GET", "/api/v1/resource" + i + "/{id}", single);
+        }
+        assertSame(single, router.find("/api/v1/resource4999/7").handler("GET"));
+        assertNull(router.find("/api/v1/resource5000/7"));
+    }
+}